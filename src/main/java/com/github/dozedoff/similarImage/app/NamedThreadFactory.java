@@ -0,0 +1,47 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.app;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates daemon threads named after the pool they belong to, e.g. "pHash worker 3".
+ */
+public class NamedThreadFactory implements ThreadFactory {
+	private final String prefix;
+	private final int priority;
+	private final AtomicInteger threadNumber = new AtomicInteger();
+
+	public NamedThreadFactory(String prefix) {
+		this(prefix, Thread.NORM_PRIORITY);
+	}
+
+	public NamedThreadFactory(String prefix, int priority) {
+		this.prefix = prefix;
+		this.priority = priority;
+	}
+
+	@Override
+	public Thread newThread(Runnable r) {
+		Thread t = new Thread(r, prefix + " " + threadNumber.getAndIncrement());
+		t.setDaemon(true);
+		t.setPriority(priority);
+		return t;
+	}
+}
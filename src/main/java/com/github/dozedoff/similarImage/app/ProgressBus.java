@@ -0,0 +1,159 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.app;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.dozedoff.similarImage.io.ImageProducer;
+
+/**
+ * Publishes the progress of the pipeline at a fixed rate. The pipeline only updates atomic counters,
+ * the bus reads them once per period and sends a snapshot to the subscribers. The cost of reporting
+ * progress therefore does not depend on the number of processed images.<br>
+ * Each subscriber has its own interval, a multiple of the bus period. Snapshots that have the same
+ * counts as the last one a subscriber received are not sent again.
+ */
+public class ProgressBus {
+	private static final Logger logger = LoggerFactory.getLogger(ProgressBus.class);
+
+	static final double RATE_SMOOTHING = 0.25;
+
+	private final ImageProducer producer;
+	private final long period;
+	private final List<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
+	private ScheduledExecutorService executor;
+	private volatile ProgressSnapshot latest;
+
+	private class Subscription {
+		private final ProgressListener listener;
+		private final long interval;
+		private long lastSent;
+		private ProgressSnapshot lastSnapshot;
+
+		public Subscription(ProgressListener listener, long interval) {
+			this.listener = listener;
+			this.interval = interval;
+		}
+	}
+
+	/**
+	 * @param producer
+	 *            to read the counters from
+	 * @param period
+	 *            time between snapshots in milliseconds
+	 */
+	public ProgressBus(ImageProducer producer, long period) {
+		this.producer = producer;
+		this.period = period;
+	}
+
+	public long getPeriod() {
+		return period;
+	}
+
+	public synchronized void start() {
+		if (executor != null) {
+			return;
+		}
+
+		executor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("Progress bus"));
+		executor.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				publish(takeSnapshot(System.currentTimeMillis()));
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	public synchronized void stop() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	/**
+	 * Receive a snapshot every period.
+	 */
+	public void subscribe(ProgressListener listener) {
+		subscribe(listener, period);
+	}
+
+	/**
+	 * @param interval
+	 *            minimum time between snapshots for this listener, in milliseconds
+	 */
+	public void subscribe(ProgressListener listener, long interval) {
+		subscriptions.add(new Subscription(listener, interval));
+	}
+
+	public void unsubscribe(ProgressListener listener) {
+		for (Subscription subscription : subscriptions) {
+			if (subscription.listener == listener) {
+				subscriptions.remove(subscription);
+			}
+		}
+	}
+
+	/**
+	 * @return the last published snapshot, or null if none was published yet
+	 */
+	public ProgressSnapshot getLatest() {
+		return latest;
+	}
+
+	ProgressSnapshot takeSnapshot(long now) {
+		ProgressSnapshot previous = latest;
+		long hashed = producer.getDrainedCount();
+		double rate = 0;
+
+		if (previous != null && now > previous.getTime()) {
+			double current = (hashed - previous.getHashed()) * 1000.0 / (now - previous.getTime());
+			rate = RATE_SMOOTHING * current + (1 - RATE_SMOOTHING) * previous.getHashRate();
+		}
+
+		return new ProgressSnapshot(now, producer.getProcessedCount(), producer.getTotalCount(), producer.getQueuedCount(),
+				producer.getMaxQueuedCount(), hashed, producer.getReusedHashCount(), rate);
+	}
+
+	void publish(ProgressSnapshot snapshot) {
+		latest = snapshot;
+
+		for (Subscription subscription : subscriptions) {
+			if (snapshot.getTime() - subscription.lastSent < subscription.interval || snapshot.hasSameCounts(subscription.lastSnapshot)) {
+				continue;
+			}
+
+			subscription.lastSent = snapshot.getTime();
+			subscription.lastSnapshot = snapshot;
+
+			try {
+				subscription.listener.progressChanged(snapshot);
+			} catch (RuntimeException e) {
+				logger.warn("Progress listener {} failed - {}", subscription.listener, e.toString());
+			}
+		}
+	}
+}
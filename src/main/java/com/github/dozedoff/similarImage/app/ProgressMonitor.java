@@ -0,0 +1,107 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.app;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Exposes the latest snapshot of the {@link ProgressBus} as an MXBean.
+ */
+public class ProgressMonitor implements ProgressMXBean {
+	private static final Logger logger = LoggerFactory.getLogger(ProgressMonitor.class);
+
+	public static final String OBJECT_NAME = "com.github.dozedoff.similarImage:type=Progress";
+
+	private static final ProgressSnapshot EMPTY = new ProgressSnapshot(0, 0, 0, 0, 0, 0, 0, 0);
+
+	private final ProgressBus bus;
+
+	public ProgressMonitor(ProgressBus bus) {
+		this.bus = bus;
+	}
+
+	/**
+	 * Register the monitor with the platform MBean server.
+	 * 
+	 * @return true if the monitor was registered
+	 */
+	public boolean register() {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+		try {
+			ObjectName name = new ObjectName(OBJECT_NAME);
+
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+
+			server.registerMBean(this, name);
+			return true;
+		} catch (JMException e) {
+			logger.warn("Failed to register progress MBean - {}", e.getMessage());
+			return false;
+		}
+	}
+
+	private ProgressSnapshot snapshot() {
+		ProgressSnapshot latest = bus.getLatest();
+		return latest == null ? EMPTY : latest;
+	}
+
+	@Override
+	public int getProcessed() {
+		return snapshot().getProcessed();
+	}
+
+	@Override
+	public int getTotal() {
+		return snapshot().getTotal();
+	}
+
+	@Override
+	public int getQueued() {
+		return snapshot().getQueued();
+	}
+
+	@Override
+	public int getQueueCapacity() {
+		return snapshot().getQueueCapacity();
+	}
+
+	@Override
+	public long getHashed() {
+		return snapshot().getHashed();
+	}
+
+	@Override
+	public long getReusedHashes() {
+		return snapshot().getReusedHashes();
+	}
+
+	@Override
+	public double getHashRate() {
+		return snapshot().getHashRate();
+	}
+}
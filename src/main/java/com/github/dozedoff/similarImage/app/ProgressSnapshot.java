@@ -0,0 +1,108 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.app;
+
+/**
+ * Immutable view of the pipeline counters at one point in time.
+ */
+public class ProgressSnapshot {
+	private final long time;
+	private final int processed;
+	private final int total;
+	private final int queued;
+	private final int queueCapacity;
+	private final long hashed;
+	private final long reusedHashes;
+	private final double hashRate;
+
+	/**
+	 * @param time
+	 *            when the counters were read, in milliseconds
+	 * @param processed
+	 *            images loaded or skipped
+	 * @param total
+	 *            images found
+	 * @param queued
+	 *            loaded images waiting to be hashed
+	 * @param queueCapacity
+	 *            maximum number of queued images
+	 * @param hashed
+	 *            images handed to workers
+	 * @param reusedHashes
+	 *            images that reused the hash of an identical file
+	 * @param hashRate
+	 *            images handed to workers per second, smoothed
+	 */
+	public ProgressSnapshot(long time, int processed, int total, int queued, int queueCapacity, long hashed, long reusedHashes,
+			double hashRate) {
+		this.time = time;
+		this.processed = processed;
+		this.total = total;
+		this.queued = queued;
+		this.queueCapacity = queueCapacity;
+		this.hashed = hashed;
+		this.reusedHashes = reusedHashes;
+		this.hashRate = hashRate;
+	}
+
+	public long getTime() {
+		return time;
+	}
+
+	public int getProcessed() {
+		return processed;
+	}
+
+	public int getTotal() {
+		return total;
+	}
+
+	public int getQueued() {
+		return queued;
+	}
+
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+
+	public long getHashed() {
+		return hashed;
+	}
+
+	public long getReusedHashes() {
+		return reusedHashes;
+	}
+
+	public double getHashRate() {
+		return hashRate;
+	}
+
+	/**
+	 * @return true if the counters are the same, ignoring the time and rate
+	 */
+	public boolean hasSameCounts(ProgressSnapshot other) {
+		return other != null && processed == other.processed && total == other.total && queued == other.queued
+				&& hashed == other.hashed && reusedHashes == other.reusedHashes;
+	}
+
+	@Override
+	public String toString() {
+		return "Processed " + processed + " of " + total + " images, " + queued + "/" + queueCapacity + " queued, " + hashed
+				+ " hashed (" + String.format("%.1f", hashRate) + " images/s)";
+	}
+}
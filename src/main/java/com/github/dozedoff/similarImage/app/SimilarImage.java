@@ -19,74 +19,266 @@ package com.github.dozedoff.similarImage.app;
 
 import java.awt.Dimension;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.sql.SQLException;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.swing.JComponent;
-import javax.swing.JProgressBar;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.github.dozedoff.commonj.file.FilenameFilterVisitor;
-import com.github.dozedoff.commonj.filefilter.SimpleImageFilter;
 import com.github.dozedoff.commonj.time.StopWatch;
 import com.github.dozedoff.similarImage.db.DBWriter;
 import com.github.dozedoff.similarImage.db.FilterRecord;
+import com.github.dozedoff.similarImage.db.HashLog;
 import com.github.dozedoff.similarImage.db.ImageRecord;
+import com.github.dozedoff.similarImage.db.IndexCheckpointer;
+import com.github.dozedoff.similarImage.db.IndexRun;
 import com.github.dozedoff.similarImage.db.Persistence;
 import com.github.dozedoff.similarImage.duplicate.DuplicateEntry;
+import com.github.dozedoff.similarImage.duplicate.HashSnapshot;
 import com.github.dozedoff.similarImage.duplicate.ImageInfo;
 import com.github.dozedoff.similarImage.duplicate.SortSimilar;
 import com.github.dozedoff.similarImage.gui.DisplayGroup;
 import com.github.dozedoff.similarImage.gui.SimilarImageGUI;
 import com.github.dozedoff.similarImage.hash.PhashWorker;
+import com.github.dozedoff.similarImage.io.BufferPool;
+import com.github.dozedoff.similarImage.io.DecodeMode;
+import com.github.dozedoff.similarImage.io.DeviceScheduler;
+import com.github.dozedoff.similarImage.io.DirectoryWatcher;
+import com.github.dozedoff.similarImage.io.ImageFinder;
 import com.github.dozedoff.similarImage.io.ImageProducer;
+import com.github.dozedoff.similarImage.io.MemoryGovernor;
 import com.j256.ormlite.dao.CloseableWrappedIterable;
 
 public class SimilarImage {
 	private final static Logger logger = LoggerFactory.getLogger(SimilarImage.class);
 
-	private final int WORKER_THREADS = 6;
-	private final int LOADER_THREADS = 2;
+	private final int LOADER_THREADS_PER_CORE = 2;
 	private final int LOADER_PRIORITY = 2;
+	private final int DISCOVERY_THREADS = 4;
 
 	private final int THUMBNAIL_DIMENSION = 500;
 	private final int PRODUCER_QUEUE_SIZE = 400;
+	private final int REDUCED_PRODUCER_QUEUE_SIZE = 10000;
+	private final String DECODE_MODE_PROPERTY = "similarImage.decodeMode";
+	private final String REDUCE_IN_LOADER_PROPERTY = "similarImage.reduceInLoader";
+	private final String MEMORY_BUDGET_PROPERTY = "similarImage.memoryBudgetMb";
+	private final String INCREMENTAL_PROPERTY = "similarImage.incremental";
+	private final String HASH_THREADS_PROPERTY = "similarImage.hashThreads";
+	private final String LOADER_THREADS_PROPERTY = "similarImage.loaderThreads";
+	private final String BALANCE_STAGES_PROPERTY = "similarImage.balanceStages";
+	private final String MAX_PIXELS_PROPERTY = "similarImage.maxPixels";
+	private final String DECODE_TIMEOUT_PROPERTY = "similarImage.decodeTimeoutMs";
+	private final long DEFAULT_MAX_PIXELS = 100000000L;
+	private final long DEFAULT_DECODE_TIMEOUT = 30000L;
+	private final String READS_PER_DEVICE_PROPERTY = "similarImage.readsPerDevice";
+	private final String READ_BUFFER_PROPERTY = "similarImage.readBufferMb";
+	private final int DEFAULT_READS_PER_DEVICE = 64;
+	private final int DEFAULT_READ_BUFFER = 128;
+	private final int MAX_POOLED_READ_BUFFER = 16 * 1024 * 1024;
+	private final String PROGRESS_INTERVAL_PROPERTY = "similarImage.progressIntervalMs";
+	private final String JMX_PROPERTY = "similarImage.jmx";
+	private final int DEFAULT_PROGRESS_INTERVAL = 250;
+	private final String HASH_SNAPSHOT = "similarImage.hashes";
+	private final String HASH_LOG = "similarImage.hashes.log";
+	private final String WAL_PROPERTY = "similarImage.wal";
+	private final String READ_CONNECTIONS_PROPERTY = "similarImage.readConnections";
+	private final int DEFAULT_READ_CONNECTIONS = 4;
 
 	SimilarImageGUI gui;
 	DisplayGroup displayGroup;
 
 	private ImageProducer producer;
-	private PhashWorker workers[] = new PhashWorker[WORKER_THREADS];
+	private ImageFinder imageFinder;
+	private ExecutorService hashPool;
+	private ExecutorService loaderPool;
+	private ExecutorService decodePool;
+	private int hashThreads;
+	private final Map<PhashWorker, Future<?>> workers = new LinkedHashMap<PhashWorker, Future<?>>();
+	private DirectoryWatcher directoryWatcher;
+	private volatile boolean stopped;
 	private Persistence persistence;
 	private SortSimilar sorter;
 	private DBWriter dbWriter;
+	private HashLog hashLog;
+	private ProgressBus progressBus;
 
 	public static void main(String[] args) {
 		new SimilarImage().init();
 	}
 
+	/**
+	 * Set up the pipeline and show the GUI.
+	 */
 	public void init() {
-		persistence = new Persistence();
+		initHeadless();
+		gui = new SimilarImageGUI(this, persistence);
+		displayGroup = new DisplayGroup();
+	}
+
+	/**
+	 * Set up the pipeline without any Swing components, for batch jobs.
+	 */
+	public void initHeadless() {
+		if (Boolean.getBoolean(WAL_PROPERTY)) {
+			int readConnections = Integer.getInteger(READ_CONNECTIONS_PROPERTY, DEFAULT_READ_CONNECTIONS);
+
+			if (readConnections < 1) {
+				logger.warn("WAL journaling needs at least one read connection, using {} instead of {}", DEFAULT_READ_CONNECTIONS,
+						readConnections);
+				readConnections = DEFAULT_READ_CONNECTIONS;
+			}
+
+			persistence = new Persistence(readConnections);
+		} else {
+			persistence = new Persistence();
+		}
+
+		hashLog = new HashLog(Paths.get(HASH_LOG));
+		persistence.setHashLog(hashLog);
 		sorter = new SortSimilar(persistence);
 		dbWriter = new DBWriter(persistence);
 
-		producer = new ImageProducer(PRODUCER_QUEUE_SIZE, persistence);
-		producer.setThreadPriority(LOADER_PRIORITY);
-		producer.startLoader(LOADER_THREADS);
+		boolean reduceInLoader = Boolean.getBoolean(REDUCE_IN_LOADER_PROPERTY);
+		int queueSize = reduceInLoader ? REDUCED_PRODUCER_QUEUE_SIZE : PRODUCER_QUEUE_SIZE;
 
-		gui = new SimilarImageGUI(this, persistence);
-		displayGroup = new DisplayGroup();
+		producer = new ImageProducer(queueSize, persistence);
+		producer.setDecodeMode(getDecodeMode());
+		producer.setReduceInLoader(reduceInLoader);
+		producer.setIncremental(Boolean.getBoolean(INCREMENTAL_PROPERTY));
+
+		Integer memoryBudget = Integer.getInteger(MEMORY_BUDGET_PROPERTY);
+
+		if (memoryBudget != null) {
+			producer.setMemoryGovernor(new MemoryGovernor(memoryBudget * 1024L * 1024L));
+		}
+
+		int cores = Runtime.getRuntime().availableProcessors();
+		hashThreads = Integer.getInteger(HASH_THREADS_PROPERTY, cores);
+		int loaderThreads = Integer.getInteger(LOADER_THREADS_PROPERTY, cores * LOADER_THREADS_PER_CORE);
+		logger.info("Using {} hash and {} loader threads on {} cores", hashThreads, loaderThreads, cores);
+
+		hashPool = Executors.newCachedThreadPool(new NamedThreadFactory("pHash worker"));
+		loaderPool = Executors.newCachedThreadPool(new NamedThreadFactory("Image loader", LOADER_PRIORITY));
+		producer.startLoader(loaderPool, loaderThreads);
+
+		decodePool = Executors.newCachedThreadPool(new NamedThreadFactory("Image decoder", LOADER_PRIORITY));
+		long maxPixels = Long.getLong(MAX_PIXELS_PROPERTY, DEFAULT_MAX_PIXELS);
+		long decodeTimeout = Long.getLong(DECODE_TIMEOUT_PROPERTY, DEFAULT_DECODE_TIMEOUT);
+		producer.setDecodeLimits(maxPixels, decodeTimeout, decodePool);
+
+		int readsPerDevice = Integer.getInteger(READS_PER_DEVICE_PROPERTY, DEFAULT_READS_PER_DEVICE);
+		long readBuffer = Integer.getInteger(READ_BUFFER_PROPERTY, DEFAULT_READ_BUFFER) * 1024L * 1024L;
+		producer.setDeviceScheduler(new DeviceScheduler(new BufferPool(MAX_POOLED_READ_BUFFER, readBuffer), readsPerDevice));
+
+		if (Boolean.parseBoolean(System.getProperty(BALANCE_STAGES_PROPERTY, "true"))) {
+			startStageBalancer();
+		}
+		imageFinder = new ImageFinder(producer, DISCOVERY_THREADS);
+
+		progressBus = new ProgressBus(producer, Integer.getInteger(PROGRESS_INTERVAL_PROPERTY, DEFAULT_PROGRESS_INTERVAL));
+		progressBus.start();
+
+		if (Boolean.parseBoolean(System.getProperty(JMX_PROPERTY, "true"))) {
+			new ProgressMonitor(progressBus).register();
+		}
+	}
+
+	private void setStatus(String status) {
+		if (gui != null) {
+			gui.setStatus(status);
+		} else {
+			logger.info(status);
+		}
+	}
+
+	private void showGroups(List<Long> groups) {
+		if (gui != null) {
+			gui.populateGroupList(groups);
+		}
+	}
+
+	private void startStageBalancer() {
+		StageBalancer.Stage loaders = new StageBalancer.Stage() {
+			@Override
+			public int getThreadCount() {
+				return producer.getLoaderCount();
+			}
+
+			@Override
+			public void setThreadCount(int threads) {
+				producer.setLoaderCount(threads);
+			}
+		};
+
+		StageBalancer.Stage hashers = new StageBalancer.Stage() {
+			@Override
+			public int getThreadCount() {
+				return getHashThreads();
+			}
+
+			@Override
+			public void setThreadCount(int threads) {
+				setHashThreads(threads);
+			}
+		};
+
+		new StageBalancer(producer, loaders, hashers).start();
+	}
+
+	private DecodeMode getDecodeMode() {
+		String mode = System.getProperty(DECODE_MODE_PROPERTY, DecodeMode.FULL.toString());
+
+		try {
+			return DecodeMode.valueOf(mode.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			logger.warn("Unknown decode mode {}, using {}", mode, DecodeMode.FULL);
+			return DecodeMode.FULL;
+		}
+	}
+
+	/**
+	 * Receive progress snapshots at the rate of the progress bus.
+	 */
+	public void addProgressListener(ProgressListener listener) {
+		progressBus.subscribe(listener);
+	}
+
+	/**
+	 * @param interval
+	 *            minimum time between snapshots in milliseconds
+	 */
+	public void addProgressListener(ProgressListener listener, long interval) {
+		progressBus.subscribe(listener, interval);
+	}
+
+	public void removeProgressListener(ProgressListener listener) {
+		progressBus.unsubscribe(listener);
+	}
+
+	public boolean isIncrementalIndexing() {
+		return producer.isIncremental();
 	}
 
-	public JProgressBar getBufferLevel() {
-		return producer.getBufferLevel();
+	/**
+	 * @param incremental
+	 *            if true, images with a changed size or modification time are hashed again
+	 */
+	public void setIncrementalIndexing(boolean incremental) {
+		producer.setIncremental(incremental);
 	}
 
 	public void indexImages(String path) {
@@ -94,68 +286,236 @@ public class SimilarImage {
 		t.start();
 	}
 
+	public synchronized boolean isWatching() {
+		return directoryWatcher != null;
+	}
+
+	/**
+	 * Watch the directory tree for changes and hash new or changed images as they appear. Workers keep
+	 * running until {@link #stopWatching()} is called.
+	 */
+	public synchronized void startWatching(String path) {
+		if (directoryWatcher != null) {
+			logger.warn("Already watching, stop the current watch first");
+			return;
+		}
+
+		try {
+			directoryWatcher = new DirectoryWatcher(producer, persistence, Paths.get(path));
+		} catch (IOException e) {
+			logger.warn("Failed to create watch service - {}", e.getMessage());
+			return;
+		}
+
+		directoryWatcher.start();
+		startWorkers();
+
+		setStatus("Watching " + path);
+	}
+
+	public synchronized void stopWatching() {
+		if (directoryWatcher == null) {
+			return;
+		}
+
+		directoryWatcher.stopWatching();
+		directoryWatcher = null;
+		setStatus("Stopped watching");
+	}
+
 	public void sortDuplicates(int hammingDistance) {
 		Thread t = new ImageSorter(hammingDistance);
 		t.start();
 	}
 
+	/**
+	 * Group byte-identical files, using the content digest instead of the pHash.
+	 */
+	public void sortIdenticalFiles() {
+		Thread t = new IdenticalFileSorter();
+		t.start();
+	}
+
 	public void sortFilter(int hammingDistance, String reason) {
 		Thread t = new FilterSorter(hammingDistance, reason);
 		t.start();
 	}
 
-	private void findImages(String path, LinkedList<Path> imagePaths) {
-		FilenameFilterVisitor visitor = new FilenameFilterVisitor(imagePaths, new SimpleImageFilter());
-		Path directoryToSearch = Paths.get(path);
+	/**
+	 * Search for images and hash them. Workers start right away and hash images while the search is
+	 * still running. Progress is saved as an index run, if a previous run for the same path did not
+	 * finish, it is resumed.
+	 */
+	private void indexPath(String path) {
+		StopWatch sw = new StopWatch();
+		Path root = Paths.get(path);
+		stopped = false;
+
+		sw.start();
+		IndexCheckpointer checkpointer = startCheckpointer(root);
+		producer.setCheckpointer(checkpointer);
+		dbWriter.setCheckpointer(checkpointer);
+
+		startWorkers();
+
+		int found = 0;
+		producer.openFeed();
+
 		try {
-			Files.walkFileTree(directoryToSearch, visitor);
-		} catch (IOException e) {
-			logger.error("Failed to walk file tree", e);
-			return;
+			if (checkpointer != null) {
+				found += resumePendingWork(checkpointer.getRun());
+			}
+
+			if (checkpointer != null && checkpointer.getRun().isDiscoveryComplete()) {
+				logger.info("Search of {} was completed by a previous run, skipping it", root);
+			} else {
+				found += imageFinder.find(root);
+
+				if (checkpointer != null && !stopped) {
+					checkpointer.setDiscoveryComplete();
+				}
+			}
+		} finally {
+			producer.closeFeed();
 		}
 
-		logger.info("Found {} images", imagePaths.size());
-		gui.setTotalFiles(imagePaths.size());
+		awaitIdle();
+		dbWriter.flush();
+
+		if (checkpointer != null) {
+			producer.setCheckpointer(null);
+			dbWriter.setCheckpointer(null);
+			checkpointer.close(!stopped);
+		}
+
+		sw.stop();
+		logger.info("Took {} to process {} images", sw.getTime(), found);
+		logger.info("{}", producer.getMemoryGovernor());
+		logger.info("{}", dbWriter);
+		logger.info("{}", producer.getDeviceScheduler().getPool());
+		logger.info("{}", producer.getDeviceScheduler());
+		logger.info("Reused the hash of an identical file for {} images", producer.getReusedHashCount());
 	}
 
-	private void calculateHashes(List<Path> imagePaths) {
-		StopWatch sw = new StopWatch();
+	private IndexCheckpointer startCheckpointer(Path root) {
+		try {
+			IndexRun run = persistence.getUnfinishedRun(root);
 
-		sw.start();
-		logger.info("Creating and starting workers...");
-		for (int i = 0; i < WORKER_THREADS; i++) {
-			workers[i] = new PhashWorker(producer, dbWriter);
-			workers[i].start();
+			if (run == null) {
+				run = persistence.startIndexRun(root);
+			} else {
+				logger.info("Resuming index run {} for {}, started on {}", run.getId(), root, new Date(run.getStarted()));
+			}
+
+			IndexCheckpointer checkpointer = new IndexCheckpointer(persistence, run);
+			checkpointer.start();
+			return checkpointer;
+		} catch (SQLException e) {
+			logger.warn("Failed to set up index run, progress will not be saved - {}", e.getMessage());
+			return null;
 		}
+	}
 
-		logger.info("Adding paths to ImageProducer");
-		producer.addToLoad(imagePaths);
+	private int resumePendingWork(IndexRun run) {
+		try {
+			List<Path> pending = persistence.getPendingWork(run);
 
-		for (int i = 0; i < WORKER_THREADS; i++) {
-			try {
-				workers[i].join();
-			} catch (InterruptedException e) {
-				logger.info("Interrupted waiting for {}", workers[i].getName());
+			if (!pending.isEmpty()) {
+				logger.info("Resuming {} pending images from run {}", pending.size(), run.getId());
+				producer.addPending(pending);
 			}
+
+			return pending.size();
+		} catch (SQLException e) {
+			logger.warn("Failed to load pending work for run {} - {}", run.getId(), e.getMessage());
+			return 0;
 		}
+	}
 
-		sw.stop();
-		logger.info("Took {} to process {} images", sw.getTime(), imagePaths.size());
+	/**
+	 * Submit workers to the hash pool until it is fully used. Workers that are still running from an
+	 * earlier call are kept.
+	 */
+	private synchronized void startWorkers() {
+		removeFinishedWorkers();
+		int started = 0;
+
+		while (workers.size() < hashThreads) {
+			PhashWorker worker = new PhashWorker(producer, dbWriter);
+			workers.put(worker, hashPool.submit(worker));
+			started++;
+		}
+
+		logger.info("Started {} workers, {} running", started, workers.size());
+	}
+
+	private synchronized int getHashThreads() {
+		return hashThreads;
+	}
+
+	/**
+	 * Change the number of hash workers. If workers are running, additional workers are started right
+	 * away and surplus workers exit after finishing their current batch.
+	 */
+	private synchronized void setHashThreads(int threads) {
+		hashThreads = threads;
+		removeFinishedWorkers();
+
+		if (workers.isEmpty()) {
+			return;
+		}
+
+		Iterator<PhashWorker> iter = workers.keySet().iterator();
+
+		while (workers.size() > hashThreads && iter.hasNext()) {
+			iter.next().stopWorker();
+			iter.remove();
+		}
+
+		startWorkers();
+	}
+
+	private void removeFinishedWorkers() {
+		Iterator<Future<?>> iter = workers.values().iterator();
+
+		while (iter.hasNext()) {
+			if (iter.next().isDone()) {
+				iter.remove();
+			}
+		}
+	}
+
+	/**
+	 * Wait until the workers have hashed everything that was found. Workers are shared with a running
+	 * watch and do not exit while it is running, so this waits on the producer instead of the workers.
+	 */
+	private void awaitIdle() {
+		try {
+			producer.awaitIdle();
+		} catch (InterruptedException e) {
+			logger.info("Interrupted waiting for workers");
+			Thread.currentThread().interrupt();
+		}
 	}
 
 	public void stopWorkers() {
 		logger.info("Stopping all workers...");
+		stopped = true;
+		imageFinder.cancel();
 		producer.clear();
-		for (PhashWorker phw : workers) {
-			if (phw != null) {
-				logger.info("Stopping {}...", phw.getName());
-				phw.stopWorker();
+
+		synchronized (this) {
+			for (Entry<PhashWorker, Future<?>> worker : workers.entrySet()) {
+				worker.getKey().stopWorker();
+				worker.getValue().cancel(true);
 			}
+
+			workers.clear();
 		}
 	}
 
 	public void displayGroup(long group) {
-		Set<ImageRecord> grouplist = sorter.getGroup(group);
+		Set<ImageRecord> grouplist = getGroup(group);
 		LinkedList<JComponent> images = new LinkedList<JComponent>();
 		Dimension imageDim = new Dimension(THUMBNAIL_DIMENSION, THUMBNAIL_DIMENSION);
 
@@ -175,6 +535,110 @@ public class SimilarImage {
 		sorter.ignore(toIgnore);
 	}
 
+	/**
+	 * Search the path for images and hash them, returning once all images have been processed.
+	 */
+	public void index(String path) {
+		producer.clear();
+		setStatus("Running...");
+
+		if (!persistence.isPathIndexLoaded()) {
+			setStatus("Loading known paths...");
+
+			try {
+				persistence.loadPathIndex();
+			} catch (SQLException e) {
+				logger.warn("Failed to load known paths, falling back to database lookups - {}", e.getMessage());
+			}
+		}
+
+		logger.info("Hashing images in {}", path);
+		setStatus("Hashing images...");
+		indexPath(path);
+		setStatus("Done");
+	}
+
+	/**
+	 * Group images by pHash.
+	 * 
+	 * @param hammingDistance
+	 *            maximum distance between hashes in a group, 0 for exact matches
+	 * @return the groups with more than one image
+	 */
+	public List<Long> findDuplicates(int hammingDistance) {
+		sorter.clear();
+		setStatus("Sorting...");
+
+		try {
+			HashSnapshot snapshot = HashSnapshot.load(Paths.get(HASH_SNAPSHOT), hashLog, persistence);
+			sorter.sortHammingDistance(hammingDistance, snapshot);
+		} catch (SQLException e) {
+			logger.warn("Failed to load hashes - {}", e.getMessage());
+		}
+
+		setStatus("" + sorter.getNumberOfDuplicateGroups() + " Groups");
+		return sorter.getDuplicateGroups();
+	}
+
+	/**
+	 * Group byte-identical files, using the content digest instead of the pHash.
+	 * 
+	 * @return the groups with more than one image
+	 */
+	public List<Long> findIdenticalFiles() {
+		sorter.clear();
+		setStatus("Looking for identical files...");
+
+		try {
+			CloseableWrappedIterable<ImageRecord> records = persistence.getImageRecordIterator();
+			sorter.sortIdenticalFiles(records);
+		} catch (SQLException e) {
+			logger.warn("Failed to load records - {}", e.getMessage());
+		}
+
+		setStatus("" + sorter.getNumberOfDuplicateGroups() + " Groups of identical files");
+		return sorter.getDuplicateGroups();
+	}
+
+	/**
+	 * Group images by the filters they match.
+	 * 
+	 * @param hammingDistance
+	 *            maximum distance between an image and a filter
+	 * @param reason
+	 *            of the filters to use, null or empty for all
+	 * @return the groups with matching images
+	 */
+	public List<Long> findFilterMatches(int hammingDistance, String reason) {
+		sorter.clear();
+		setStatus("Sorting...");
+
+		try {
+			HashSnapshot snapshot = HashSnapshot.load(Paths.get(HASH_SNAPSHOT), hashLog, persistence);
+			List<FilterRecord> filterRecords = persistence.getAllFilters(reason);
+			sorter.sortFilter(hammingDistance, reason, snapshot, filterRecords);
+		} catch (SQLException e) {
+			logger.warn("Failed to load from database - {}", e.getMessage());
+		}
+
+		setStatus("" + sorter.getNumberOfDuplicateGroups() + " Groups");
+		return sorter.getDuplicateGroups();
+	}
+
+	/**
+	 * @return the images in a group found by the last sort
+	 */
+	public Set<ImageRecord> getGroup(long group) {
+		return sorter.getGroup(group);
+	}
+
+	/**
+	 * Write all queued records to the database.
+	 */
+	public void flush() {
+		dbWriter.flush();
+	}
+
 	class ImageIndexer extends Thread {
 		String path;
 
@@ -184,16 +648,7 @@ public class SimilarImage {
 
 		@Override
 		public void run() {
-			producer.clear();
-			gui.setStatus("Running...");
-			logger.info("Hashing images in {}", path);
-			LinkedList<Path> imagePaths = new LinkedList<Path>();
-
-			gui.setStatus("Looking for images...");
-			findImages(path, imagePaths);
-			gui.setStatus("Hashing images...");
-			calculateHashes(imagePaths);
-			gui.setStatus("Done");
+			index(path);
 		}
 	}
 
@@ -207,34 +662,20 @@ public class SimilarImage {
 
 		@Override
 		public void run() {
-			List<ImageRecord> dBrecords = new LinkedList<ImageRecord>();
-
-			sorter.clear();
-			gui.setStatus("Sorting...");
-
-			try {
-				dBrecords = persistence.getAllRecords();
-			} catch (SQLException e) {
-				logger.warn("Failed to load records - {}", e.getMessage());
-			}
+			showGroups(findDuplicates(hammingDistance));
+		}
+	}
 
-			if (hammingDistance == 0) {
-				CloseableWrappedIterable<ImageRecord> records = persistence.getImageRecordIterator();
-				sorter.sortExactMatch(records);
-			} else {
-				sorter.sortHammingDistance(hammingDistance, dBrecords);
-			}
-			gui.setStatus("" + sorter.getNumberOfDuplicateGroups() + " Groups");
-			List<Long> groups = sorter.getDuplicateGroups();
-			gui.populateGroupList(groups);
+	class IdenticalFileSorter extends Thread {
+		@Override
+		public void run() {
+			showGroups(findIdenticalFiles());
 		}
 	}
 
 	class FilterSorter extends Thread {
 		int hammingDistance = 0;
 		String reason;
-		List<ImageRecord> dBrecords = new LinkedList<ImageRecord>();
-		List<FilterRecord> filterRecords = new LinkedList<FilterRecord>();
 
 		public FilterSorter(int hammingDistance, String reason) {
 			super();
@@ -244,23 +685,7 @@ public class SimilarImage {
 
 		@Override
 		public void run() {
-			gui.setStatus("Sorting...");
-
-			try {
-				dBrecords = persistence.getAllRecords();
-				filterRecords = persistence.getAllFilters(reason);
-			} catch (SQLException e) {
-				logger.warn("Failed to load from database - {}", e.getMessage());
-			}
-
-			sorter.sortFilter(hammingDistance, reason, dBrecords, filterRecords);
-			gui.setStatus("" + sorter.getNumberOfDuplicateGroups() + " Groups");
-			List<Long> groups = sorter.getDuplicateGroups();
-			gui.populateGroupList(groups);
+			showGroups(findFilterMatches(hammingDistance, reason));
 		}
 	}
-
-	public JProgressBar getTotalProgress() {
-		return producer.getTotalProgress();
-	}
 }
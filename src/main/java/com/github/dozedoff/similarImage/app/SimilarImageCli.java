@@ -0,0 +1,207 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.app;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.dozedoff.similarImage.db.ImageRecord;
+import com.github.dozedoff.similarImage.duplicate.GroupExporter;
+import com.github.dozedoff.similarImage.duplicate.GroupExporter.Format;
+
+/**
+ * Command line entry point for batch jobs on machines without a display. Indexes the given paths,
+ * optionally sorts the images into groups and writes the groups as JSON or CSV.
+ */
+public class SimilarImageCli {
+	private static final Logger logger = LoggerFactory.getLogger(SimilarImageCli.class);
+
+	private static final int PROGRESS_LOG_INTERVAL = 10000;
+	private static final String USAGE = "Usage: SimilarImageCli [options] [path...]\n"
+			+ "  --duplicates <distance>       group images with a pHash distance of at most <distance>\n"
+			+ "  --identical                   group byte-identical files\n"
+			+ "  --filter <distance> <reason>  group images matching filters, use \"\" for all reasons\n"
+			+ "  --format json|csv             output format, default json\n"
+			+ "  --output <file>               write groups to a file instead of standard output\n";
+
+	private enum Sort {
+		NONE, DUPLICATES, IDENTICAL, FILTER
+	}
+
+	private final List<String> paths = new LinkedList<String>();
+	private Sort sort = Sort.NONE;
+	private int hammingDistance;
+	private String reason;
+	private Format format = Format.JSON;
+	private String output;
+
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+		SimilarImageCli cli = new SimilarImageCli();
+
+		try {
+			cli.parse(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.print(USAGE);
+			System.exit(2);
+		}
+
+		try {
+			cli.run();
+		} catch (IOException e) {
+			logger.error("Failed to write groups - {}", e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	void parse(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+
+			if ("--duplicates".equals(arg)) {
+				sort = Sort.DUPLICATES;
+				hammingDistance = parseDistance(value(args, ++i, arg));
+			} else if ("--identical".equals(arg)) {
+				sort = Sort.IDENTICAL;
+			} else if ("--filter".equals(arg)) {
+				sort = Sort.FILTER;
+				hammingDistance = parseDistance(value(args, ++i, arg));
+				reason = value(args, ++i, arg);
+			} else if ("--format".equals(arg)) {
+				format = parseFormat(value(args, ++i, arg));
+			} else if ("--output".equals(arg)) {
+				output = value(args, ++i, arg);
+			} else if (arg.startsWith("--")) {
+				throw new IllegalArgumentException("Unknown option " + arg);
+			} else {
+				paths.add(arg);
+			}
+		}
+
+		if (paths.isEmpty() && sort == Sort.NONE) {
+			throw new IllegalArgumentException("Nothing to do");
+		}
+	}
+
+	private String value(String[] args, int index, String option) {
+		if (index >= args.length) {
+			throw new IllegalArgumentException("Missing value for " + option);
+		}
+
+		return args[index];
+	}
+
+	private int parseDistance(String value) {
+		try {
+			int distance = Integer.parseInt(value);
+
+			if (distance < 0 || distance > 64) {
+				throw new IllegalArgumentException("Distance must be between 0 and 64: " + value);
+			}
+
+			return distance;
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid distance " + value);
+		}
+	}
+
+	private Format parseFormat(String value) {
+		try {
+			return Format.valueOf(value.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Unknown format " + value);
+		}
+	}
+
+	List<String> getPaths() {
+		return paths;
+	}
+
+	Format getFormat() {
+		return format;
+	}
+
+	void run() throws IOException {
+		SimilarImage app = new SimilarImage();
+		app.initHeadless();
+		app.addProgressListener(new ProgressListener() {
+			@Override
+			public void progressChanged(ProgressSnapshot snapshot) {
+				logger.info("{}", snapshot);
+			}
+		}, PROGRESS_LOG_INTERVAL);
+
+		for (String path : paths) {
+			app.index(path);
+		}
+
+		app.flush();
+
+		if (sort == Sort.NONE) {
+			return;
+		}
+
+		List<Long> groups;
+
+		if (sort == Sort.DUPLICATES) {
+			groups = app.findDuplicates(hammingDistance);
+		} else if (sort == Sort.IDENTICAL) {
+			groups = app.findIdenticalFiles();
+		} else {
+			groups = app.findFilterMatches(hammingDistance, reason);
+		}
+
+		Map<Long, Set<ImageRecord>> grouped = new LinkedHashMap<Long, Set<ImageRecord>>();
+
+		for (Long group : groups) {
+			grouped.put(group, app.getGroup(group));
+		}
+
+		writeGroups(grouped);
+	}
+
+	private void writeGroups(Map<Long, Set<ImageRecord>> groups) throws IOException {
+		GroupExporter exporter = new GroupExporter(format);
+
+		if (output == null) {
+			exporter.write(groups, new OutputStreamWriter(System.out, "UTF-8"));
+			return;
+		}
+
+		Writer writer = new OutputStreamWriter(new FileOutputStream(output), "UTF-8");
+
+		try {
+			exporter.write(groups, writer);
+		} finally {
+			writer.close();
+		}
+
+		logger.info("Wrote {} groups to {}", groups.size(), output);
+	}
+}
@@ -0,0 +1,154 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.app;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.dozedoff.similarImage.io.ImageProducer;
+
+/**
+ * Moves threads between loading and hashing, depending on which stage is the bottleneck.<br>
+ * If the queue of loaded images fills up, hashing is too slow and a loader thread is handed over to
+ * hashing. If the queue runs empty while there are still images to load, loading is too slow and a
+ * hashing thread is handed over to loading. If the throughput drops after a move, the move is undone
+ * and the split is kept for a while.
+ */
+public class StageBalancer extends Thread {
+	private static final Logger logger = LoggerFactory.getLogger(StageBalancer.class);
+
+	static final double HIGH_OCCUPANCY = 0.8;
+	static final double LOW_OCCUPANCY = 0.2;
+	static final double RATE_TOLERANCE = 0.1;
+	static final int HOLD_INTERVALS = 6;
+
+	private final int BALANCE_INTERVAL = 5000;
+	private final int MIN_THREADS = 1;
+
+	/**
+	 * A pipeline stage whose number of threads can be changed.
+	 */
+	public interface Stage {
+		int getThreadCount();
+
+		void setThreadCount(int threads);
+	}
+
+	private final ImageProducer producer;
+	private final Stage loaders;
+	private final Stage hashers;
+
+	private long lastDrained;
+	private double lastRate;
+	private int lastShift;
+	private int hold;
+
+	public StageBalancer(ImageProducer producer, Stage loaders, Stage hashers) {
+		super("Stage balancer");
+		setDaemon(true);
+		this.producer = producer;
+		this.loaders = loaders;
+		this.hashers = hashers;
+	}
+
+	@Override
+	public void run() {
+		lastDrained = producer.getDrainedCount();
+
+		while (!isInterrupted()) {
+			try {
+				Thread.sleep(BALANCE_INTERVAL);
+			} catch (InterruptedException e) {
+				interrupt();
+				break;
+			}
+
+			long drained = producer.getDrainedCount();
+			double rate = (drained - lastDrained) * 1000.0 / BALANCE_INTERVAL;
+			lastDrained = drained;
+
+			if (!producer.hasWork()) {
+				continue;
+			}
+
+			balance(producer.getQueuedCount(), producer.getMaxQueuedCount(), producer.getPendingCount(), rate);
+		}
+	}
+
+	/**
+	 * Decide if a thread should be moved, and move it.
+	 *
+	 * @param queued
+	 *            number of loaded images waiting to be hashed
+	 * @param capacity
+	 *            maximum number of loaded images that can be queued
+	 * @param pending
+	 *            number of images waiting to be loaded
+	 * @param rate
+	 *            images hashed per second since the last call
+	 * @return the number of threads moved to loading, negative if they were moved to hashing
+	 */
+	int balance(int queued, int capacity, int pending, double rate) {
+		double occupancy = (double) queued / capacity;
+		int shift = 0;
+		boolean undo = false;
+
+		if (lastShift != 0 && rate < lastRate * (1 - RATE_TOLERANCE)) {
+			shift = -lastShift;
+			undo = true;
+			hold = HOLD_INTERVALS;
+			logger.info("Throughput dropped from {} to {} images/s, undoing the last move", format(lastRate), format(rate));
+		} else if (hold > 0) {
+			hold--;
+		} else if (occupancy >= HIGH_OCCUPANCY) {
+			shift = -1;
+		} else if (occupancy <= LOW_OCCUPANCY && pending > 0) {
+			shift = 1;
+		}
+
+		shift = move(shift);
+
+		if (shift != 0) {
+			logger.info("Queue {}% full, {} images/s, moved {} thread to {}: {} loaders, {} hashers", Math.round(occupancy * 100),
+					format(rate), Math.abs(shift), shift > 0 ? "loading" : "hashing", loaders.getThreadCount(), hashers.getThreadCount());
+		}
+
+		// an undo is not checked again, or the balancer would flip back and forth
+		lastShift = undo ? 0 : shift;
+		lastRate = rate;
+		return shift;
+	}
+
+	private int move(int shift) {
+		if (shift > 0 && hashers.getThreadCount() - shift >= MIN_THREADS) {
+			hashers.setThreadCount(hashers.getThreadCount() - shift);
+			loaders.setThreadCount(loaders.getThreadCount() + shift);
+			return shift;
+		} else if (shift < 0 && loaders.getThreadCount() + shift >= MIN_THREADS) {
+			loaders.setThreadCount(loaders.getThreadCount() + shift);
+			hashers.setThreadCount(hashers.getThreadCount() - shift);
+			return shift;
+		}
+
+		return 0;
+	}
+
+	private String format(double rate) {
+		return String.format("%.1f", rate);
+	}
+}
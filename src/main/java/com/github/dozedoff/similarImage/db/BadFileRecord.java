@@ -26,6 +26,8 @@ import com.j256.ormlite.table.DatabaseTable;
 public class BadFileRecord {
 	@DatabaseField(id = true, canBeNull = false)
 	private String path;
+	@DatabaseField
+	private String reason;
 
 	/**
 	 * Intended for DAO use.
@@ -38,7 +40,25 @@ public class BadFileRecord {
 		this.path = path.toString();
 	}
 
+	/**
+	 * @param path
+	 *            of the file
+	 * @param reason
+	 *            why the file could not be processed
+	 */
+	public BadFileRecord(Path path, String reason) {
+		this.path = path.toString();
+		this.reason = reason;
+	}
+
 	public String getPath() {
 		return path;
 	}
+
+	/**
+	 * @return why the file could not be processed, null if unknown
+	 */
+	public String getReason() {
+		return reason;
+	}
 }
@@ -17,31 +17,289 @@
  */
 package com.github.dozedoff.similarImage.db;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.github.dozedoff.commonj.util.Pair;
 
+/**
+ * Writes records on a background thread. Queued lists are grouped until enough records have been
+ * collected, or the oldest list has waited long enough, and each group is written in a single
+ * transaction.<br>
+ * The queue is bounded. If it stays full, lists are appended to a journal on disk instead. Records
+ * in the journal are written once the queue has drained, or on the next start.
+ */
 public class DBWriter {
 	private final static Logger logger = LoggerFactory.getLogger(DBWriter.class);
 
 	private final int MAX_RETRY = 3;
+	private final int GROUP_COMMIT_SIZE = 1000;
+	private final long GROUP_COMMIT_TIME = 1000;
+	private static final int MAX_PENDING_LISTS = 500;
+	private final long OFFER_TIMEOUT = 5000;
+	private static final String DEFAULT_JOURNAL = "similarImage.journal";
 	private final Persistence persistence;
+	private final Object writeLock = new Object();
+	private volatile IndexCheckpointer checkpointer;
+	private final WriteJournal journal;
+
+	private final AtomicInteger queuedRecords = new AtomicInteger();
+	private final AtomicLong spilledRecords = new AtomicLong();
+	private final AtomicLong commits = new AtomicLong();
+	private final AtomicLong totalCommitTime = new AtomicLong();
+	private final AtomicLong maxCommitTime = new AtomicLong();
+
+	LinkedBlockingQueue<Pair<List<ImageRecord>, Integer>> pendingWrites = new LinkedBlockingQueue<Pair<List<ImageRecord>, Integer>>(
+			MAX_PENDING_LISTS);
+
+	/**
+	 * One permit per list offered to the queue. The daemon waits on this instead of the queue, so lists
+	 * are only taken off the queue while holding the write lock.
+	 */
+	private final Semaphore queuedLists = new Semaphore(0);
 
-	LinkedBlockingQueue<Pair<List<ImageRecord>, Integer>> pendingWrites = new LinkedBlockingQueue<Pair<List<ImageRecord>, Integer>>();
+	/**
+	 * Lists the daemon has taken off the queue for the next group. Guarded by the write lock, so a
+	 * flush can write them.
+	 */
+	private final List<Pair<List<ImageRecord>, Integer>> collected = new ArrayList<Pair<List<ImageRecord>, Integer>>();
+	private int collectedRecords;
 
 	public DBWriter(Persistence persistence) {
+		this(persistence, new WriteJournal(Paths.get(DEFAULT_JOURNAL)));
+	}
+
+	public DBWriter(Persistence persistence, WriteJournal journal) {
 		this.persistence = persistence;
+		this.journal = journal;
+		replayJournal();
+
 		Thread t = new DBWriterDaemon();
 		t.setDaemon(true);
 		t.start();
+
+		Runtime.getRuntime().addShutdownHook(new Thread("DBWriter shutdown") {
+			@Override
+			public void run() {
+				flush();
+
+				IndexCheckpointer cp = checkpointer;
+
+				if (cp != null) {
+					cp.checkpoint();
+				}
+
+				persistence.close();
+			}
+		});
 	}
 
+	/**
+	 * Paths of records that have been written are reported as completed to the checkpointer.
+	 * 
+	 * @param checkpointer
+	 *            to notify, or null to stop reporting
+	 */
+	public void setCheckpointer(IndexCheckpointer checkpointer) {
+		this.checkpointer = checkpointer;
+	}
+
+	/**
+	 * Queue records for writing. If the queue is full, the caller is blocked until there is space. If
+	 * the queue is still full after a timeout, the records are written to the journal instead.
+	 * 
+	 * @param records
+	 *            to write
+	 */
 	public void add(List<ImageRecord> records) {
-		pendingWrites.offer(new Pair<List<ImageRecord>, Integer>(records, 0));
+		if (records.isEmpty()) {
+			return;
+		}
+
+		boolean queued = false;
+
+		try {
+			queued = pendingWrites.offer(new Pair<List<ImageRecord>, Integer>(records, 0), OFFER_TIMEOUT, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		if (queued) {
+			queuedRecords.addAndGet(records.size());
+			queuedLists.release();
+		} else {
+			spill(records);
+		}
+	}
+
+	private void spill(List<ImageRecord> records) {
+		try {
+			journal.append(records);
+			spilledRecords.addAndGet(records.size());
+			logger.info("Write queue is full, spilled {} records to {}", records.size(), journal.getPath());
+		} catch (IOException e) {
+			logger.error("Failed to spill {} records to {} - {}", records.size(), journal.getPath(), e.getMessage());
+		}
+	}
+
+	/**
+	 * Write records left in the journal. The journal is only emptied if the write succeeds.
+	 */
+	private void replayJournal() {
+		try {
+			if (journal.isEmpty()) {
+				return;
+			}
+
+			// holding the journal blocks appends until the replayed records are cleared
+			synchronized (writeLock) {
+				synchronized (journal) {
+					List<ImageRecord> records = journal.readAll();
+
+					if (!records.isEmpty()) {
+						logger.info("Replaying {} records from {}", records.size(), journal.getPath());
+						write(records);
+					}
+
+					journal.clear();
+				}
+			}
+		} catch (Exception e) {
+			logger.warn("Failed to replay journal {} - {}", journal.getPath(), e.getMessage());
+		}
+	}
+
+	/**
+	 * @return number of lists waiting to be written
+	 */
+	public int getQueueDepth() {
+		return pendingWrites.size();
+	}
+
+	/**
+	 * @return number of records waiting to be written
+	 */
+	public int getQueuedRecords() {
+		return queuedRecords.get();
+	}
+
+	public long getSpilledRecords() {
+		return spilledRecords.get();
+	}
+
+	public long getCommitCount() {
+		return commits.get();
+	}
+
+	/**
+	 * @return average time per commit in milliseconds
+	 */
+	public long getAverageCommitLatency() {
+		long count = commits.get();
+		return count == 0 ? 0 : totalCommitTime.get() / count;
+	}
+
+	/**
+	 * @return longest commit in milliseconds
+	 */
+	public long getMaxCommitLatency() {
+		return maxCommitTime.get();
+	}
+
+	@Override
+	public String toString() {
+		return "Write queue: " + getQueueDepth() + " lists, " + getQueuedRecords() + " records, " + getCommitCount()
+				+ " commits, average " + getAverageCommitLatency() + " ms, max " + getMaxCommitLatency() + " ms, "
+				+ getSpilledRecords() + " records spilled";
+	}
+
+	/**
+	 * Write all queued records on the calling thread. Blocks until records that were queued before the
+	 * call have been written, including a group the daemon is currently collecting or writing.
+	 */
+	public void flush() {
+		synchronized (writeLock) {
+			List<Pair<List<ImageRecord>, Integer>> queued = new LinkedList<Pair<List<ImageRecord>, Integer>>(collected);
+			collected.clear();
+			collectedRecords = 0;
+			pendingWrites.drainTo(queued);
+
+			if (!queued.isEmpty()) {
+				logger.info("Flushing {} queued batches", queued.size());
+			}
+
+			if (queued.isEmpty()) {
+				return;
+			}
+
+			Pair<List<ImageRecord>, Integer> group = merge(queued);
+			queuedRecords.addAndGet(-group.getLeft().size());
+
+			try {
+				write(group.getLeft());
+			} catch (Exception e) {
+				logger.warn("Failed to flush {} records - {}", group.getLeft().size(), e.getMessage());
+				spill(group.getLeft());
+			}
+		}
+	}
+
+	/**
+	 * Combine the lists into one. The retry count of the result is the highest count of the lists.
+	 */
+	private Pair<List<ImageRecord>, Integer> merge(List<Pair<List<ImageRecord>, Integer>> group) {
+		if (group.size() == 1) {
+			return group.get(0);
+		}
+
+		List<ImageRecord> records = new ArrayList<ImageRecord>();
+		int retryCount = 0;
+
+		for (Pair<List<ImageRecord>, Integer> work : group) {
+			records.addAll(work.getLeft());
+			retryCount = Math.max(retryCount, work.getRight());
+		}
+
+		return new Pair<List<ImageRecord>, Integer>(records, retryCount);
+	}
+
+	private void write(List<ImageRecord> records) throws Exception {
+		long start = System.currentTimeMillis();
+		persistence.batchAddRecord(records);
+		recordCommit(System.currentTimeMillis() - start);
+		IndexCheckpointer cp = checkpointer;
+
+		if (cp != null) {
+			List<Path> paths = new ArrayList<Path>(records.size());
+
+			for (ImageRecord record : records) {
+				paths.add(Paths.get(record.getPath()));
+			}
+
+			cp.completed(paths);
+		}
+	}
+
+	private void recordCommit(long time) {
+		commits.incrementAndGet();
+		totalCommitTime.addAndGet(time);
+		long max = maxCommitTime.get();
+
+		while (time > max && !maxCommitTime.compareAndSet(max, time)) {
+			max = maxCommitTime.get();
+		}
 	}
 
 	private class DBWriterDaemon extends Thread {
@@ -54,16 +312,87 @@ public class DBWriter {
 		public void run() {
 			while (!isInterrupted()) {
 				try {
-					Pair<List<ImageRecord>, Integer> work = pendingWrites.take();
-					List<ImageRecord> records = work.getLeft();
-					try {
-						persistence.batchAddRecord(records);
-					} catch (Exception e) {
-						reQueue(work);
+					queuedLists.acquire();
+
+					if (!takeQueued()) {
+						// the list was flushed
+						continue;
 					}
+
+					collectGroup();
 				} catch (InterruptedException e) {
 					interrupt();
 				}
+
+				writeCollected();
+
+				if (pendingWrites.isEmpty() && journal.getRecordCount() > 0) {
+					replayJournal();
+				}
+			}
+		}
+
+		/**
+		 * Move the next list from the queue to the collected group.
+		 * 
+		 * @return false if the queue was empty
+		 */
+		private boolean takeQueued() {
+			synchronized (writeLock) {
+				Pair<List<ImageRecord>, Integer> next = pendingWrites.poll();
+
+				if (next == null) {
+					return false;
+				}
+
+				collected.add(next);
+				collectedRecords += next.getLeft().size();
+				return true;
+			}
+		}
+
+		private int getCollectedRecords() {
+			synchronized (writeLock) {
+				return collectedRecords;
+			}
+		}
+
+		/**
+		 * Wait for more lists until the group is large enough, or the time limit is reached.
+		 */
+		private void collectGroup() throws InterruptedException {
+			long deadline = System.currentTimeMillis() + GROUP_COMMIT_TIME;
+
+			while (getCollectedRecords() < GROUP_COMMIT_SIZE) {
+				long remaining = deadline - System.currentTimeMillis();
+
+				if (remaining <= 0 || !queuedLists.tryAcquire(remaining, TimeUnit.MILLISECONDS)) {
+					break;
+				}
+
+				takeQueued();
+			}
+		}
+
+		/**
+		 * Write the collected group, unless it has been flushed in the meantime.
+		 */
+		private void writeCollected() {
+			synchronized (writeLock) {
+				if (collected.isEmpty()) {
+					return;
+				}
+
+				Pair<List<ImageRecord>, Integer> work = merge(new ArrayList<Pair<List<ImageRecord>, Integer>>(collected));
+				collected.clear();
+				collectedRecords = 0;
+				queuedRecords.addAndGet(-work.getLeft().size());
+
+				try {
+					write(work.getLeft());
+				} catch (Exception e) {
+					reQueue(work);
+				}
 			}
 		}
 
@@ -72,16 +401,24 @@ public class DBWriter {
 			List<ImageRecord> records = work.getLeft();
 
 			if (retryCount >= MAX_RETRY) {
-				logger.warn("Giving up on adding list with {} entries", records.size());
+				logger.warn("Giving up on adding list with {} entries, moving it to the journal", records.size());
 
 				if (logger.isDebugEnabled()) {
 					for (ImageRecord ir : records) {
 						logger.debug("{} -- {}", ir.getPath(), ir.getpHash());
 					}
 				}
+
+				spill(records);
 			} else {
 				logger.info("Re-adding failed list with {} entries to queue, {} attempt", records.size(), retryCount + 1);
-				pendingWrites.offer(new Pair<List<ImageRecord>, Integer>(records, retryCount++));
+
+				if (pendingWrites.offer(new Pair<List<ImageRecord>, Integer>(records, retryCount + 1))) {
+					queuedRecords.addAndGet(records.size());
+					queuedLists.release();
+				} else {
+					spill(records);
+				}
 			}
 		}
 	}
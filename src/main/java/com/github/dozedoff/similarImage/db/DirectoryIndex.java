@@ -0,0 +1,78 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.db;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * In memory copy of the directory table. The path strings are shared by all records of a directory,
+ * and the sorted paths allow finding all directories of a tree without a database query.
+ */
+class DirectoryIndex {
+	private final Map<Integer, String> paths = new HashMap<Integer, String>();
+	private final TreeMap<String, Integer> ids = new TreeMap<String, Integer>();
+
+	public synchronized void add(int id, String path) {
+		paths.put(id, path);
+		ids.put(path, id);
+	}
+
+	/**
+	 * @return the path of the directory, or null if the id is unknown
+	 */
+	public synchronized String getPath(int id) {
+		return paths.get(id);
+	}
+
+	/**
+	 * @return the id of the directory, or null if the path is unknown
+	 */
+	public synchronized Integer getId(String path) {
+		return ids.get(path);
+	}
+
+	/**
+	 * Find the directories with a path that starts with the prefix.
+	 * 
+	 * @param prefix
+	 *            a directory path with trailing separator, to find the directory and all
+	 *            sub-directories
+	 * @return ids of the directories, ordered by path
+	 */
+	public synchronized List<Integer> getIdsBelow(String prefix) {
+		String upperBound = Persistence.prefixUpperBound(prefix);
+		NavigableMap<String, Integer> below;
+
+		if (upperBound == null) {
+			below = ids.tailMap(prefix, true);
+		} else {
+			below = ids.subMap(prefix, true, upperBound, false);
+		}
+
+		return new ArrayList<Integer>(below.values());
+	}
+
+	public synchronized int size() {
+		return paths.size();
+	}
+}
@@ -0,0 +1,56 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.db;
+
+import com.j256.ormlite.field.DatabaseField;
+import com.j256.ormlite.table.DatabaseTable;
+
+/**
+ * A directory that contains images. {@link ImageRecord}s refer to the directory by id and only store
+ * the file name, so the directory path is stored once instead of once per image.
+ */
+@DatabaseTable
+public class DirectoryRecord {
+	@DatabaseField(generatedId = true)
+	private int id;
+	@DatabaseField(canBeNull = false, unique = true)
+	private String path;
+
+	/**
+	 * Intended for DAO use.
+	 */
+	@Deprecated
+	public DirectoryRecord() {
+	}
+
+	/**
+	 * @param path
+	 *            of the directory, including the trailing separator
+	 */
+	public DirectoryRecord(String path) {
+		this.path = path;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public String getPath() {
+		return path;
+	}
+}
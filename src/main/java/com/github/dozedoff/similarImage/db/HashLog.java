@@ -0,0 +1,270 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.db;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only log of changed pHashes, as row id and hash of the record. Used to bring a snapshot of
+ * the hashes up to date without reading the whole image table. Removed records are logged with the
+ * negated row id. Each append is synced to disk before it returns. An entry that was only partially
+ * written, e.g. due to a crash, is cut off before the next append, so later entries stay aligned.
+ */
+public class HashLog {
+	private static final Logger logger = LoggerFactory.getLogger(HashLog.class);
+
+	private static final int ENTRY_SIZE = 12;
+
+	private final Path log;
+	private FileOutputStream fos;
+	private DataOutputStream out;
+
+	public HashLog(Path log) {
+		this.log = log;
+	}
+
+	public Path getPath() {
+		return log;
+	}
+
+	/**
+	 * Log the hashes of records that were added or updated.
+	 * 
+	 * @param records
+	 *            with the row id set
+	 */
+	public synchronized void added(List<ImageRecord> records) throws IOException {
+		DataOutputStream stream = getStream();
+
+		try {
+			for (ImageRecord record : records) {
+				if (record.getId() != 0) {
+					stream.writeInt(record.getId());
+					stream.writeLong(record.getpHash());
+				}
+			}
+
+			sync();
+		} catch (IOException e) {
+			discardStream();
+			throw e;
+		}
+	}
+
+	/**
+	 * Log records that were removed.
+	 * 
+	 * @param ids
+	 *            row ids of the records
+	 */
+	public synchronized void removed(List<Integer> ids) throws IOException {
+		DataOutputStream stream = getStream();
+
+		try {
+			for (int id : ids) {
+				stream.writeInt(-id);
+				stream.writeLong(0);
+			}
+
+			sync();
+		} catch (IOException e) {
+			discardStream();
+			throw e;
+		}
+	}
+
+	private DataOutputStream getStream() throws IOException {
+		if (out == null) {
+			truncatePartialEntry();
+			fos = new FileOutputStream(log.toFile(), true);
+			out = new DataOutputStream(new BufferedOutputStream(fos));
+		}
+
+		return out;
+	}
+
+	private void sync() throws IOException {
+		out.flush();
+		fos.getFD().sync();
+	}
+
+	/**
+	 * Cut off a partially written entry at the end of the log.
+	 */
+	private void truncatePartialEntry() throws IOException {
+		if (!Files.exists(log)) {
+			return;
+		}
+
+		long size = Files.size(log);
+		long partial = size % ENTRY_SIZE;
+
+		if (partial == 0) {
+			return;
+		}
+
+		FileChannel channel = FileChannel.open(log, WRITE);
+
+		try {
+			channel.truncate(size - partial);
+			channel.force(false);
+		} finally {
+			channel.close();
+		}
+
+		logger.warn("Removed a partially written entry from hash log {}", log);
+	}
+
+	/**
+	 * Drop a stream that failed while writing. The next append starts a new stream, after cutting off
+	 * anything that was only partially written.
+	 */
+	private void discardStream() {
+		try {
+			close();
+		} catch (IOException e) {
+			logger.debug("Failed to close hash log {} - {}", log, e.getMessage());
+		} finally {
+			out = null;
+			fos = null;
+		}
+	}
+
+	/**
+	 * @return the number of entries in the log
+	 */
+	public synchronized long size() throws IOException {
+		if (!Files.exists(log)) {
+			return 0;
+		}
+
+		return Files.size(log) / ENTRY_SIZE;
+	}
+
+	/**
+	 * Replay the log. A record that was removed after it was added only appears in the removed set,
+	 * and the other way around.
+	 * 
+	 * @param changed
+	 *            receives the row ids and latest hashes of added or updated records
+	 * @param removed
+	 *            receives the row ids of removed records
+	 */
+	public synchronized void read(Map<Integer, Long> changed, Set<Integer> removed) throws IOException {
+		if (!Files.exists(log)) {
+			return;
+		}
+
+		// a partially written entry at the end is not read
+		long entries = size();
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(log.toFile())));
+
+		try {
+			for (long i = 0; i < entries; i++) {
+				int id = in.readInt();
+				long hash = in.readLong();
+
+				if (id > 0) {
+					changed.put(id, hash);
+					removed.remove(id);
+				} else {
+					changed.remove(-id);
+					removed.add(-id);
+				}
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Remove the oldest entries, e.g. those covered by a new snapshot. Entries appended since are
+	 * kept.
+	 * 
+	 * @param count
+	 *            number of entries to remove, as returned by {@link #size()} earlier
+	 */
+	public synchronized void dropEntries(long count) throws IOException {
+		close();
+		long entries = size();
+
+		if (count >= entries) {
+			Files.deleteIfExists(log);
+			return;
+		}
+
+		if (count <= 0) {
+			return;
+		}
+
+		Path temp = log.resolveSibling(log.getFileName() + ".tmp");
+		FileChannel in = FileChannel.open(log, READ);
+
+		try {
+			FileChannel out = FileChannel.open(temp, CREATE, WRITE, TRUNCATE_EXISTING);
+
+			try {
+				long position = count * ENTRY_SIZE;
+				long end = entries * ENTRY_SIZE;
+
+				while (position < end) {
+					position += in.transferTo(position, end - position, out);
+				}
+
+				out.force(false);
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+
+		Files.move(temp, log, REPLACE_EXISTING, ATOMIC_MOVE);
+	}
+
+	public synchronized void close() throws IOException {
+		if (out != null) {
+			DataOutputStream stream = out;
+			out = null;
+			fos = null;
+			stream.close();
+		}
+	}
+}
@@ -17,15 +17,40 @@
  */
 package com.github.dozedoff.similarImage.db;
 
+import java.io.File;
+
 import com.j256.ormlite.field.DatabaseField;
 import com.j256.ormlite.table.DatabaseTable;
 
+/**
+ * The pHash and file metadata of an image. The path is stored as the id of a
+ * {@link DirectoryRecord} and the file name.
+ */
 @DatabaseTable
 public class ImageRecord {
-	@DatabaseField(id = true, canBeNull = false)
-	String path;
-	@DatabaseField(canBeNull = false)
+	@DatabaseField(canBeNull = false, uniqueCombo = true)
+	int directoryId;
+	@DatabaseField(canBeNull = false, uniqueCombo = true)
+	String fileName;
+	@DatabaseField(canBeNull = false, index = true)
 	long pHash;
+	@DatabaseField(defaultValue = "0")
+	long fileSize;
+	@DatabaseField(defaultValue = "0")
+	long lastModified;
+	@DatabaseField(defaultValue = "0", index = true)
+	long contentHash;
+
+	/**
+	 * Path of the directory with trailing separator, not stored. Records loaded from the database
+	 * share the instance of their directory.
+	 */
+	String directory;
+	/**
+	 * Row id of the record, 0 if it was not loaded from the database. Not a mapped field, SQLite
+	 * assigns it. Row ids do not change unless the database is vacuumed.
+	 */
+	int id;
 
 	/**
 	 * Intended for DAO
@@ -35,18 +60,104 @@ public class ImageRecord {
 	}
 
 	public ImageRecord(String path, long pHash) {
-		this.path = path;
+		this(path, pHash, 0, 0, 0);
+	}
+
+	/**
+	 * @param path
+	 *            of the image
+	 * @param pHash
+	 *            of the image
+	 * @param fileSize
+	 *            in bytes
+	 * @param lastModified
+	 *            in milliseconds since the epoch
+	 */
+	public ImageRecord(String path, long pHash, long fileSize, long lastModified) {
+		this(path, pHash, fileSize, lastModified, 0);
+	}
+
+	/**
+	 * @param path
+	 *            of the image
+	 * @param pHash
+	 *            of the image
+	 * @param fileSize
+	 *            in bytes
+	 * @param lastModified
+	 *            in milliseconds since the epoch
+	 * @param contentHash
+	 *            digest of the file content, 0 if unknown
+	 */
+	public ImageRecord(String path, long pHash, long fileSize, long lastModified, long contentHash) {
+		int nameStart = nameStart(path);
+		this.directory = path.substring(0, nameStart);
+		this.fileName = path.substring(nameStart);
+		this.pHash = pHash;
+		this.fileSize = fileSize;
+		this.lastModified = lastModified;
+		this.contentHash = contentHash;
+	}
+
+	/**
+	 * Create a record loaded from the database.
+	 */
+	ImageRecord(int id, int directoryId, String directory, String fileName, long pHash, long fileSize, long lastModified, long contentHash) {
+		this.id = id;
+		this.directoryId = directoryId;
+		this.directory = directory;
+		this.fileName = fileName;
 		this.pHash = pHash;
+		this.fileSize = fileSize;
+		this.lastModified = lastModified;
+		this.contentHash = contentHash;
+	}
+
+	/**
+	 * @return the index of the first character after the last separator, 0 if there is none
+	 */
+	static int nameStart(String path) {
+		return path.lastIndexOf(File.separatorChar) + 1;
+	}
+
+	/**
+	 * @return the row id of the record, 0 if it was not loaded from the database
+	 */
+	public int getId() {
+		return id;
 	}
 
 	public String getPath() {
-		return path;
+		return directory + fileName;
+	}
+
+	/**
+	 * @return path of the directory, including the trailing separator
+	 */
+	public String getDirectory() {
+		return directory;
+	}
+
+	public String getFileName() {
+		return fileName;
 	}
 
 	public long getpHash() {
 		return pHash;
 	}
 
+	public long getFileSize() {
+		return fileSize;
+	}
+
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	public long getContentHash() {
+		return contentHash;
+	}
+
 	@Override
 	public boolean equals(Object obj) {
 		if (!(obj instanceof ImageRecord)) {
@@ -63,6 +174,6 @@ public class ImageRecord {
 	}
 
 	private boolean samePath(ImageRecord rec) {
-		return this.getPath().equals(rec.getPath());
+		return this.fileName.equals(rec.fileName) && this.directory.equals(rec.directory);
 	}
 }
@@ -0,0 +1,143 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.db;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects the paths found and processed by an {@link IndexRun} and periodically writes them to the
+ * pending work table. If the run is interrupted, the paths that are still pending can be used to
+ * resume it.
+ */
+public class IndexCheckpointer extends Thread {
+	private static final Logger logger = LoggerFactory.getLogger(IndexCheckpointer.class);
+
+	private final int CHECKPOINT_INTERVAL = 30000;
+
+	private final Persistence persistence;
+	private final IndexRun run;
+
+	private List<Path> discovered = new ArrayList<Path>();
+	private List<Path> completed = new ArrayList<Path>();
+	private boolean runChanged = false;
+
+	public IndexCheckpointer(Persistence persistence, IndexRun run) {
+		this.persistence = persistence;
+		this.run = run;
+		setName("Index checkpointer " + run.getId());
+		setDaemon(true);
+	}
+
+	public IndexRun getRun() {
+		return run;
+	}
+
+	public synchronized void discovered(Collection<Path> paths) {
+		discovered.addAll(paths);
+	}
+
+	public synchronized void completed(Path path) {
+		completed.add(path);
+	}
+
+	public synchronized void completed(Collection<Path> paths) {
+		completed.addAll(paths);
+	}
+
+	/**
+	 * Mark the directory tree as fully searched. Takes effect with the next checkpoint.
+	 */
+	public synchronized void setDiscoveryComplete() {
+		run.setDiscoveryComplete(true);
+		runChanged = true;
+	}
+
+	@Override
+	public void run() {
+		while (!isInterrupted()) {
+			try {
+				Thread.sleep(CHECKPOINT_INTERVAL);
+			} catch (InterruptedException e) {
+				interrupt();
+				break;
+			}
+
+			checkpoint();
+		}
+	}
+
+	/**
+	 * Write the collected paths to the database. Paths that were found and processed since the last
+	 * checkpoint, such as files skipped as already known, are not written at all. If the write fails,
+	 * the paths are kept for the next attempt.
+	 */
+	public synchronized void checkpoint() {
+		if (discovered.isEmpty() && completed.isEmpty() && !runChanged) {
+			return;
+		}
+
+		Set<Path> pending = new LinkedHashSet<Path>(discovered);
+		List<Path> done = new ArrayList<Path>(completed.size());
+
+		for (Path path : completed) {
+			if (!pending.remove(path)) {
+				done.add(path);
+			}
+		}
+
+		try {
+			persistence.checkpoint(run, new ArrayList<Path>(pending), done);
+			logger.debug("Checkpoint for run {}: {} found, {} processed", run.getId(), discovered.size(), completed.size());
+			discovered = new ArrayList<Path>();
+			completed = new ArrayList<Path>();
+			runChanged = false;
+		} catch (Exception e) {
+			logger.warn("Failed to write checkpoint for run {} - {}", run.getId(), e.getMessage());
+		}
+	}
+
+	/**
+	 * Stop checkpointing and write a final checkpoint.
+	 *
+	 * @param finished
+	 *            if true, the run is marked as finished and will not be resumed
+	 */
+	public void close(boolean finished) {
+		interrupt();
+		checkpoint();
+
+		if (finished) {
+			try {
+				persistence.finishIndexRun(run);
+				logger.info("Index run {} for {} finished", run.getId(), run.getRoot());
+			} catch (Exception e) {
+				logger.warn("Failed to finish run {} - {}", run.getId(), e.getMessage());
+			}
+		} else {
+			logger.info("Index run {} for {} stopped, it will be resumed on the next run", run.getId(), run.getRoot());
+		}
+	}
+}
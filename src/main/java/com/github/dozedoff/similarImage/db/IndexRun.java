@@ -0,0 +1,93 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.db;
+
+import com.j256.ormlite.field.DatabaseField;
+import com.j256.ormlite.table.DatabaseTable;
+
+/**
+ * An indexing run over a directory tree. The paths that still need to be processed are stored as
+ * {@link PendingWork}, so an interrupted run can be resumed.
+ */
+@DatabaseTable
+public class IndexRun {
+	@DatabaseField(generatedId = true)
+	private int id;
+	@DatabaseField(canBeNull = false, index = true)
+	private String root;
+	@DatabaseField(canBeNull = false)
+	private long started;
+	@DatabaseField
+	private long lastCheckpoint;
+	@DatabaseField
+	private boolean discoveryComplete;
+	@DatabaseField(index = true)
+	private boolean finished;
+
+	/**
+	 * Intended for DAO use.
+	 */
+	@Deprecated
+	public IndexRun() {
+	}
+
+	public IndexRun(String root, long started) {
+		this.root = root;
+		this.started = started;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public String getRoot() {
+		return root;
+	}
+
+	public long getStarted() {
+		return started;
+	}
+
+	public long getLastCheckpoint() {
+		return lastCheckpoint;
+	}
+
+	public void setLastCheckpoint(long lastCheckpoint) {
+		this.lastCheckpoint = lastCheckpoint;
+	}
+
+	/**
+	 * @return true if the directory tree has been searched completely, and all images are in the
+	 *         pending work table
+	 */
+	public boolean isDiscoveryComplete() {
+		return discoveryComplete;
+	}
+
+	public void setDiscoveryComplete(boolean discoveryComplete) {
+		this.discoveryComplete = discoveryComplete;
+	}
+
+	public boolean isFinished() {
+		return finished;
+	}
+
+	public void setFinished(boolean finished) {
+		this.finished = finished;
+	}
+}
@@ -0,0 +1,147 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.db;
+
+import java.nio.file.Path;
+
+/**
+ * In memory index of the paths that have an image or bad file record, so indexing does not need to
+ * query the database for every file. Paths are stored as 64 bit fingerprints, with 5 million paths
+ * the chance of a collision is below one in a million. For image records a stamp of the file size
+ * and modification time is kept, to detect changed files.
+ */
+public class KnownPathIndex {
+	/**
+	 * Value of the bad file fingerprints, only the keys are used.
+	 */
+	private static final long BAD_FILE = 1;
+
+	private final LongLongHashMap imagePaths;
+	private final LongLongHashMap badFiles = new LongLongHashMap();
+	private volatile boolean loaded = false;
+
+	public KnownPathIndex() {
+		this(0);
+	}
+
+	/**
+	 * @param expectedImages
+	 *            number of image records, used for sizing
+	 */
+	public KnownPathIndex(int expectedImages) {
+		imagePaths = new LongLongHashMap(expectedImages);
+	}
+
+	/**
+	 * 64 bit FNV-1a hash of the path, followed by a finalizer to spread the bits.
+	 * 
+	 * @param path
+	 *            to fingerprint
+	 * @return the fingerprint
+	 */
+	public static long fingerprint(String path) {
+		long hash = 0xcbf29ce484222325L;
+
+		for (int i = 0; i < path.length(); i++) {
+			hash ^= path.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+
+		return hash;
+	}
+
+	/**
+	 * Combine file size and modification time into a single value. Records without file metadata
+	 * have a stamp of 0, which never matches an existing file.
+	 * 
+	 * @param fileSize
+	 *            in bytes
+	 * @param lastModified
+	 *            in milliseconds since the epoch
+	 * @return the stamp
+	 */
+	public static long stamp(long fileSize, long lastModified) {
+		if (fileSize == 0 && lastModified == 0) {
+			return 0;
+		}
+
+		long stamp = fileSize * 0x9E3779B97F4A7C15L + lastModified;
+		stamp ^= stamp >>> 31;
+
+		return stamp == 0 ? 1 : stamp;
+	}
+
+	/**
+	 * @return true once all records have been loaded
+	 */
+	public boolean isLoaded() {
+		return loaded;
+	}
+
+	void setLoaded() {
+		loaded = true;
+	}
+
+	public synchronized void addImage(String path, long fileSize, long lastModified) {
+		imagePaths.put(fingerprint(path), stamp(fileSize, lastModified));
+	}
+
+	public synchronized void removeImage(String path) {
+		imagePaths.remove(fingerprint(path));
+	}
+
+	public synchronized void addBadFile(String path) {
+		badFiles.put(fingerprint(path), BAD_FILE);
+	}
+
+	public synchronized boolean containsImage(Path path) {
+		return imagePaths.containsKey(fingerprint(path.toString()));
+	}
+
+	/**
+	 * @param path
+	 *            of the image
+	 * @param fileSize
+	 *            current size of the file
+	 * @param lastModified
+	 *            current modification time of the file
+	 * @return true if there is a record for the path with the same size and modification time
+	 */
+	public synchronized boolean isUnchanged(Path path, long fileSize, long lastModified) {
+		long recorded = imagePaths.get(fingerprint(path.toString()), 0);
+		return recorded != 0 && recorded == stamp(fileSize, lastModified);
+	}
+
+	public synchronized boolean containsBadFile(Path path) {
+		return badFiles.containsKey(fingerprint(path.toString()));
+	}
+
+	public synchronized int getImageCount() {
+		return imagePaths.size();
+	}
+
+	public synchronized int getBadFileCount() {
+		return badFiles.size();
+	}
+}
@@ -0,0 +1,203 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.db;
+
+/**
+ * Open addressing hash map with primitive long keys and values, using linear probing. Zero is used
+ * to mark empty slots and is stored separately.
+ * 
+ * Not thread safe.
+ */
+class LongLongHashMap {
+	private static final float LOAD_FACTOR = 0.7f;
+	private static final int MIN_CAPACITY = 16;
+
+	private long[] keys;
+	private long[] values;
+	private int size = 0;
+	private boolean containsZero = false;
+	private long zeroValue = 0;
+
+	public LongLongHashMap() {
+		this(MIN_CAPACITY);
+	}
+
+	public LongLongHashMap(int expectedSize) {
+		int capacity = capacityFor(expectedSize);
+		keys = new long[capacity];
+		values = new long[capacity];
+	}
+
+	private static int capacityFor(int expectedSize) {
+		int capacity = MIN_CAPACITY;
+
+		while (capacity * LOAD_FACTOR < expectedSize) {
+			capacity <<= 1;
+		}
+
+		return capacity;
+	}
+
+	private static int slot(long key, int mask) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+
+	public void put(long key, long value) {
+		if (key == 0) {
+			if (!containsZero) {
+				size++;
+			}
+
+			containsZero = true;
+			zeroValue = value;
+			return;
+		}
+
+		int mask = keys.length - 1;
+		int i = slot(key, mask);
+
+		while (keys[i] != 0) {
+			if (keys[i] == key) {
+				values[i] = value;
+				return;
+			}
+
+			i = (i + 1) & mask;
+		}
+
+		keys[i] = key;
+		values[i] = value;
+		size++;
+
+		if (size > keys.length * LOAD_FACTOR) {
+			resize(keys.length << 1);
+		}
+	}
+
+	public boolean containsKey(long key) {
+		if (key == 0) {
+			return containsZero;
+		}
+
+		return find(key) >= 0;
+	}
+
+	/**
+	 * @param key
+	 *            to look up
+	 * @param defaultValue
+	 *            returned if the key is not present
+	 * @return the value for the key
+	 */
+	public long get(long key, long defaultValue) {
+		if (key == 0) {
+			return containsZero ? zeroValue : defaultValue;
+		}
+
+		int i = find(key);
+		return i >= 0 ? values[i] : defaultValue;
+	}
+
+	private int find(long key) {
+		int mask = keys.length - 1;
+		int i = slot(key, mask);
+
+		while (keys[i] != 0) {
+			if (keys[i] == key) {
+				return i;
+			}
+
+			i = (i + 1) & mask;
+		}
+
+		return -1;
+	}
+
+	public boolean remove(long key) {
+		if (key == 0) {
+			boolean removed = containsZero;
+			containsZero = false;
+			if (removed) {
+				size--;
+			}
+			return removed;
+		}
+
+		int mask = keys.length - 1;
+		int i = find(key);
+
+		if (i < 0) {
+			return false;
+		}
+
+		keys[i] = 0;
+		values[i] = 0;
+		size--;
+		shiftBack(i, mask);
+		return true;
+	}
+
+	/**
+	 * Move entries following a removed slot back, so probing sequences stay unbroken.
+	 */
+	private void shiftBack(int free, int mask) {
+		int i = (free + 1) & mask;
+
+		while (keys[i] != 0) {
+			int home = slot(keys[i], mask);
+
+			if (((i - home) & mask) >= ((i - free) & mask)) {
+				keys[free] = keys[i];
+				values[free] = values[i];
+				keys[i] = 0;
+				values[i] = 0;
+				free = i;
+			}
+
+			i = (i + 1) & mask;
+		}
+	}
+
+	private void resize(int capacity) {
+		long[] oldKeys = keys;
+		long[] oldValues = values;
+		keys = new long[capacity];
+		values = new long[capacity];
+		int mask = capacity - 1;
+
+		for (int j = 0; j < oldKeys.length; j++) {
+			long key = oldKeys[j];
+
+			if (key != 0) {
+				int i = slot(key, mask);
+
+				while (keys[i] != 0) {
+					i = (i + 1) & mask;
+				}
+
+				keys[i] = key;
+				values[i] = oldValues[j];
+			}
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+}
@@ -0,0 +1,54 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.db;
+
+import java.nio.file.Path;
+
+import com.j256.ormlite.field.DatabaseField;
+import com.j256.ormlite.table.DatabaseTable;
+
+/**
+ * A path that was found by an {@link IndexRun}, but has not been processed yet.
+ */
+@DatabaseTable
+public class PendingWork {
+	@DatabaseField(id = true, canBeNull = false)
+	private String path;
+	@DatabaseField(canBeNull = false, index = true)
+	private int runId;
+
+	/**
+	 * Intended for DAO use.
+	 */
+	@Deprecated
+	public PendingWork() {
+	}
+
+	public PendingWork(Path path, int runId) {
+		this.path = path.toString();
+		this.runId = runId;
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	public int getRunId() {
+		return runId;
+	}
+}
@@ -17,8 +17,17 @@
  */
 package com.github.dozedoff.similarImage.db;
 
+import java.io.File;
+import java.io.IOException;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.Callable;
@@ -29,26 +38,88 @@ import org.slf4j.LoggerFactory;
 import com.j256.ormlite.dao.CloseableWrappedIterable;
 import com.j256.ormlite.dao.Dao;
 import com.j256.ormlite.dao.DaoManager;
+import com.j256.ormlite.dao.GenericRawResults;
+import com.j256.ormlite.dao.RawRowMapper;
 import com.j256.ormlite.jdbc.JdbcConnectionSource;
-import com.j256.ormlite.stmt.PreparedQuery;
+import com.j256.ormlite.jdbc.JdbcDatabaseConnection;
+import com.j256.ormlite.misc.TransactionManager;
+import com.j256.ormlite.stmt.DeleteBuilder;
 import com.j256.ormlite.stmt.QueryBuilder;
 import com.j256.ormlite.support.ConnectionSource;
 import com.j256.ormlite.support.DatabaseConnection;
+import com.j256.ormlite.table.DatabaseTableConfig;
 import com.j256.ormlite.table.TableUtils;
 
 public class Persistence {
 	private static final Logger logger = LoggerFactory.getLogger(Persistence.class);
-	private final String dbUrl = "jdbc:sqlite:similarImage.db";
+	private static final String SQLITE_URL_PREFIX = "jdbc:sqlite:";
+	private static final String DEFAULT_DB_URL = SQLITE_URL_PREFIX + "similarImage.db";
+	private final String dbUrl;
+	private final int MAX_IDS_PER_QUERY = 500;
 
-	Dao<ImageRecord, String> imageRecordDao;
+	Dao<ImageRecord, Void> imageRecordDao;
+	Dao<DirectoryRecord, Integer> directoryRecordDao;
 	Dao<FilterRecord, Long> filterRecordDao;
 	Dao<BadFileRecord, String> badFileRecordDao;
+	Dao<IndexRun, Integer> indexRunDao;
+	Dao<PendingWork, String> pendingWorkDao;
+
+	private volatile KnownPathIndex pathIndex;
+	private volatile HashLog hashLog;
+	private final DirectoryIndex directories = new DirectoryIndex();
+	private ConnectionSource connectionSource;
+	private ReadConnectionPool readPool;
+	private String insertRecordSql, updateRecordSql, selectRecordSql, deleteRecordSql, selectHashSql, selectRowIdSql, maxRowIdSql;
+	private String insertPendingSql, deletePendingSql;
+
+	private final RawRowMapper<ImageRecord> recordMapper = new RawRowMapper<ImageRecord>() {
+		@Override
+		public ImageRecord mapRow(String[] columnNames, String[] resultColumns) throws SQLException {
+			int id = Integer.parseInt(resultColumns[0]);
+			int directoryId = Integer.parseInt(resultColumns[1]);
+			return new ImageRecord(id, directoryId, getDirectory(directoryId), resultColumns[2], parseLong(resultColumns[3]),
+					parseLong(resultColumns[4]), parseLong(resultColumns[5]), parseLong(resultColumns[6]));
+		}
+	};
 
 	public Persistence() {
+		this(0);
+	}
+
+	/**
+	 * @param readConnections
+	 *            if greater than 0, the database is opened in WAL mode and record queries and hash
+	 *            scans use a pool of this many read-only connections, so they do not wait for writes.
+	 *            Otherwise all queries share the single, exclusively locked connection.
+	 */
+	public Persistence(int readConnections) {
+		this(DEFAULT_DB_URL, readConnections);
+	}
+
+	/**
+	 * @param dbUrl
+	 *            JDBC URL of the database
+	 * @param readConnections
+	 *            see {@link #Persistence(int)}
+	 */
+	Persistence(String dbUrl, int readConnections) {
+		this.dbUrl = dbUrl;
+
 		try {
 			ConnectionSource cs = new JdbcConnectionSource(dbUrl);
-			setupDatabase(cs);
+			connectionSource = cs;
+			setupDatabase(cs, readConnections > 0);
 			setupDAO(cs);
+			upgradeSchema();
+			setupTables(cs);
+			prepareRecordStatements();
+			loadDirectories();
+
+			if (readConnections > 0) {
+				readPool = new ReadConnectionPool(dbUrl, readConnections);
+				logger.info("Using WAL journaling with {} read connections", readConnections);
+			}
+
 			long recordCount = imageRecordDao.countOf();
 			long filterCount = filterRecordDao.countOf();
 			logger.info("Loaded database with {} image and {} filter records", recordCount, filterCount);
@@ -58,61 +129,695 @@ public class Persistence {
 		}
 	}
 
-	private void setupDatabase(ConnectionSource cs) throws SQLException {
+	/**
+	 * @param wal
+	 *            if true, use a write-ahead log and normal locking, so other connections can read while
+	 *            this one writes. Otherwise the database is locked exclusively and journaled in memory.
+	 */
+	private void setupDatabase(ConnectionSource cs, boolean wal) throws SQLException {
 		logger.info("Setting database config...");
 		DatabaseConnection dbConn = cs.getReadWriteConnection();
 		dbConn.executeStatement("PRAGMA page_size = 4096;", DatabaseConnection.DEFAULT_RESULT_FLAGS);
 		dbConn.executeStatement("PRAGMA cache_size=10000;", DatabaseConnection.DEFAULT_RESULT_FLAGS);
-		dbConn.executeStatement("PRAGMA locking_mode=EXCLUSIVE;", DatabaseConnection.DEFAULT_RESULT_FLAGS);
 		dbConn.executeStatement("PRAGMA synchronous=NORMAL;", DatabaseConnection.DEFAULT_RESULT_FLAGS);
 		dbConn.executeStatement("PRAGMA temp_store = MEMORY;", DatabaseConnection.DEFAULT_RESULT_FLAGS);
-		dbConn.executeStatement("PRAGMA journal_mode=MEMORY;", DatabaseConnection.DEFAULT_RESULT_FLAGS);
 
+		if (wal) {
+			dbConn.executeStatement("PRAGMA locking_mode=NORMAL;", DatabaseConnection.DEFAULT_RESULT_FLAGS);
+			dbConn.executeStatement("PRAGMA journal_mode=WAL;", DatabaseConnection.DEFAULT_RESULT_FLAGS);
+		} else {
+			dbConn.executeStatement("PRAGMA locking_mode=EXCLUSIVE;", DatabaseConnection.DEFAULT_RESULT_FLAGS);
+			dbConn.executeStatement("PRAGMA journal_mode=MEMORY;", DatabaseConnection.DEFAULT_RESULT_FLAGS);
+		}
+	}
+
+	/**
+	 * Create missing tables, after the schema upgrade so the indices are created on up to date
+	 * tables.
+	 */
+	private void setupTables(ConnectionSource cs) throws SQLException {
 		logger.info("Setting up database tables...");
+		TableUtils.createTableIfNotExists(cs, DirectoryRecord.class);
 		TableUtils.createTableIfNotExists(cs, ImageRecord.class);
 		TableUtils.createTableIfNotExists(cs, FilterRecord.class);
 		TableUtils.createTableIfNotExists(cs, BadFileRecord.class);
+		TableUtils.createTableIfNotExists(cs, IndexRun.class);
+		TableUtils.createTableIfNotExists(cs, PendingWork.class);
 	}
 
 	private void setupDAO(ConnectionSource cs) throws SQLException {
 		logger.info("Setting up DAO...");
 		imageRecordDao = DaoManager.createDao(cs, ImageRecord.class);
+		directoryRecordDao = DaoManager.createDao(cs, DirectoryRecord.class);
 		filterRecordDao = DaoManager.createDao(cs, FilterRecord.class);
 		badFileRecordDao = DaoManager.createDao(cs, BadFileRecord.class);
+		indexRunDao = DaoManager.createDao(cs, IndexRun.class);
+		pendingWorkDao = DaoManager.createDao(cs, PendingWork.class);
+	}
+
+	private void upgradeSchema() throws SQLException {
+		new SchemaMigrator(connectionSource, imageRecordDao).migrate();
+	}
+
+	private void prepareRecordStatements() {
+		String table = DatabaseTableConfig.extractTableName(ImageRecord.class);
+		String columns = "directoryId, fileName, pHash, fileSize, lastModified, contentHash";
+		insertRecordSql = "INSERT OR IGNORE INTO " + table + " (" + columns + ") VALUES (?, ?, ?, ?, ?, ?)";
+		updateRecordSql = "UPDATE " + table + " SET pHash = ?, fileSize = ?, lastModified = ?, contentHash = ? WHERE directoryId = ? AND fileName = ?";
+		selectRecordSql = "SELECT rowid, " + columns + " FROM " + table;
+		selectHashSql = "SELECT rowid, pHash FROM " + table;
+		deleteRecordSql = "DELETE FROM " + table + " WHERE directoryId = ? AND fileName = ?";
+		selectRowIdSql = "SELECT rowid FROM " + table + " WHERE directoryId = ? AND fileName = ?";
+		maxRowIdSql = "SELECT IFNULL(MAX(rowid), 0) FROM " + table;
+
+		String pendingTable = DatabaseTableConfig.extractTableName(PendingWork.class);
+		insertPendingSql = "INSERT OR IGNORE INTO " + pendingTable + " (path, runId) VALUES (?, ?)";
+		deletePendingSql = "DELETE FROM " + pendingTable + " WHERE path = ?";
+	}
+
+	/**
+	 * Close the read connections and the database connection. The WAL files are released once all
+	 * connections are closed.
+	 */
+	public void close() {
+		if (readPool != null) {
+			readPool.close();
+		}
+
+		try {
+			connectionSource.close();
+		} catch (SQLException e) {
+			logger.warn("Failed to close database {} - {}", dbUrl, e.getMessage());
+		}
+	}
+
+	/**
+	 * Log the hashes of all records written or deleted from now on. Hashes of written records are
+	 * logged in the same transaction, if logging fails the records are not written.
+	 * 
+	 * @param hashLog
+	 *            to append to, or null to stop logging
+	 */
+	public void setHashLog(HashLog hashLog) {
+		this.hashLog = hashLog;
+	}
+
+	/**
+	 * @return the absolute path of the database file and its schema version, to tell if data derived
+	 *         from the database belongs to it
+	 */
+	public String getDatabaseId() throws SQLException {
+		String location = dbUrl;
+
+		if (location.startsWith(SQLITE_URL_PREFIX)) {
+			location = Paths.get(location.substring(SQLITE_URL_PREFIX.length())).toAbsolutePath().toString();
+		}
+
+		return location + ";version=" + imageRecordDao.queryRawValue("PRAGMA user_version");
+	}
+
+	/**
+	 * @return the largest row id of the image records, 0 if there are none
+	 */
+	public int getMaxRecordId() throws SQLException {
+		return (int) imageRecordDao.queryRawValue(maxRowIdSql);
+	}
+
+	/**
+	 * @return the row id of the record, 0 if there is none
+	 */
+	private int findRowId(int directoryId, String fileName) throws SQLException {
+		GenericRawResults<String[]> results = imageRecordDao.queryRaw(selectRowIdSql, Integer.toString(directoryId), fileName);
+
+		try {
+			String[] row = results.getFirstResult();
+			return row == null ? 0 : Integer.parseInt(row[0]);
+		} finally {
+			results.close();
+		}
+	}
+
+	private void loadDirectories() throws SQLException {
+		for (DirectoryRecord directory : directoryRecordDao.queryForAll()) {
+			directories.add(directory.getId(), directory.getPath());
+		}
+
+		logger.info("Loaded {} directories", directories.size());
+	}
+
+	/**
+	 * @return the path of the directory, shared by all records in it
+	 */
+	private String getDirectory(int directoryId) throws SQLException {
+		String path = directories.getPath(directoryId);
+
+		if (path != null) {
+			return path;
+		}
+
+		DirectoryRecord directory = directoryRecordDao.queryForId(directoryId);
+
+		if (directory == null) {
+			throw new SQLException("No directory with id " + directoryId);
+		}
+
+		directories.add(directoryId, directory.getPath());
+		return directories.getPath(directoryId);
+	}
+
+	/**
+	 * Look up the id of the directory, and add it to the directory table if it is new.
+	 */
+	private int getDirectoryId(String path) throws SQLException {
+		synchronized (directories) {
+			Integer id = directories.getId(path);
+
+			if (id == null) {
+				DirectoryRecord directory = new DirectoryRecord(path);
+				directoryRecordDao.create(directory);
+				id = directory.getId();
+				directories.add(id, path);
+			}
+
+			return id;
+		}
+	}
+
+	/**
+	 * @return the id of the directory, or null if it has no records
+	 */
+	private Integer findDirectoryId(String path) {
+		return directories.getId(path.substring(0, ImageRecord.nameStart(path)));
+	}
+
+	private String fileName(String path) {
+		return path.substring(ImageRecord.nameStart(path));
+	}
+
+	private List<ImageRecord> queryRecords(String condition, String... arguments) throws SQLException {
+		if (readPool != null) {
+			return readRecords(selectRecordSql + " " + condition, arguments);
+		}
+
+		GenericRawResults<ImageRecord> results = imageRecordDao.queryRaw(selectRecordSql + " " + condition, recordMapper, arguments);
+
+		try {
+			return results.getResults();
+		} finally {
+			results.close();
+		}
+	}
+
+	/**
+	 * Run the query on a pooled read connection and map the rows straight from the result set.
+	 */
+	private List<ImageRecord> readRecords(String sql, String... arguments) throws SQLException {
+		List<ImageRecord> records = new ArrayList<ImageRecord>();
+		Connection conn = readPool.acquire();
+
+		try {
+			PreparedStatement select = conn.prepareStatement(sql);
+
+			try {
+				for (int i = 0; i < arguments.length; i++) {
+					select.setString(i + 1, arguments[i]);
+				}
+
+				ResultSet rows = select.executeQuery();
+
+				try {
+					while (rows.next()) {
+						int directoryId = rows.getInt(2);
+						records.add(new ImageRecord(rows.getInt(1), directoryId, getDirectory(directoryId), rows.getString(3),
+								rows.getLong(4), rows.getLong(5), rows.getLong(6), rows.getLong(7)));
+					}
+				} finally {
+					rows.close();
+				}
+			} finally {
+				select.close();
+			}
+		} finally {
+			readPool.release(conn);
+		}
+
+		return records;
+	}
+
+	/**
+	 * Load the paths of all image and bad file records into memory. Until loading is done, lookups
+	 * are answered by the database. Records added or removed through this class during and after
+	 * loading are reflected in the index.
+	 * 
+	 * @throws SQLException
+	 *             if the records could not be loaded
+	 */
+	public void loadPathIndex() throws SQLException {
+		logger.info("Loading known paths...");
+		KnownPathIndex index = new KnownPathIndex((int) imageRecordDao.countOf());
+		pathIndex = index;
+
+		try {
+			loadImagePaths(index);
+			loadBadFilePaths(index);
+		} catch (SQLException e) {
+			pathIndex = null;
+			throw e;
+		}
+
+		index.setLoaded();
+		logger.info("Loaded {} image and {} bad file paths", index.getImageCount(), index.getBadFileCount());
+	}
+
+	private void loadImagePaths(KnownPathIndex index) throws SQLException {
+		String query = imageRecordDao.queryBuilder().selectColumns("directoryId", "fileName", "fileSize", "lastModified").prepareStatementString();
+		GenericRawResults<String[]> results = imageRecordDao.queryRaw(query);
+
+		try {
+			for (String[] row : results) {
+				String directory = getDirectory(Integer.parseInt(row[0]));
+				index.addImage(directory + row[1], parseLong(row[2]), parseLong(row[3]));
+			}
+		} finally {
+			results.close();
+		}
+	}
+
+	private void loadBadFilePaths(KnownPathIndex index) throws SQLException {
+		String query = badFileRecordDao.queryBuilder().selectColumns("path").prepareStatementString();
+		GenericRawResults<String[]> results = badFileRecordDao.queryRaw(query);
+
+		try {
+			for (String[] row : results) {
+				index.addBadFile(row[0]);
+			}
+		} finally {
+			results.close();
+		}
+	}
+
+	private long parseLong(String value) {
+		if (value == null) {
+			return 0;
+		}
+
+		return Long.parseLong(value);
+	}
+
+	public boolean isPathIndexLoaded() {
+		KnownPathIndex index = pathIndex;
+		return index != null && index.isLoaded();
 	}
 
 	public void addRecord(ImageRecord record) throws SQLException {
-		imageRecordDao.createIfNotExists(record);
+		record.directoryId = getDirectoryId(record.getDirectory());
+		imageRecordDao.executeRaw(insertRecordSql, Integer.toString(record.directoryId), record.getFileName(),
+				Long.toString(record.getpHash()), Long.toString(record.getFileSize()), Long.toString(record.getLastModified()),
+				Long.toString(record.getContentHash()));
+		HashLog log = hashLog;
+
+		if (log != null) {
+			record.id = findRowId(record.directoryId, record.getFileName());
+
+			try {
+				log.added(Collections.singletonList(record));
+			} catch (IOException e) {
+				logger.warn("Failed to log the hash of {} - {}", record.getPath(), e.getMessage());
+			}
+		}
+
+		indexImage(record);
 	}
 
-	public void batchAddRecord(final List<ImageRecord> record) throws Exception {
-		imageRecordDao.callBatchTasks(new Callable<Void>() {
+	/**
+	 * Add or update records in a single transaction. Records are inserted with one prepared statement,
+	 * records for paths that already exist are updated. New directories are added before the
+	 * transaction starts, so they are kept if it fails.
+	 * 
+	 * @param records
+	 *            to write
+	 * @throws Exception
+	 *             if the transaction fails, no records are written in that case
+	 */
+	public void batchAddRecord(final List<ImageRecord> records) throws Exception {
+		for (ImageRecord record : records) {
+			record.directoryId = getDirectoryId(record.getDirectory());
+		}
+
+		HashLog log = hashLog;
+
+		if (log == null) {
+			writeInTransaction(records, null);
+		} else {
+			// a snapshot that marks the log waits for the commit, see HashSnapshot
+			synchronized (log) {
+				writeInTransaction(records, log);
+			}
+		}
+
+		for (ImageRecord ir : records) {
+			indexImage(ir);
+		}
+	}
+
+	private void writeInTransaction(final List<ImageRecord> records, final HashLog log) throws SQLException {
+		TransactionManager.callInTransaction(connectionSource, new Callable<Void>() {
 			@Override
 			public Void call() throws Exception {
-				for (ImageRecord ir : record) {
-					imageRecordDao.createIfNotExists(ir);
+				DatabaseConnection dbConn = connectionSource.getReadWriteConnection();
+
+				try {
+					Connection conn = ((JdbcDatabaseConnection) dbConn).getInternalConnection();
+					writeRecords(conn, records);
+
+					if (log != null) {
+						logHashes(conn, records, log);
+					}
+				} finally {
+					connectionSource.releaseConnection(dbConn);
 				}
+
 				return null;
 			}
 		});
 	}
 
+	private void writeRecords(Connection conn, List<ImageRecord> records) throws SQLException {
+		List<ImageRecord> existing = new LinkedList<ImageRecord>();
+		PreparedStatement insert = conn.prepareStatement(insertRecordSql);
+
+		try {
+			for (ImageRecord record : records) {
+				insert.setInt(1, record.directoryId);
+				insert.setString(2, record.getFileName());
+				insert.setLong(3, record.getpHash());
+				insert.setLong(4, record.getFileSize());
+				insert.setLong(5, record.getLastModified());
+				insert.setLong(6, record.getContentHash());
+				insert.addBatch();
+			}
+
+			int[] inserted = insert.executeBatch();
+
+			int i = 0;
+
+			for (ImageRecord record : records) {
+				if (inserted[i++] == 0) {
+					existing.add(record);
+				}
+			}
+		} finally {
+			insert.close();
+		}
+
+		if (existing.isEmpty()) {
+			return;
+		}
+
+		PreparedStatement update = conn.prepareStatement(updateRecordSql);
+
+		try {
+			for (ImageRecord record : existing) {
+				update.setLong(1, record.getpHash());
+				update.setLong(2, record.getFileSize());
+				update.setLong(3, record.getLastModified());
+				update.setLong(4, record.getContentHash());
+				update.setInt(5, record.directoryId);
+				update.setString(6, record.getFileName());
+				update.addBatch();
+			}
+
+			update.executeBatch();
+		} finally {
+			update.close();
+		}
+	}
+
+	/**
+	 * Look up the row ids of the written records and append their hashes to the log.
+	 */
+	private void logHashes(Connection conn, List<ImageRecord> records, HashLog log) throws SQLException, IOException {
+		PreparedStatement select = conn.prepareStatement(selectRowIdSql);
+
+		try {
+			for (ImageRecord record : records) {
+				select.setInt(1, record.directoryId);
+				select.setString(2, record.getFileName());
+				ResultSet rows = select.executeQuery();
+
+				try {
+					if (rows.next()) {
+						record.id = rows.getInt(1);
+					}
+				} finally {
+					rows.close();
+				}
+			}
+		} finally {
+			select.close();
+		}
+
+		log.added(records);
+	}
+
+	private void logRemoved(List<Integer> ids) {
+		HashLog log = hashLog;
+
+		if (log == null || ids.isEmpty()) {
+			return;
+		}
+
+		try {
+			log.removed(ids);
+		} catch (IOException e) {
+			logger.warn("Failed to log {} removed records - {}", ids.size(), e.getMessage());
+		}
+	}
+
+	private void indexImage(ImageRecord record) {
+		KnownPathIndex index = pathIndex;
+
+		if (index != null) {
+			index.addImage(record.getPath(), record.getFileSize(), record.getLastModified());
+		}
+	}
+
 	public ImageRecord getRecord(Path path) throws SQLException {
-		return imageRecordDao.queryForId(path.toString());
+		String pathString = path.toString();
+		Integer directoryId = findDirectoryId(pathString);
+
+		if (directoryId == null) {
+			return null;
+		}
+
+		List<ImageRecord> records = queryRecords("WHERE directoryId = " + directoryId + " AND fileName = ?", fileName(pathString));
+		return records.isEmpty() ? null : records.get(0);
+	}
+
+	/**
+	 * Find a record for a file with the same content.
+	 * 
+	 * @param fileSize
+	 *            of the file
+	 * @param contentHash
+	 *            digest of the file content
+	 * @return a record with the same size and digest, or null if there is none
+	 * @throws SQLException
+	 *             if the database lookup fails
+	 */
+	public ImageRecord getRecordByContent(long fileSize, long contentHash) throws SQLException {
+		List<ImageRecord> records = queryRecords("WHERE contentHash = " + contentHash + " AND fileSize = " + fileSize + " LIMIT 1");
+		return records.isEmpty() ? null : records.get(0);
 	}
 
+	/**
+	 * Get all records with the pHash, using the pHash index.
+	 */
 	public List<ImageRecord> getRecords(long pHash) throws SQLException {
-		ImageRecord searchRecord = new ImageRecord(null, pHash);
-		return imageRecordDao.queryForMatching(searchRecord);
+		return queryRecords("WHERE pHash = " + pHash);
+	}
+
+	/**
+	 * Load the records with the given row ids.
+	 * 
+	 * @param ids
+	 *            row ids of the records, as returned by {@link #getHashes()}
+	 * @return the records that still exist, in no particular order
+	 * @throws SQLException
+	 *             if the query fails
+	 */
+	public List<ImageRecord> getRecords(int[] ids) throws SQLException {
+		List<ImageRecord> records = new ArrayList<ImageRecord>(ids.length);
+
+		for (int from = 0; from < ids.length; from += MAX_IDS_PER_QUERY) {
+			int to = Math.min(ids.length, from + MAX_IDS_PER_QUERY);
+			StringBuilder condition = new StringBuilder("WHERE rowid IN (");
+
+			for (int i = from; i < to; i++) {
+				if (i > from) {
+					condition.append(", ");
+				}
+
+				condition.append(ids[i]);
+			}
+
+			condition.append(')');
+			records.addAll(queryRecords(condition.toString()));
+		}
+
+		return records;
+	}
+
+	/**
+	 * Read the row id and pHash of all image records straight from the result set into primitive
+	 * arrays, no record objects are created.<br>
+	 * Without read connections the scan shares the connection with writes. If hashes are logged, it
+	 * then holds the log like a write does, so it does not see a batch that is not committed yet.
+	 * 
+	 * @return the hashes, in table order
+	 * @throws SQLException
+	 *             if the query fails
+	 */
+	public RecordHashes getHashes() throws SQLException {
+		RecordHashes hashes = new RecordHashes((int) imageRecordDao.countOf());
+
+		if (readPool != null) {
+			Connection conn = readPool.acquire();
+
+			try {
+				readHashes(conn, hashes);
+			} finally {
+				readPool.release(conn);
+			}
+		} else {
+			HashLog log = hashLog;
+
+			if (log == null) {
+				readSharedHashes(hashes);
+			} else {
+				synchronized (log) {
+					readSharedHashes(hashes);
+				}
+			}
+		}
+
+		logger.info("Loaded {} hashes", hashes.size());
+		return hashes;
+	}
+
+	private void readSharedHashes(RecordHashes hashes) throws SQLException {
+		DatabaseConnection dbConn = connectionSource.getReadOnlyConnection();
+
+		try {
+			readHashes(((JdbcDatabaseConnection) dbConn).getInternalConnection(), hashes);
+		} finally {
+			connectionSource.releaseConnection(dbConn);
+		}
+	}
+
+	private void readHashes(Connection conn, RecordHashes hashes) throws SQLException {
+		Statement statement = conn.createStatement();
+
+		try {
+			ResultSet rows = statement.executeQuery(selectHashSql);
+
+			while (rows.next()) {
+				hashes.add(rows.getInt(1), rows.getLong(2));
+			}
+
+			rows.close();
+		} finally {
+			statement.close();
+		}
 	}
 
 	public void deleteRecord(ImageRecord record) throws SQLException {
-		imageRecordDao.delete(record);
+		int id = deleteRecord(record.getPath());
+
+		if (id != 0) {
+			logRemoved(Collections.singletonList(id));
+		}
+
+		KnownPathIndex index = pathIndex;
+
+		if (index != null) {
+			index.removeImage(record.getPath());
+		}
+	}
+
+	/**
+	 * Delete the records for the given paths in a single transaction.
+	 * 
+	 * @param paths
+	 *            of the images to delete
+	 * @throws Exception
+	 *             if the batch fails
+	 */
+	public void deleteRecords(final List<Path> paths) throws Exception {
+		HashLog log = hashLog;
+
+		if (log == null) {
+			deleteInTransaction(paths);
+		} else {
+			// hash scans on the shared connection must not see the uncommitted deletes
+			synchronized (log) {
+				deleteInTransaction(paths);
+			}
+		}
+
+		KnownPathIndex index = pathIndex;
+
+		if (index != null) {
+			for (Path path : paths) {
+				index.removeImage(path.toString());
+			}
+		}
+	}
+
+	private void deleteInTransaction(final List<Path> paths) throws Exception {
+		final List<Integer> removed = new ArrayList<Integer>();
+
+		imageRecordDao.callBatchTasks(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				for (Path path : paths) {
+					int id = deleteRecord(path.toString());
+
+					if (id != 0) {
+						removed.add(id);
+					}
+				}
+				return null;
+			}
+		});
+
+		logRemoved(removed);
+	}
+
+	/**
+	 * @return the row id of the deleted record if hashes are logged, otherwise 0
+	 */
+	private int deleteRecord(String path) throws SQLException {
+		Integer directoryId = findDirectoryId(path);
+
+		if (directoryId == null) {
+			return 0;
+		}
+
+		String fileName = fileName(path);
+		int id = hashLog == null ? 0 : findRowId(directoryId, fileName);
+		imageRecordDao.executeRaw(deleteRecordSql, directoryId.toString(), fileName);
+		return id;
 	}
 
 	public boolean isPathRecorded(Path path) throws SQLException {
-		String id = path.toString();
-		ImageRecord record = imageRecordDao.queryForId(id);
+		KnownPathIndex index = pathIndex;
+
+		if (index != null && index.isLoaded()) {
+			return index.containsImage(path);
+		}
+
+		ImageRecord record = getRecord(path);
 
 		if (record == null) {
 			return false;
@@ -121,7 +826,43 @@ public class Persistence {
 		}
 	}
 
+	/**
+	 * Check if the image has been hashed in its current state.
+	 * 
+	 * @param path
+	 *            of the image
+	 * @param fileSize
+	 *            current size of the file
+	 * @param lastModified
+	 *            current modification time of the file
+	 * @return true if there is a record with the same file size and modification time
+	 * @throws SQLException
+	 *             if the database lookup fails
+	 */
+	public boolean isUnchanged(Path path, long fileSize, long lastModified) throws SQLException {
+		KnownPathIndex index = pathIndex;
+
+		if (index != null && index.isLoaded()) {
+			return index.isUnchanged(path, fileSize, lastModified);
+		}
+
+		ImageRecord record = getRecord(path);
+
+		if (record == null) {
+			return false;
+		}
+
+		long recorded = KnownPathIndex.stamp(record.getFileSize(), record.getLastModified());
+		return recorded != 0 && recorded == KnownPathIndex.stamp(fileSize, lastModified);
+	}
+
 	public boolean isBadFile(Path path) throws SQLException {
+		KnownPathIndex index = pathIndex;
+
+		if (index != null && index.isLoaded()) {
+			return index.containsBadFile(path);
+		}
+
 		String id = path.toString();
 		BadFileRecord record = badFileRecordDao.queryForId(id);
 
@@ -132,12 +873,12 @@ public class Persistence {
 		}
 	}
 
-	public CloseableWrappedIterable<ImageRecord> getImageRecordIterator() {
-		return imageRecordDao.getWrappedIterable();
+	public CloseableWrappedIterable<ImageRecord> getImageRecordIterator() throws SQLException {
+		return imageRecordDao.queryRaw(selectRecordSql, recordMapper);
 	}
 
 	public List<ImageRecord> getAllRecords() throws SQLException {
-		return imageRecordDao.queryForAll();
+		return queryRecords("");
 	}
 
 	public void addFilter(FilterRecord filter) throws SQLException {
@@ -146,6 +887,11 @@ public class Persistence {
 
 	public void addBadFile(BadFileRecord badFile) throws SQLException {
 		badFileRecordDao.createOrUpdate(badFile);
+		KnownPathIndex index = pathIndex;
+
+		if (index != null) {
+			index.addBadFile(badFile.getPath());
+		}
 	}
 
 	public boolean filterExists(long pHash) throws SQLException {
@@ -193,9 +939,168 @@ public class Persistence {
 		return reasons;
 	}
 
+	/**
+	 * Get all records in the directory and its sub-directories.
+	 */
 	public List<ImageRecord> filterByPath(Path directory) throws SQLException {
-		QueryBuilder<ImageRecord, String> qb = imageRecordDao.queryBuilder();
-		PreparedQuery<ImageRecord> prep = qb.where().like("path", directory.toString() + "%").prepare();
-		return imageRecordDao.query(prep);
+		return getRecordsBelow(directory);
+	}
+
+	/**
+	 * Get all records in the directory and its sub-directories. The directories are found in memory,
+	 * the records are queried by directory id.
+	 * 
+	 * @param directory
+	 *            the tree to search
+	 * @return the matching records, ordered by directory and file name
+	 * @throws SQLException
+	 *             if the query fails
+	 */
+	public List<ImageRecord> getRecordsBelow(Path directory) throws SQLException {
+		String prefix = directory.toString();
+
+		if (!prefix.endsWith(File.separator)) {
+			prefix += File.separator;
+		}
+
+		List<ImageRecord> records = new ArrayList<ImageRecord>();
+
+		for (Integer directoryId : directories.getIdsBelow(prefix)) {
+			records.addAll(queryRecords("WHERE directoryId = " + directoryId + " ORDER BY fileName"));
+		}
+
+		return records;
+	}
+
+	/**
+	 * @return the smallest string greater than all strings with the prefix, or null if there is none
+	 */
+	static String prefixUpperBound(String prefix) {
+		int end = prefix.length();
+
+		while (end > 0 && prefix.charAt(end - 1) == Character.MAX_VALUE) {
+			end--;
+		}
+
+		if (end == 0) {
+			return null;
+		}
+
+		return prefix.substring(0, end - 1) + (char) (prefix.charAt(end - 1) + 1);
+	}
+
+	public IndexRun startIndexRun(Path root) throws SQLException {
+		IndexRun run = new IndexRun(root.toString(), System.currentTimeMillis());
+		indexRunDao.create(run);
+		return run;
+	}
+
+	/**
+	 * @return the most recent run for the root that has not finished, or null if there is none
+	 */
+	public IndexRun getUnfinishedRun(Path root) throws SQLException {
+		QueryBuilder<IndexRun, Integer> qb = indexRunDao.queryBuilder();
+		qb.orderBy("id", false).where().eq("root", root.toString()).and().eq("finished", false);
+		return qb.queryForFirst();
+	}
+
+	public void updateIndexRun(IndexRun run) throws SQLException {
+		indexRunDao.update(run);
+	}
+
+	/**
+	 * Store newly found paths and remove processed paths from the pending work of the run, in a
+	 * single transaction.
+	 * 
+	 * @param run
+	 *            the paths belong to
+	 * @param discovered
+	 *            paths that have been found
+	 * @param completed
+	 *            paths that have been processed
+	 * @throws Exception
+	 *             if the batch fails
+	 */
+	public void checkpoint(final IndexRun run, final List<Path> discovered, final List<Path> completed) throws Exception {
+		run.setLastCheckpoint(System.currentTimeMillis());
+
+		TransactionManager.callInTransaction(connectionSource, new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				DatabaseConnection dbConn = connectionSource.getReadWriteConnection();
+
+				try {
+					Connection conn = ((JdbcDatabaseConnection) dbConn).getInternalConnection();
+					writePendingWork(conn, run, discovered, completed);
+				} finally {
+					connectionSource.releaseConnection(dbConn);
+				}
+
+				indexRunDao.update(run);
+				return null;
+			}
+		});
+	}
+
+	private void writePendingWork(Connection conn, IndexRun run, List<Path> discovered, List<Path> completed) throws SQLException {
+		if (!discovered.isEmpty()) {
+			PreparedStatement insert = conn.prepareStatement(insertPendingSql);
+
+			try {
+				for (Path path : discovered) {
+					insert.setString(1, path.toString());
+					insert.setInt(2, run.getId());
+					insert.addBatch();
+				}
+
+				insert.executeBatch();
+			} finally {
+				insert.close();
+			}
+		}
+
+		if (!completed.isEmpty()) {
+			PreparedStatement delete = conn.prepareStatement(deletePendingSql);
+
+			try {
+				for (Path path : completed) {
+					delete.setString(1, path.toString());
+					delete.addBatch();
+				}
+
+				delete.executeBatch();
+			} finally {
+				delete.close();
+			}
+		}
+	}
+
+	public List<Path> getPendingWork(IndexRun run) throws SQLException {
+		QueryBuilder<PendingWork, String> qb = pendingWorkDao.queryBuilder();
+		qb.selectColumns("path").where().eq("runId", run.getId());
+		GenericRawResults<String[]> results = pendingWorkDao.queryRaw(qb.prepareStatementString());
+		List<Path> pending = new LinkedList<Path>();
+
+		try {
+			for (String[] row : results) {
+				pending.add(Paths.get(row[0]));
+			}
+		} finally {
+			results.close();
+		}
+
+		return pending;
+	}
+
+	/**
+	 * Mark the run as finished and drop any work that is still pending.
+	 */
+	public void finishIndexRun(IndexRun run) throws SQLException {
+		DeleteBuilder<PendingWork, String> db = pendingWorkDao.deleteBuilder();
+		db.where().eq("runId", run.getId());
+		db.delete();
+
+		run.setFinished(true);
+		indexRunDao.update(run);
 	}
 }
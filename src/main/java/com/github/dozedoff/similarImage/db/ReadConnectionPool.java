@@ -0,0 +1,137 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.db;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sqlite.SQLiteConfig;
+
+/**
+ * A fixed number of read-only JDBC connections to the database, opened when first needed. With WAL
+ * journaling, readers on these connections see the last committed state and neither block nor are
+ * blocked by the writer connection.
+ */
+public class ReadConnectionPool {
+	private static final Logger logger = LoggerFactory.getLogger(ReadConnectionPool.class);
+
+	private final String url;
+	private final int maxConnections;
+	private final LinkedList<Connection> idle = new LinkedList<Connection>();
+	private final List<Connection> opened = new ArrayList<Connection>();
+	private boolean closed;
+
+	/**
+	 * @param url
+	 *            JDBC URL of the database
+	 * @param maxConnections
+	 *            number of connections that can be in use at the same time
+	 */
+	public ReadConnectionPool(String url, int maxConnections) {
+		if (maxConnections < 1) {
+			throw new IllegalArgumentException("At least one connection is required");
+		}
+
+		this.url = url;
+		this.maxConnections = maxConnections;
+	}
+
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+
+	/**
+	 * Take an idle connection, open a new one, or wait until one is released.
+	 *
+	 * @return a read-only connection, to be handed back with {@link #release(Connection)}
+	 * @throws SQLException
+	 *             if the connection could not be opened, the pool is closed or the thread was
+	 *             interrupted while waiting
+	 */
+	public synchronized Connection acquire() throws SQLException {
+		while (true) {
+			if (closed) {
+				throw new SQLException("Read connection pool is closed");
+			}
+
+			if (!idle.isEmpty()) {
+				return idle.removeFirst();
+			}
+
+			if (opened.size() < maxConnections) {
+				Connection conn = open();
+				opened.add(conn);
+				return conn;
+			}
+
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new SQLException("Interrupted while waiting for a read connection");
+			}
+		}
+	}
+
+	public synchronized void release(Connection conn) {
+		if (closed) {
+			closeQuietly(conn);
+			return;
+		}
+
+		idle.addFirst(conn);
+		notify();
+	}
+
+	/**
+	 * Close idle connections, connections in use are closed when they are released.
+	 */
+	public synchronized void close() {
+		closed = true;
+
+		for (Connection conn : idle) {
+			closeQuietly(conn);
+		}
+
+		idle.clear();
+		opened.clear();
+		notifyAll();
+	}
+
+	private Connection open() throws SQLException {
+		SQLiteConfig config = new SQLiteConfig();
+		config.setReadOnly(true);
+		Connection conn = DriverManager.getConnection(url, config.toProperties());
+		logger.debug("Opened read connection {} of {}", opened.size() + 1, maxConnections);
+		return conn;
+	}
+
+	private void closeQuietly(Connection conn) {
+		try {
+			conn.close();
+		} catch (SQLException e) {
+			logger.warn("Failed to close read connection - {}", e.getMessage());
+		}
+	}
+}
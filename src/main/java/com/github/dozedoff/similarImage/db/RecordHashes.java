@@ -0,0 +1,176 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.db;
+
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * The pHashes of image records with the row ids of the records, stored in primitive arrays. Used for
+ * sorting, where a full {@link ImageRecord} per row would need several times the memory. Records
+ * are loaded by id once they are needed.
+ * 
+ * Not thread safe.
+ */
+public class RecordHashes {
+	private static final int MIN_CAPACITY = 16;
+
+	private int[] ids;
+	private long[] hashes;
+	private int size = 0;
+
+	public RecordHashes() {
+		this(MIN_CAPACITY);
+	}
+
+	/**
+	 * @param expectedSize
+	 *            number of records, used for sizing
+	 */
+	public RecordHashes(int expectedSize) {
+		int capacity = Math.max(MIN_CAPACITY, expectedSize);
+		ids = new int[capacity];
+		hashes = new long[capacity];
+	}
+
+	public void add(int id, long hash) {
+		if (size == ids.length) {
+			int capacity = size + (size >> 1);
+			ids = Arrays.copyOf(ids, capacity);
+			hashes = Arrays.copyOf(hashes, capacity);
+		}
+
+		ids[size] = id;
+		hashes[size] = hash;
+		size++;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getId(int index) {
+		return ids[index];
+	}
+
+	public long getHash(int index) {
+		return hashes[index];
+	}
+
+	/**
+	 * Remove the records with the given ids, keeping the order of the others.
+	 * 
+	 * @param toRemove
+	 *            ids of the records to remove
+	 */
+	public void removeAll(Set<Integer> toRemove) {
+		if (toRemove.isEmpty()) {
+			return;
+		}
+
+		int kept = 0;
+
+		for (int i = 0; i < size; i++) {
+			if (!toRemove.contains(ids[i])) {
+				ids[kept] = ids[i];
+				hashes[kept] = hashes[i];
+				kept++;
+			}
+		}
+
+		size = kept;
+	}
+
+	/**
+	 * Sort the records by hash, records with the same hash by id. Uses heapsort, so no memory is
+	 * allocated.
+	 */
+	public void sortByHash() {
+		for (int i = size / 2 - 1; i >= 0; i--) {
+			siftDown(i, size);
+		}
+
+		for (int end = size - 1; end > 0; end--) {
+			swap(0, end);
+			siftDown(0, end);
+		}
+	}
+
+	private void siftDown(int root, int end) {
+		while (true) {
+			int child = 2 * root + 1;
+
+			if (child >= end) {
+				return;
+			}
+
+			if (child + 1 < end && isLess(child, child + 1)) {
+				child++;
+			}
+
+			if (!isLess(root, child)) {
+				return;
+			}
+
+			swap(root, child);
+			root = child;
+		}
+	}
+
+	private boolean isLess(int a, int b) {
+		if (hashes[a] != hashes[b]) {
+			return hashes[a] < hashes[b];
+		}
+
+		return ids[a] < ids[b];
+	}
+
+	private void swap(int a, int b) {
+		int id = ids[a];
+		ids[a] = ids[b];
+		ids[b] = id;
+
+		long hash = hashes[a];
+		hashes[a] = hashes[b];
+		hashes[b] = hash;
+	}
+
+	/**
+	 * Find the runs of records with the same hash. The records must be sorted by hash.
+	 * 
+	 * @return the index of the first record of each run, followed by the number of records
+	 */
+	public int[] distinctStarts() {
+		int[] starts = new int[MIN_CAPACITY];
+		int count = 0;
+
+		for (int i = 0; i < size; i++) {
+			if (i == 0 || hashes[i] != hashes[i - 1]) {
+				if (count == starts.length) {
+					starts = Arrays.copyOf(starts, count + (count >> 1));
+				}
+
+				starts[count++] = i;
+			}
+		}
+
+		starts = Arrays.copyOf(starts, count + 1);
+		starts[count] = size;
+		return starts;
+	}
+}
@@ -0,0 +1,243 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.db;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.dao.GenericRawResults;
+import com.j256.ormlite.misc.TransactionManager;
+import com.j256.ormlite.support.ConnectionSource;
+import com.j256.ormlite.table.DatabaseTableConfig;
+import com.j256.ormlite.table.TableUtils;
+
+/**
+ * Brings existing databases up to the current schema. The schema version is stored in the
+ * user_version of the database file, each migration runs in its own transaction and sets the
+ * version it migrates to.<br>
+ * Migrations run before the tables are created from the annotated classes, because creating the
+ * indices of a record class fails on a table that is missing the indexed columns. A database
+ * without an image table is new, it is created with the current schema and starts at the latest
+ * version.<br>
+ * Migrations must be safe to run on a database that already has the change, because databases
+ * created before the version was tracked start at version 0.
+ */
+class SchemaMigrator {
+	private static final Logger logger = LoggerFactory.getLogger(SchemaMigrator.class);
+
+	private final ConnectionSource connectionSource;
+	private final Dao<?, ?> dao;
+	private final String separator;
+	private final String imageTable = DatabaseTableConfig.extractTableName(ImageRecord.class);
+	private final String badFileTable = DatabaseTableConfig.extractTableName(BadFileRecord.class);
+	private final String directoryTable = DatabaseTableConfig.extractTableName(DirectoryRecord.class);
+	private final List<Migration> migrations = new ArrayList<Migration>();
+
+	private abstract class Migration {
+		private final int version;
+		private final String description;
+
+		public Migration(int version, String description) {
+			this.version = version;
+			this.description = description;
+		}
+
+		abstract void apply() throws SQLException;
+	}
+
+	/**
+	 * @param dao
+	 *            any DAO of the database, used to run raw statements
+	 */
+	public SchemaMigrator(ConnectionSource connectionSource, Dao<?, ?> dao) {
+		this(connectionSource, dao, File.separator);
+	}
+
+	/**
+	 * @param separator
+	 *            name separator of the paths stored in the database
+	 */
+	SchemaMigrator(ConnectionSource connectionSource, Dao<?, ?> dao, String separator) {
+		this.connectionSource = connectionSource;
+		this.dao = dao;
+		this.separator = separator;
+
+		migrations.add(new Migration(1, "file size and modification time") {
+			@Override
+			void apply() throws SQLException {
+				addColumnIfMissing(imageTable, "fileSize", "BIGINT DEFAULT 0");
+				addColumnIfMissing(imageTable, "lastModified", "BIGINT DEFAULT 0");
+			}
+		});
+
+		migrations.add(new Migration(2, "bad file reason") {
+			@Override
+			void apply() throws SQLException {
+				addColumnIfMissing(badFileTable, "reason", "VARCHAR");
+			}
+		});
+
+		migrations.add(new Migration(3, "content hash") {
+			@Override
+			void apply() throws SQLException {
+				addColumnIfMissing(imageTable, "contentHash", "BIGINT DEFAULT 0");
+				createIndex(imageTable, "contentHash");
+			}
+		});
+
+		migrations.add(new Migration(4, "pHash index") {
+			@Override
+			void apply() throws SQLException {
+				createIndex(imageTable, "pHash");
+			}
+		});
+
+		migrations.add(new Migration(5, "directory table") {
+			@Override
+			void apply() throws SQLException {
+				splitPaths();
+			}
+		});
+	}
+
+	/**
+	 * @return the version of the newest migration
+	 */
+	public int getLatestVersion() {
+		return migrations.get(migrations.size() - 1).version;
+	}
+
+	public int getVersion() throws SQLException {
+		return (int) dao.queryRawValue("PRAGMA user_version");
+	}
+
+	/**
+	 * Apply all migrations newer than the version of the database, in order.
+	 * 
+	 * @throws SQLException
+	 *             if a migration fails, the database keeps the version of the last successful one
+	 */
+	public void migrate() throws SQLException {
+		int version = getVersion();
+
+		if (version == 0 && !hasTable(imageTable)) {
+			logger.info("New database, setting schema version {}", getLatestVersion());
+			dao.executeRaw("PRAGMA user_version = " + getLatestVersion());
+			return;
+		}
+
+		if (version > getLatestVersion()) {
+			logger.warn("Database schema version {} is newer than the supported version {}", version, getLatestVersion());
+			return;
+		}
+
+		for (final Migration migration : migrations) {
+			if (migration.version <= version) {
+				continue;
+			}
+
+			logger.info("Migrating database to schema version {}: {}", migration.version, migration.description);
+
+			TransactionManager.callInTransaction(connectionSource, new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					migration.apply();
+					dao.executeRaw("PRAGMA user_version = " + migration.version);
+					return null;
+				}
+			});
+		}
+	}
+
+	private void createIndex(String table, String column) throws SQLException {
+		dao.executeRaw("CREATE INDEX IF NOT EXISTS " + table + "_" + column + "_idx ON " + table + " (" + column + ")");
+	}
+
+	/**
+	 * Replace the path of the image records with a directory id and file name. The old table is
+	 * renamed and copied into a new one, the directory and file name are split at the last separator
+	 * in SQL: rtrim with all characters of the path except the separator strips the file name.
+	 */
+	private void splitPaths() throws SQLException {
+		TableUtils.createTableIfNotExists(connectionSource, DirectoryRecord.class);
+
+		if (!hasColumn(imageTable, "path")) {
+			return;
+		}
+
+		String oldTable = imageTable + "_v4";
+
+		dao.executeRaw("ALTER TABLE " + imageTable + " RENAME TO " + oldTable);
+		dropIndex(imageTable, "pHash");
+		dropIndex(imageTable, "contentHash");
+		TableUtils.createTable(connectionSource, ImageRecord.class);
+
+		dao.executeRaw("INSERT OR IGNORE INTO " + directoryTable + " (path) SELECT DISTINCT " + directoryOf("path") + " FROM " + oldTable);
+		dao.executeRaw("INSERT INTO " + imageTable + " (directoryId, fileName, pHash, fileSize, lastModified, contentHash)"
+				+ " SELECT d.id, substr(o.path, length(d.path) + 1), o.pHash, o.fileSize, o.lastModified, o.contentHash FROM "
+				+ oldTable + " o JOIN " + directoryTable + " d ON d.path = " + directoryOf("o.path"));
+		dao.executeRaw("DROP TABLE " + oldTable);
+
+		logger.info("Moved {} image records to {} directories", dao.queryRawValue("SELECT COUNT(*) FROM " + imageTable),
+				dao.queryRawValue("SELECT COUNT(*) FROM " + directoryTable));
+	}
+
+	private String directoryOf(String column) {
+		return "rtrim(" + column + ", replace(" + column + ", '" + separator + "', ''))";
+	}
+
+	private void dropIndex(String table, String column) throws SQLException {
+		dao.executeRaw("DROP INDEX IF EXISTS " + table + "_" + column + "_idx");
+	}
+
+	private boolean hasTable(String table) throws SQLException {
+		return dao.queryRawValue("SELECT COUNT(*) FROM sqlite_master WHERE type = 'table' AND name = ?", table) > 0;
+	}
+
+	private boolean hasColumn(String table, String column) throws SQLException {
+		GenericRawResults<String[]> columns = dao.queryRaw("PRAGMA table_info(" + table + ")");
+
+		try {
+			for (String[] info : columns) {
+				if (column.equalsIgnoreCase(info[1])) {
+					return true;
+				}
+			}
+		} finally {
+			columns.close();
+		}
+
+		return false;
+	}
+
+	private void addColumnIfMissing(String table, String column, String definition) throws SQLException {
+		if (hasColumn(table, column)) {
+			return;
+		}
+
+		logger.info("Adding column {} to table {}", column, table);
+		dao.executeRaw("ALTER TABLE " + table + " ADD COLUMN " + column + " " + definition);
+	}
+}
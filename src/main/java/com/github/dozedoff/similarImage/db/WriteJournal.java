@@ -0,0 +1,234 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.db;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only file for records that could not be written to the database. Each append is synced to
+ * disk before it returns. A record that was only partially written, e.g. due to a crash, is ignored
+ * when reading, and cut off before the next append.<br>
+ * Paths are stored as UTF-8 bytes with their length, as paths can be longer than
+ * {@link DataOutputStream#writeUTF(String)} allows.
+ */
+public class WriteJournal {
+	private static final Logger logger = LoggerFactory.getLogger(WriteJournal.class);
+	private static final Charset PATH_CHARSET = StandardCharsets.UTF_8;
+	/**
+	 * Longer paths are taken to be damage, far above the path limits of common file systems.
+	 */
+	private static final int MAX_PATH_BYTES = 1024 * 1024;
+
+	private final Path journal;
+	private int recordCount;
+	/**
+	 * End of the last complete record, -1 if the journal has not been read yet.
+	 */
+	private long validLength = -1;
+
+	public WriteJournal(Path journal) {
+		this.journal = journal;
+	}
+
+	public Path getPath() {
+		return journal;
+	}
+
+	/**
+	 * @return number of records appended since the journal was last read
+	 */
+	public synchronized int getRecordCount() {
+		return recordCount;
+	}
+
+	public synchronized boolean isEmpty() throws IOException {
+		return !Files.exists(journal) || Files.size(journal) == 0;
+	}
+
+	public synchronized void append(List<ImageRecord> records) throws IOException {
+		long end = getValidLength();
+		FileOutputStream fos = new FileOutputStream(journal.toFile(), true);
+
+		try {
+			FileChannel channel = fos.getChannel();
+
+			if (channel.size() > end) {
+				logger.warn("Removing {} bytes of a partially written record from journal {}", channel.size() - end, journal);
+				channel.truncate(end);
+			}
+
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+
+			for (ImageRecord record : records) {
+				byte[] path = record.getPath().getBytes(PATH_CHARSET);
+				out.writeInt(path.length);
+				out.write(path);
+				out.writeLong(record.getpHash());
+				out.writeLong(record.getFileSize());
+				out.writeLong(record.getLastModified());
+				out.writeLong(record.getContentHash());
+			}
+
+			out.flush();
+			fos.getFD().sync();
+			validLength = end + out.size();
+			recordCount += records.size();
+		} catch (IOException e) {
+			validLength = -1;
+			throw e;
+		} finally {
+			fos.close();
+		}
+	}
+
+	private long getValidLength() throws IOException {
+		if (validLength < 0) {
+			validLength = read(new LinkedList<ImageRecord>());
+		}
+
+		return validLength;
+	}
+
+	/**
+	 * Delete all records in the journal.
+	 */
+	public synchronized void clear() throws IOException {
+		Files.deleteIfExists(journal);
+		recordCount = 0;
+		validLength = 0;
+	}
+
+	/**
+	 * Read all records in the journal, without changing it.
+	 */
+	public synchronized List<ImageRecord> readAll() throws IOException {
+		List<ImageRecord> records = new LinkedList<ImageRecord>();
+		validLength = read(records);
+
+		if (!records.isEmpty()) {
+			logger.info("Read {} records from journal {}", records.size(), journal);
+		}
+
+		return records;
+	}
+
+	/**
+	 * Read complete records, up to the end of the journal or the first partially written record.
+	 * 
+	 * @param records
+	 *            receives the records
+	 * @return the end of the last complete record
+	 */
+	private long read(List<ImageRecord> records) throws IOException {
+		if (!Files.exists(journal)) {
+			return 0;
+		}
+
+		CountingInputStream counter = new CountingInputStream(new BufferedInputStream(new FileInputStream(journal.toFile())));
+		DataInputStream in = new DataInputStream(counter);
+		long end = 0;
+
+		try {
+			while (true) {
+				int pathLength = in.readInt();
+
+				if (pathLength < 0 || pathLength > MAX_PATH_BYTES) {
+					// a partially written record, followed by records appended before partial records were removed
+					logger.warn("Journal {} is damaged after {} records, ignoring the rest", journal, records.size());
+					break;
+				}
+
+				byte[] pathBytes = new byte[pathLength];
+				in.readFully(pathBytes);
+				String path = new String(pathBytes, PATH_CHARSET);
+				long pHash = in.readLong();
+				long fileSize = in.readLong();
+				long lastModified = in.readLong();
+				long contentHash = in.readLong();
+				records.add(new ImageRecord(path, pHash, fileSize, lastModified, contentHash));
+				end = counter.getCount();
+			}
+		} catch (EOFException e) {
+			// end of journal, or a partially written record
+		} finally {
+			in.close();
+		}
+
+		return end;
+	}
+
+	private static class CountingInputStream extends FilterInputStream {
+		private long count;
+
+		public CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+
+			if (b >= 0) {
+				count++;
+			}
+
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = super.read(b, off, len);
+
+			if (read > 0) {
+				count += read;
+			}
+
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			count += skipped;
+			return skipped;
+		}
+	}
+}
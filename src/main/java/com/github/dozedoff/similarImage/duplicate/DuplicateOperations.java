@@ -119,7 +119,7 @@ public class DuplicateOperations {
 		}
 
 		try {
-			List<ImageRecord> records = persistence.filterByPath(directory);
+			List<ImageRecord> records = persistence.getRecordsBelow(directory);
 			LinkedList<Path> toPrune = new LinkedList<Path>();
 
 			for (ImageRecord ir : records) {
@@ -138,14 +138,11 @@ public class DuplicateOperations {
 			dialog.setVisible(true);
 
 			if (pane.getValue() != null && (Integer) pane.getValue() == JOptionPane.OK_OPTION) {
-				for (Path path : toPrune) {
-					ImageRecord ir = new ImageRecord(path.toString(), 0);
-					persistence.deleteRecord(ir);
-				}
+				persistence.deleteRecords(toPrune);
 			} else {
 				logger.info("User aborted prune operation for {}", directory);
 			}
-		} catch (SQLException e) {
+		} catch (Exception e) {
 			logger.warn("Failed to prune records for {} - {}", directory, e.getMessage());
 		}
 	}
@@ -0,0 +1,155 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.duplicate;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.github.dozedoff.similarImage.db.ImageRecord;
+
+/**
+ * Writes groups of images as JSON or CSV, for use by other tools.<br>
+ * JSON output is an array of objects with the group id and an array of images. CSV output has one
+ * line per image, with the group id in the first column.
+ */
+public class GroupExporter {
+	public enum Format {
+		JSON, CSV
+	}
+
+	private static final String CSV_HEADER = "group,path,phash,size,lastModified";
+
+	private final Format format;
+
+	public GroupExporter(Format format) {
+		this.format = format;
+	}
+
+	public Format getFormat() {
+		return format;
+	}
+
+	/**
+	 * Write the groups in the order of the map.
+	 * 
+	 * @param groups
+	 *            group ids and the images in each group
+	 * @param out
+	 *            to write to, not closed
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	public void write(Map<Long, ? extends Collection<ImageRecord>> groups, Writer out) throws IOException {
+		if (format == Format.CSV) {
+			writeCsv(groups, out);
+		} else {
+			writeJson(groups, out);
+		}
+
+		out.flush();
+	}
+
+	private void writeCsv(Map<Long, ? extends Collection<ImageRecord>> groups, Writer out) throws IOException {
+		out.write(CSV_HEADER);
+		out.write('\n');
+
+		for (Entry<Long, ? extends Collection<ImageRecord>> group : groups.entrySet()) {
+			for (ImageRecord record : group.getValue()) {
+				out.write(group.getKey().toString());
+				out.write(',');
+				out.write(csvField(record.getPath()));
+				out.write(',');
+				out.write(Long.toString(record.getpHash()));
+				out.write(',');
+				out.write(Long.toString(record.getFileSize()));
+				out.write(',');
+				out.write(Long.toString(record.getLastModified()));
+				out.write('\n');
+			}
+		}
+	}
+
+	private void writeJson(Map<Long, ? extends Collection<ImageRecord>> groups, Writer out) throws IOException {
+		boolean firstGroup = true;
+		out.write("[");
+
+		for (Entry<Long, ? extends Collection<ImageRecord>> group : groups.entrySet()) {
+			out.write(firstGroup ? "\n" : ",\n");
+			out.write("  {\"group\": " + group.getKey() + ", \"images\": [");
+			firstGroup = false;
+			boolean firstImage = true;
+
+			for (ImageRecord record : group.getValue()) {
+				out.write(firstImage ? "\n" : ",\n");
+				out.write("    {\"path\": " + jsonString(record.getPath()) + ", \"phash\": " + record.getpHash() + ", \"size\": "
+						+ record.getFileSize() + ", \"lastModified\": " + record.getLastModified() + "}");
+				firstImage = false;
+			}
+
+			out.write("\n  ]}");
+		}
+
+		out.write("\n]\n");
+	}
+
+	static String csvField(String value) {
+		if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+			return value;
+		}
+
+		return "\"" + value.replace("\"", "\"\"") + "\"";
+	}
+
+	static String jsonString(String value) {
+		StringBuilder sb = new StringBuilder(value.length() + 2);
+		sb.append('"');
+
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+
+			switch (c) {
+			case '"':
+				sb.append("\\\"");
+				break;
+			case '\\':
+				sb.append("\\\\");
+				break;
+			case '\n':
+				sb.append("\\n");
+				break;
+			case '\r':
+				sb.append("\\r");
+				break;
+			case '\t':
+				sb.append("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					sb.append(String.format("\\u%04x", (int) c));
+				} else {
+					sb.append(c);
+				}
+			}
+		}
+
+		return sb.append('"').toString();
+	}
+}
@@ -0,0 +1,176 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.duplicate;
+
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+
+import com.github.dozedoff.similarImage.db.RecordHashes;
+
+/**
+ * Record ids grouped by their distinct hash, with a {@link HashTree} to search the hashes. Built in
+ * memory from {@link RecordHashes}, or mapped from a {@link HashSnapshot}.
+ */
+public class HashIndex {
+	private final LongBuffer hashes;
+	private final IntBuffer starts;
+	private final IntBuffer ids;
+	private final HashTree tree;
+	private final Set<Integer> removed;
+
+	/**
+	 * @param hashes
+	 *            distinct hashes, sorted
+	 * @param starts
+	 *            index of the first id of each hash, followed by the number of ids
+	 * @param ids
+	 *            record ids, grouped by hash
+	 * @param tree
+	 *            over the distinct hashes
+	 */
+	HashIndex(LongBuffer hashes, IntBuffer starts, IntBuffer ids, HashTree tree) {
+		this(hashes, starts, ids, tree, Collections.<Integer> emptySet());
+	}
+
+	private HashIndex(LongBuffer hashes, IntBuffer starts, IntBuffer ids, HashTree tree, Set<Integer> removed) {
+		this.hashes = hashes;
+		this.starts = starts;
+		this.ids = ids;
+		this.tree = tree;
+		this.removed = removed;
+	}
+
+	/**
+	 * Build an index in memory.
+	 * 
+	 * @param records
+	 *            to index, they are sorted by hash
+	 * @return the new index
+	 */
+	public static HashIndex build(RecordHashes records) {
+		records.sortByHash();
+
+		int[] starts = records.distinctStarts();
+		long[] distinct = new long[starts.length - 1];
+		int[] ids = new int[records.size()];
+
+		for (int i = 0; i < distinct.length; i++) {
+			distinct[i] = records.getHash(starts[i]);
+		}
+
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = records.getId(i);
+		}
+
+		return new HashIndex(LongBuffer.wrap(distinct), IntBuffer.wrap(starts), IntBuffer.wrap(ids), new HashTree(distinct,
+				distinct.length));
+	}
+
+	/**
+	 * Get a view of the index that skips records, e.g. records that have changed since a snapshot
+	 * was taken.
+	 * 
+	 * @param removed
+	 *            ids of the records to skip, not copied
+	 * @return a view sharing the data of this index
+	 */
+	public HashIndex withRemoved(Set<Integer> removed) {
+		return new HashIndex(hashes, starts, ids, tree, removed);
+	}
+
+	public int getDistinctCount() {
+		return starts.capacity() - 1;
+	}
+
+	public long getHash(int index) {
+		return hashes.get(index);
+	}
+
+	public int getRecordCount() {
+		return ids.capacity();
+	}
+
+	/**
+	 * @return true if a record with the hash is neither removed nor excluded
+	 */
+	public boolean hasRecords(int index, Set<Integer> excluded) {
+		for (int i = starts.get(index); i < starts.get(index + 1); i++) {
+			int id = ids.get(i);
+
+			if (!removed.contains(id) && !excluded.contains(id)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Find the records with a hash within the distance.
+	 * 
+	 * @param hash
+	 *            to search for
+	 * @param maxDistance
+	 *            largest hamming distance to include
+	 * @param excluded
+	 *            ids of records to leave out
+	 * @return the record ids, in no particular order
+	 */
+	public int[] findIds(long hash, int maxDistance, Set<Integer> excluded) {
+		int[] found = tree.searchWithin(hash, maxDistance);
+		int[] result = new int[8];
+		int count = 0;
+
+		for (int index : found) {
+			for (int i = starts.get(index); i < starts.get(index + 1); i++) {
+				int id = ids.get(i);
+
+				if (removed.contains(id) || excluded.contains(id)) {
+					continue;
+				}
+
+				if (count == result.length) {
+					result = Arrays.copyOf(result, count * 2);
+				}
+
+				result[count++] = id;
+			}
+		}
+
+		return Arrays.copyOf(result, count);
+	}
+
+	LongBuffer getHashes() {
+		return hashes;
+	}
+
+	IntBuffer getStarts() {
+		return starts;
+	}
+
+	IntBuffer getIds() {
+		return ids;
+	}
+
+	HashTree getTree() {
+		return tree;
+	}
+}
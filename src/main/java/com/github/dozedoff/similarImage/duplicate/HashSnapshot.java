@@ -0,0 +1,385 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.duplicate;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.dozedoff.similarImage.db.HashLog;
+import com.github.dozedoff.similarImage.db.Persistence;
+import com.github.dozedoff.similarImage.db.RecordHashes;
+
+/**
+ * A {@link HashIndex} stored in a file and memory mapped, so sorting can start without reading the
+ * image table, and the pages are shared with other processes. Records written since the snapshot was
+ * taken are read from the {@link HashLog} into a second, small index. Their entries in the snapshot
+ * are skipped.<br>
+ * The file holds a header followed by the distinct hashes, the start of each hash in the ids, the
+ * record ids and the tree, in native byte order. The header identifies the database the snapshot was
+ * taken from, a snapshot of a different database is rebuilt.
+ */
+public class HashSnapshot {
+	private static final Logger logger = LoggerFactory.getLogger(HashSnapshot.class);
+
+	private static final int MAGIC = 0x53494832;
+	private static final int HEADER_SIZE = 24;
+	private static final int WRITE_BUFFER_SIZE = 1 << 20;
+	private static final ByteOrder ORDER = ByteOrder.nativeOrder();
+	private static final Object loadLock = new Object();
+
+	/**
+	 * The snapshot is rebuilt once the log holds more than this share of the records, and more than
+	 * the minimum.
+	 */
+	static final double MAX_CHANGE_RATIO = 0.1;
+	static final int MIN_CHANGES_FOR_REBUILD = 10000;
+
+	private HashIndex base;
+	private HashIndex delta;
+	private final int maxId;
+	private final int databaseId;
+
+	HashSnapshot(HashIndex base, int maxId, int databaseId) {
+		this.base = base;
+		this.delta = HashIndex.build(new RecordHashes(0));
+		this.maxId = maxId;
+		this.databaseId = databaseId;
+	}
+
+	/**
+	 * @return the snapshot and the changes since, to be searched together
+	 */
+	public List<HashIndex> getIndexes() {
+		return Arrays.asList(base, delta);
+	}
+
+	/**
+	 * @return the largest record id when the snapshot was taken
+	 */
+	public int getMaxId() {
+		return maxId;
+	}
+
+	/**
+	 * Open the snapshot and apply the log. If the snapshot is missing or outdated, or the log has
+	 * grown too large, the snapshot is rebuilt from the database and the log entries it covers are
+	 * dropped. Writes continue while the snapshot is rebuilt, only one snapshot is loaded at a time.
+	 * 
+	 * @param file
+	 *            of the snapshot
+	 * @param log
+	 *            of the changes since the snapshot was taken
+	 * @param persistence
+	 *            to rebuild the snapshot from
+	 * @return the current hashes
+	 * @throws SQLException
+	 *             if the hashes could not be read from the database
+	 */
+	public static HashSnapshot load(Path file, HashLog log, Persistence persistence) throws SQLException {
+		synchronized (loadLock) {
+			try {
+				HashSnapshot snapshot = open(file, log, databaseId(persistence), persistence.getMaxRecordId());
+
+				if (snapshot != null) {
+					return snapshot;
+				}
+			} catch (IOException e) {
+				logger.warn("Failed to open hash snapshot {} - {}", file, e.getMessage());
+			}
+
+			return rebuild(file, log, persistence);
+		}
+	}
+
+	private static int databaseId(Persistence persistence) throws SQLException {
+		return persistence.getDatabaseId().hashCode();
+	}
+
+	/**
+	 * @param databaseId
+	 *            of the current database, see {@link Persistence#getDatabaseId()}
+	 * @return the snapshot with the log applied, or null if it needs to be rebuilt
+	 */
+	static HashSnapshot open(Path file, HashLog log, int databaseId, int databaseMaxId) throws IOException {
+		if (!Files.exists(file)) {
+			return null;
+		}
+
+		HashSnapshot snapshot = map(file);
+
+		if (snapshot == null) {
+			logger.info("Hash snapshot {} has an unknown format", file);
+			return null;
+		}
+
+		if (snapshot.databaseId != databaseId) {
+			logger.info("Hash snapshot {} was taken from a different database", file);
+			return null;
+		}
+
+		Map<Integer, Long> changed = new HashMap<Integer, Long>();
+		Set<Integer> removed = new HashSet<Integer>();
+		log.read(changed, removed);
+
+		int knownMaxId = snapshot.maxId;
+
+		for (int id : changed.keySet()) {
+			knownMaxId = Math.max(knownMaxId, id);
+		}
+
+		if (databaseMaxId > knownMaxId) {
+			logger.info("Hash snapshot {} is missing records written without the log", file);
+			return null;
+		}
+
+		int changes = changed.size() + removed.size();
+
+		if (changes > MIN_CHANGES_FOR_REBUILD && changes > snapshot.base.getRecordCount() * MAX_CHANGE_RATIO) {
+			logger.info("Hash log {} has {} changes, rebuilding the snapshot", log.getPath(), changes);
+			return null;
+		}
+
+		snapshot.apply(changed, removed);
+		logger.info("Opened hash snapshot {} with {} records and {} changes", file, snapshot.base.getRecordCount(), changes);
+		return snapshot;
+	}
+
+	private void apply(Map<Integer, Long> changed, Set<Integer> removed) {
+		RecordHashes changedHashes = new RecordHashes(changed.size());
+
+		for (Map.Entry<Integer, Long> entry : changed.entrySet()) {
+			changedHashes.add(entry.getKey(), entry.getValue());
+		}
+
+		Set<Integer> stale = new HashSet<Integer>(removed);
+		stale.addAll(changed.keySet());
+
+		base = base.withRemoved(stale);
+		delta = HashIndex.build(changedHashes);
+	}
+
+	/**
+	 * Read the hashes from the database and write a new snapshot. Persistence holds the log while a
+	 * batch is committed, so every entry before the mark belongs to a committed write and is covered
+	 * by the hashes read afterwards. Entries after the mark are kept, and applied to the result.
+	 * Replaying an entry the snapshot already covers does not change the result.
+	 */
+	private static HashSnapshot rebuild(Path file, HashLog log, Persistence persistence) throws SQLException {
+		long mark = 0;
+
+		try {
+			mark = log.size();
+		} catch (IOException e) {
+			logger.warn("Failed to read hash log {}, keeping all entries - {}", log.getPath(), e.getMessage());
+		}
+
+		int databaseId = databaseId(persistence);
+		int maxId = persistence.getMaxRecordId();
+		HashSnapshot snapshot = new HashSnapshot(HashIndex.build(persistence.getHashes()), maxId, databaseId);
+
+		try {
+			write(file, snapshot.base, maxId, databaseId);
+			log.dropEntries(mark);
+			logger.info("Wrote hash snapshot {} with {} records", file, snapshot.base.getRecordCount());
+		} catch (IOException e) {
+			logger.warn("Failed to write hash snapshot {} - {}", file, e.getMessage());
+		}
+
+		try {
+			Map<Integer, Long> changed = new HashMap<Integer, Long>();
+			Set<Integer> removed = new HashSet<Integer>();
+			log.read(changed, removed);
+			snapshot.apply(changed, removed);
+		} catch (IOException e) {
+			logger.warn("Failed to read hash log {} - {}", log.getPath(), e.getMessage());
+		}
+
+		return snapshot;
+	}
+
+	static long fileSize(int distinct, int records) {
+		return HEADER_SIZE + 8L * distinct + 4L * (distinct + 1) + 4L * records + 8L * distinct + distinct;
+	}
+
+	/**
+	 * Write the index to a temporary file, and move it over the snapshot once it is complete.
+	 * 
+	 * @param file
+	 *            of the snapshot
+	 * @param index
+	 *            to write
+	 * @param maxId
+	 *            largest record id in the index
+	 * @param databaseId
+	 *            of the database the index was read from
+	 * @throws IOException
+	 *             if the file could not be written, or is too large to be mapped
+	 */
+	static void write(Path file, HashIndex index, int maxId, int databaseId) throws IOException {
+		int distinct = index.getDistinctCount();
+		int records = index.getRecordCount();
+		HashTree tree = index.getTree();
+
+		if (fileSize(distinct, records) > Integer.MAX_VALUE) {
+			throw new IOException("A snapshot of " + records + " records is too large to map");
+		}
+
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		FileChannel channel = FileChannel.open(temp, CREATE, WRITE, TRUNCATE_EXISTING);
+
+		try {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(ORDER);
+			buffer.putInt(MAGIC).putInt(distinct).putInt(records).putInt(tree.getRoot()).putInt(maxId).putInt(databaseId);
+
+			LongBuffer hashes = index.getHashes();
+
+			for (int i = 0; i < distinct; i++) {
+				if (buffer.remaining() < 8) {
+					drain(channel, buffer);
+				}
+
+				buffer.putLong(hashes.get(i));
+			}
+
+			putInts(channel, buffer, index.getStarts(), distinct + 1);
+			putInts(channel, buffer, index.getIds(), records);
+			putInts(channel, buffer, tree.getFirstChild(), distinct);
+			putInts(channel, buffer, tree.getNextSibling(), distinct);
+
+			ByteBuffer distances = tree.getParentDistance();
+
+			for (int i = 0; i < distinct; i++) {
+				if (!buffer.hasRemaining()) {
+					drain(channel, buffer);
+				}
+
+				buffer.put(distances.get(i));
+			}
+
+			drain(channel, buffer);
+			channel.force(false);
+		} finally {
+			channel.close();
+		}
+
+		Files.move(temp, file, REPLACE_EXISTING, ATOMIC_MOVE);
+	}
+
+	private static void putInts(FileChannel channel, ByteBuffer buffer, IntBuffer values, int count) throws IOException {
+		for (int i = 0; i < count; i++) {
+			if (buffer.remaining() < 4) {
+				drain(channel, buffer);
+			}
+
+			buffer.putInt(values.get(i));
+		}
+	}
+
+	private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+
+		buffer.clear();
+	}
+
+	/**
+	 * Map the snapshot, the log is not applied.
+	 * 
+	 * @return the snapshot, or null if the file has an unknown format
+	 */
+	static HashSnapshot map(Path file) throws IOException {
+		FileChannel channel = FileChannel.open(file, READ);
+
+		try {
+			long size = channel.size();
+
+			if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+				return null;
+			}
+
+			ByteBuffer map = channel.map(MapMode.READ_ONLY, 0, size).order(ORDER);
+
+			if (map.getInt(0) != MAGIC) {
+				return null;
+			}
+
+			int distinct = map.getInt(4);
+			int records = map.getInt(8);
+			int root = map.getInt(12);
+			int maxId = map.getInt(16);
+			int databaseId = map.getInt(20);
+
+			if (distinct < 0 || records < 0 || size != fileSize(distinct, records)) {
+				return null;
+			}
+
+			int offset = HEADER_SIZE;
+			LongBuffer hashes = section(map, offset, 8 * distinct).asLongBuffer();
+			offset += 8 * distinct;
+			IntBuffer starts = section(map, offset, 4 * (distinct + 1)).asIntBuffer();
+			offset += 4 * (distinct + 1);
+			IntBuffer ids = section(map, offset, 4 * records).asIntBuffer();
+			offset += 4 * records;
+			IntBuffer firstChild = section(map, offset, 4 * distinct).asIntBuffer();
+			offset += 4 * distinct;
+			IntBuffer nextSibling = section(map, offset, 4 * distinct).asIntBuffer();
+			offset += 4 * distinct;
+			ByteBuffer distances = section(map, offset, distinct);
+
+			HashTree tree = new HashTree(hashes, firstChild, nextSibling, distances, root);
+			return new HashSnapshot(new HashIndex(hashes, starts, ids, tree), maxId, databaseId);
+		} finally {
+			// the mapping stays valid after the channel is closed
+			channel.close();
+		}
+	}
+
+	private static ByteBuffer section(ByteBuffer map, int offset, int length) {
+		ByteBuffer section = map.duplicate();
+		section.position(offset);
+		section.limit(offset + length);
+		return section.slice().order(ORDER);
+	}
+}
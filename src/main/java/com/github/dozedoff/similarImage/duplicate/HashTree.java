@@ -0,0 +1,181 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.duplicate;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * BK-tree for 64 bit hashes with the hamming distance as metric, stored in primitive buffers. Nodes
+ * are identified by the index of their hash, the children of a node are a linked list through
+ * {@link #nextSibling}. The buffers are either built in memory or mapped from a
+ * {@link HashSnapshot}.
+ */
+public class HashTree {
+	private static final int NONE = -1;
+	/**
+	 * Nodes are added in a scattered order, adding sorted hashes would give a badly balanced tree.
+	 */
+	private static final int INSERT_STRIDE = 1000003;
+
+	private final LongBuffer hashes;
+	private final IntBuffer firstChild;
+	private final IntBuffer nextSibling;
+	private final ByteBuffer parentDistance;
+	private int root = NONE;
+
+	/**
+	 * Build a tree of the hashes.
+	 * 
+	 * @param hashes
+	 *            distinct hashes, the array is not copied
+	 * @param count
+	 *            number of hashes to use, from the start of the array
+	 */
+	public HashTree(long[] hashes, int count) {
+		int[] children = new int[count];
+		int[] siblings = new int[count];
+
+		Arrays.fill(children, NONE);
+		Arrays.fill(siblings, NONE);
+
+		this.hashes = LongBuffer.wrap(hashes);
+		this.firstChild = IntBuffer.wrap(children);
+		this.nextSibling = IntBuffer.wrap(siblings);
+		this.parentDistance = ByteBuffer.allocate(count);
+
+		int stride = count % INSERT_STRIDE == 0 ? 1 : INSERT_STRIDE;
+
+		for (long i = 0; i < count; i++) {
+			add((int) ((i * stride) % count));
+		}
+	}
+
+	/**
+	 * Use a tree that has already been built.
+	 */
+	HashTree(LongBuffer hashes, IntBuffer firstChild, IntBuffer nextSibling, ByteBuffer parentDistance, int root) {
+		this.hashes = hashes;
+		this.firstChild = firstChild;
+		this.nextSibling = nextSibling;
+		this.parentDistance = parentDistance;
+		this.root = root;
+	}
+
+	private void add(int node) {
+		if (root == NONE) {
+			root = node;
+			return;
+		}
+
+		int parent = root;
+
+		while (true) {
+			int distance = CompareHammingDistance.getHammingDistance(hashes.get(node), hashes.get(parent));
+			int child = findChild(parent, distance);
+
+			if (child == NONE) {
+				parentDistance.put(node, (byte) distance);
+				nextSibling.put(node, firstChild.get(parent));
+				firstChild.put(parent, node);
+				return;
+			}
+
+			parent = child;
+		}
+	}
+
+	private int findChild(int parent, int distance) {
+		for (int child = firstChild.get(parent); child != NONE; child = nextSibling.get(child)) {
+			if (parentDistance.get(child) == distance) {
+				return child;
+			}
+		}
+
+		return NONE;
+	}
+
+	/**
+	 * Find all hashes within the distance of the hash.
+	 * 
+	 * @param hash
+	 *            to search for
+	 * @param maxDistance
+	 *            largest hamming distance to include
+	 * @return the indices of the hashes that were found, in no particular order
+	 */
+	public int[] searchWithin(long hash, int maxDistance) {
+		if (root == NONE) {
+			return new int[0];
+		}
+
+		int[] found = new int[8];
+		int foundCount = 0;
+		int[] stack = new int[64];
+		int top = 0;
+
+		stack[top++] = root;
+
+		while (top > 0) {
+			int node = stack[--top];
+			int distance = CompareHammingDistance.getHammingDistance(hash, hashes.get(node));
+
+			if (distance <= maxDistance) {
+				if (foundCount == found.length) {
+					found = Arrays.copyOf(found, foundCount * 2);
+				}
+
+				found[foundCount++] = node;
+			}
+
+			for (int child = firstChild.get(node); child != NONE; child = nextSibling.get(child)) {
+				if (Math.abs(parentDistance.get(child) - distance) <= maxDistance) {
+					if (top == stack.length) {
+						stack = Arrays.copyOf(stack, top * 2);
+					}
+
+					stack[top++] = child;
+				}
+			}
+		}
+
+		return Arrays.copyOf(found, foundCount);
+	}
+
+	public int size() {
+		return firstChild.capacity();
+	}
+
+	int getRoot() {
+		return root;
+	}
+
+	IntBuffer getFirstChild() {
+		return firstChild;
+	}
+
+	IntBuffer getNextSibling() {
+		return nextSibling;
+	}
+
+	ByteBuffer getParentDistance() {
+		return parentDistance;
+	}
+}
@@ -18,6 +18,7 @@
 package com.github.dozedoff.similarImage.duplicate;
 
 import java.sql.SQLException;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -25,15 +26,16 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
-import org.everpeace.search.BKTree;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.github.dozedoff.similarImage.db.FilterRecord;
 import com.github.dozedoff.similarImage.db.ImageRecord;
 import com.github.dozedoff.similarImage.db.Persistence;
+import com.github.dozedoff.similarImage.db.RecordHashes;
 import com.j256.ormlite.dao.CloseableWrappedIterable;
 
 public class SortSimilar {
@@ -41,31 +43,94 @@ public class SortSimilar {
 	private final Persistence persistence;
 
 	HashMap<Long, Set<ImageRecord>> sorted = new HashMap<Long, Set<ImageRecord>>();
-	CompareHammingDistance compareHamming = new CompareHammingDistance();
+	/**
+	 * Groups found with {@link RecordHashes}, as sorted record ids. The records are loaded when the
+	 * group is requested.
+	 */
+	HashMap<Long, int[]> idGroups = new HashMap<Long, int[]>();
 	LinkedList<ImageRecord> ignoredImages = new LinkedList<ImageRecord>();
 
+	/**
+	 * Record ids as an array, compared by content.
+	 */
+	private static class IdGroup {
+		private final int[] ids;
+
+		public IdGroup(int[] ids) {
+			this.ids = ids;
+		}
+
+		@Override
+		public int hashCode() {
+			return Arrays.hashCode(ids);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof IdGroup && Arrays.equals(ids, ((IdGroup) obj).ids);
+		}
+	}
+
 	public SortSimilar(Persistence persistence) {
 		this.persistence = persistence;
 	}
 
-	public void sortHammingDistance(int hammingDistance, List<ImageRecord> dBrecords) {
+	/**
+	 * Group records by the distance of their hashes. For every distinct hash, the group holds all
+	 * records within the distance. Groups with a single record and groups identical to an earlier
+	 * one are not kept.
+	 * 
+	 * @param hammingDistance
+	 *            maximum distance to the hash of the group, 0 for exact matches
+	 * @param records
+	 *            to sort, the records are reordered and ignored images are removed
+	 */
+	public void sortHammingDistance(int hammingDistance, RecordHashes records) {
+		records.removeAll(getIgnoredIds());
+		sortHammingDistance(hammingDistance, Collections.singletonList(HashIndex.build(records)));
+	}
+
+	/**
+	 * Group records by the distance of their hashes, see {@link #sortHammingDistance(int, RecordHashes)}.
+	 */
+	public void sortHammingDistance(int hammingDistance, HashSnapshot snapshot) {
+		sortHammingDistance(hammingDistance, snapshot.getIndexes());
+	}
+
+	private void sortHammingDistance(int hammingDistance, List<HashIndex> indexes) {
 		clear();
-		dBrecords.removeAll(ignoredImages);
-		BKTree<ImageRecord> bkTree = BKTree.build(dBrecords, compareHamming);
+		Set<Integer> ignored = getIgnoredIds();
+		Set<IdGroup> found = new HashSet<IdGroup>();
 
-		for (ImageRecord ir : dBrecords) {
-			long pHash = ir.getpHash();
+		logger.info("Sorting {} records with a distance of {}", getRecordCount(indexes), hammingDistance);
 
-			if (sorted.containsKey(pHash)) {
-				return; // prevent duplicates
-			}
+		for (HashIndex index : indexes) {
+			for (int i = 0; i < index.getDistinctCount(); i++) {
+				long pHash = index.getHash(i);
+
+				if (idGroups.containsKey(pHash) || !index.hasRecords(i, ignored)) {
+					continue;
+				}
+
+				int[] ids = findIds(indexes, pHash, hammingDistance, ignored);
 
-			Set<ImageRecord> similar = bkTree.searchWithin(ir, (double) hammingDistance);
-			sorted.put(pHash, similar);
+				if (ids.length > 1 && found.add(new IdGroup(ids))) {
+					idGroups.put(pHash, ids);
+				}
+			}
 		}
 	}
 
-	public void sortFilter(int hammingDistance, String reason, List<ImageRecord> dBrecords, List<FilterRecord> filter) {
+	public void sortFilter(int hammingDistance, String reason, RecordHashes records, List<FilterRecord> filter) {
+		records.removeAll(getIgnoredIds());
+		sortFilter(hammingDistance, reason, Collections.singletonList(HashIndex.build(records)), filter);
+	}
+
+	public void sortFilter(int hammingDistance, String reason, HashSnapshot snapshot, List<FilterRecord> filter) {
+		sortFilter(hammingDistance, reason, snapshot.getIndexes(), filter);
+	}
+
+	private void sortFilter(int hammingDistance, String reason, List<HashIndex> indexes, List<FilterRecord> filter) {
 		clear();
 		String logReason = reason;
 
@@ -73,7 +138,7 @@ public class SortSimilar {
 			logReason = "*";
 		}
 
-		Object[] logData = { dBrecords.size(), filter.size(), logReason, hammingDistance };
+		Object[] logData = { getRecordCount(indexes), filter.size(), logReason, hammingDistance };
 		logger.info("Matching {} image records against {} filter records (reason: {}), with a distance of {}", logData);
 
 		if (hammingDistance == 0) {
@@ -81,21 +146,65 @@ public class SortSimilar {
 			return;
 		}
 
-		dBrecords.removeAll(ignoredImages);
-		BKTree<ImageRecord> bkTree = BKTree.build(dBrecords, compareHamming);
+		Set<Integer> ignored = getIgnoredIds();
 
 		for (FilterRecord fr : filter) {
 			long pHash = fr.getpHash();
 
-			if (sorted.containsKey(pHash)) {
+			if (idGroups.containsKey(pHash)) {
 				continue; // prevent duplicates
 			}
 
-			ImageRecord query = new ImageRecord(null, pHash);
+			int[] ids = findIds(indexes, pHash, hammingDistance, ignored);
+
+			if (ids.length > 0) {
+				idGroups.put(pHash, ids);
+			}
+		}
+	}
+
+	/**
+	 * @return the sorted ids of the records within the distance, from all indexes
+	 */
+	private int[] findIds(List<HashIndex> indexes, long pHash, int hammingDistance, Set<Integer> ignored) {
+		int[] ids = new int[0];
+
+		for (HashIndex index : indexes) {
+			int[] found = index.findIds(pHash, hammingDistance, ignored);
+
+			if (ids.length == 0) {
+				ids = found;
+			} else if (found.length > 0) {
+				int length = ids.length;
+				ids = Arrays.copyOf(ids, length + found.length);
+				System.arraycopy(found, 0, ids, length, found.length);
+			}
+		}
+
+		Arrays.sort(ids);
+		return ids;
+	}
+
+	private int getRecordCount(List<HashIndex> indexes) {
+		int count = 0;
+
+		for (HashIndex index : indexes) {
+			count += index.getRecordCount();
+		}
+
+		return count;
+	}
+
+	private Set<Integer> getIgnoredIds() {
+		Set<Integer> ids = new HashSet<Integer>();
 
-			Set<ImageRecord> similar = bkTree.searchWithin(query, (double) hammingDistance);
-			sorted.put(pHash, similar);
+		for (ImageRecord ignored : ignoredImages) {
+			if (ignored.getId() != 0) {
+				ids.add(ignored.getId());
+			}
 		}
+
+		return ids;
 	}
 
 	private void sortFilterExact(int hammingDistance, String reason) {
@@ -117,8 +226,34 @@ public class SortSimilar {
 		}
 	}
 
+	/**
+	 * Get the records of a group. Records of groups found by id are loaded from the database.
+	 * 
+	 * @param pHash
+	 *            of the group
+	 * @return the records, or null if there is no such group
+	 */
 	public Set<ImageRecord> getGroup(long pHash) {
-		return sorted.get(pHash);
+		Set<ImageRecord> group = sorted.get(pHash);
+		int[] ids = idGroups.get(pHash);
+
+		if (group != null || ids == null) {
+			return group;
+		}
+
+		group = new HashSet<ImageRecord>();
+
+		try {
+			for (ImageRecord record : persistence.getRecords(ids)) {
+				if (!ignoredImages.contains(record)) {
+					group.add(record);
+				}
+			}
+		} catch (SQLException e) {
+			logger.warn("Failed to load records of group {} - {}", pHash, e.getMessage());
+		}
+
+		return group;
 	}
 
 	public void sortExactMatch(CloseableWrappedIterable<ImageRecord> records) {
@@ -145,6 +280,37 @@ public class SortSimilar {
 		}
 	}
 
+	/**
+	 * Group byte-identical files by their content digest, the pHash is not used. Records without a
+	 * digest are skipped. Groups are keyed by the digest.
+	 * 
+	 * @param records
+	 *            to sort, closed when done
+	 */
+	public void sortIdenticalFiles(CloseableWrappedIterable<ImageRecord> records) {
+		try {
+			for (ImageRecord ir : records) {
+				long key = ir.getContentHash();
+
+				if (key == 0 || ignoredImages.contains(ir)) {
+					continue;
+				}
+
+				if (sorted.containsKey(key)) {
+					addToBucket(key, ir);
+				} else {
+					createBucket(key, ir);
+				}
+			}
+		} finally {
+			try {
+				records.close();
+			} catch (SQLException e) {
+				logger.warn("Failed to close ImageRecord iterator", e);
+			}
+		}
+	}
+
 	public int getNumberOfDuplicateGroups() {
 		Collection<Set<ImageRecord>> buckets = sorted.values();
 		int duplicateGroups = 0;
@@ -155,6 +321,12 @@ public class SortSimilar {
 			}
 		}
 
+		for (int[] ids : idGroups.values()) {
+			if (ids.length > 1) {
+				duplicateGroups++;
+			}
+		}
+
 		return duplicateGroups;
 	}
 
@@ -172,6 +344,14 @@ public class SortSimilar {
 
 		Collections.sort(duplicateGroups);
 		removeIdenticalSets(duplicateGroups);
+
+		for (Map.Entry<Long, int[]> group : idGroups.entrySet()) {
+			if (group.getValue().length > 1) {
+				duplicateGroups.add(group.getKey());
+			}
+		}
+
+		Collections.sort(duplicateGroups);
 		return duplicateGroups;
 	}
 
@@ -193,16 +373,17 @@ public class SortSimilar {
 	}
 
 	public int getNumberOfGroups() {
-		return sorted.size();
+		return sorted.size() + idGroups.size();
 	}
 
 	public boolean isEmpty() {
-		return sorted.isEmpty();
+		return sorted.isEmpty() && idGroups.isEmpty();
 	}
 
 	public void clear() {
 		sorted.clear();
 		sorted = new HashMap<Long, Set<ImageRecord>>();
+		idGroups = new HashMap<Long, int[]>();
 	}
 
 	public void ignore(ImageRecord toIgnore) {
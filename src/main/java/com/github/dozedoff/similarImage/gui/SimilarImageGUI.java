@@ -27,6 +27,7 @@ import java.util.List;
 
 import javax.swing.DefaultListModel;
 import javax.swing.JButton;
+import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JDialog;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
@@ -45,6 +46,8 @@ import javax.swing.event.ListSelectionListener;
 
 import net.miginfocom.swing.MigLayout;
 
+import com.github.dozedoff.similarImage.app.ProgressListener;
+import com.github.dozedoff.similarImage.app.ProgressSnapshot;
 import com.github.dozedoff.similarImage.app.SimilarImage;
 import com.github.dozedoff.similarImage.db.Persistence;
 import com.github.dozedoff.similarImage.duplicate.DuplicateOperations;
@@ -89,10 +92,13 @@ public class SimilarImageGUI extends JFrame {
 		find = new JButton("Find");
 		stop = new JButton("Stop");
 		status = new JLabel("Idle");
-		progress = parent.getTotalProgress();
+		progress = new JProgressBar(0, 0);
+		progress.setStringPainted(true);
 		sortSimilar = new JButton("Sort similar");
 		sortFilter = new JButton("Sort filter");
-		bufferLevel = parent.getBufferLevel();
+		bufferLevel = new JProgressBar(0, 0);
+		bufferLevel.setStringPainted(true);
+		parent.addProgressListener(new ProgressBarUpdater());
 
 		groupListModel = new DefaultListModel<Long>();
 		groups = new JList<Long>(groupListModel);
@@ -181,13 +187,17 @@ public class SimilarImageGUI extends JFrame {
 	private void setupMenu() {
 		JMenuBar menuBar = new JMenuBar();
 		JMenu file;
-		JMenuItem folderDnw, folderBlock, pruneRecords;
+		JMenuItem folderDnw, folderBlock, pruneRecords, identicalFiles;
+		final JCheckBoxMenuItem incremental, watch;
 
 		file = new JMenu("File");
 
 		folderDnw = new JMenuItem("Add folder as dnw");
 		folderBlock = new JMenuItem("Add folder as block");
 		pruneRecords = new JMenuItem("Prune records");
+		identicalFiles = new JMenuItem("Find identical files");
+		incremental = new JCheckBoxMenuItem("Re-hash changed images", parent.isIncrementalIndexing());
+		watch = new JCheckBoxMenuItem("Watch folder for changes", parent.isWatching());
 
 		final DuplicateOperations duplicateOperations = new DuplicateOperations(persistence);
 
@@ -230,9 +240,38 @@ public class SimilarImageGUI extends JFrame {
 			}
 		});
 
+		identicalFiles.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent arg0) {
+				parent.sortIdenticalFiles();
+			}
+		});
+
+		incremental.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent arg0) {
+				parent.setIncrementalIndexing(incremental.isSelected());
+			}
+		});
+
+		watch.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent arg0) {
+				if (watch.isSelected()) {
+					parent.startWatching(path.getText());
+				} else {
+					parent.stopWatching();
+				}
+			}
+		});
+
 		file.add(folderDnw);
 		file.add(folderBlock);
 		file.add(pruneRecords);
+		file.add(identicalFiles);
+		file.addSeparator();
+		file.add(incremental);
+		file.add(watch);
 
 		menuBar.add(file);
 		this.setJMenuBar(menuBar);
@@ -250,6 +289,24 @@ public class SimilarImageGUI extends JFrame {
 		SwingUtilities.invokeLater(new GroupListPopulator(groups));
 	}
 
+	/**
+	 * Updates the progress bars on the event dispatch thread.
+	 */
+	class ProgressBarUpdater implements ProgressListener {
+		@Override
+		public void progressChanged(final ProgressSnapshot snapshot) {
+			SwingUtilities.invokeLater(new Runnable() {
+				@Override
+				public void run() {
+					progress.setMaximum(snapshot.getTotal());
+					progress.setValue(snapshot.getProcessed());
+					bufferLevel.setMaximum(snapshot.getQueueCapacity());
+					bufferLevel.setValue(snapshot.getQueued());
+				}
+			});
+		}
+	}
+
 	class GroupListPopulator implements Runnable {
 		private List<Long> groups;
 
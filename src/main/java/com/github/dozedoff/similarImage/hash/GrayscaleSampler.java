@@ -0,0 +1,271 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.hash;
+
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * Reduces an image to a size x size grayscale image in a single pass. Pixels are picked with nearest
+ * neighbour sampling, the same way {@link java.awt.Graphics2D#drawImage} scales, and converted to gray
+ * using the luminance of the sRGB profile.<br>
+ * Packed int and interleaved byte sRGB rasters, as well as 8 bit gray rasters, are read directly from
+ * the {@link DataBuffer}, other image types go through the {@link ColorModel}.
+ * 
+ * Instances keep a scratch buffer and are not thread safe.
+ */
+public class GrayscaleSampler {
+	private static final double RED_WEIGHT = 0.2225;
+	private static final double GREEN_WEIGHT = 0.7169;
+	private static final double BLUE_WEIGHT = 0.0606;
+
+	private static final double[] linear = createLinearTable();
+	private static final double[] grayThresholds = createGrayThresholds();
+
+	private final int size;
+	private final int[] sampleX;
+	private final int[] sampleY;
+	private Object dataElements;
+
+	public GrayscaleSampler(int size) {
+		this.size = size;
+		this.sampleX = new int[size];
+		this.sampleY = new int[size];
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Sample the image into a grayscale array.
+	 * 
+	 * @param img
+	 *            image to sample
+	 * @param gray
+	 *            array of size * size values, the value for (x,y) is stored at x * size + y
+	 */
+	public void sample(BufferedImage img, byte[] gray) {
+		int width = img.getWidth();
+		int height = img.getHeight();
+
+		for (int i = 0; i < size; i++) {
+			sampleX[i] = (int) (((long) (2 * i + 1) * width) / (2 * size));
+			sampleY[i] = (int) (((long) (2 * i + 1) * height) / (2 * size));
+		}
+
+		WritableRaster raster = img.getRaster();
+		ColorModel cm = img.getColorModel();
+		SampleModel sm = raster.getSampleModel();
+		DataBuffer db = raster.getDataBuffer();
+		boolean directSRGB = cm.getColorSpace().isCS_sRGB() && !cm.isAlphaPremultiplied() && db.getNumBanks() == 1;
+
+		if (directSRGB && db instanceof DataBufferInt && sm instanceof SinglePixelPackedSampleModel && is8BitRGB(sm)) {
+			samplePacked(raster, (DataBufferInt) db, (SinglePixelPackedSampleModel) sm, gray);
+		} else if (directSRGB && db instanceof DataBufferByte && sm instanceof ComponentSampleModel && is8BitRGB(sm)) {
+			sampleInterleaved(raster, (DataBufferByte) db, (ComponentSampleModel) sm, gray);
+		} else if (db instanceof DataBufferByte && sm instanceof ComponentSampleModel && is8BitGray(cm, sm)) {
+			sampleGray(raster, (DataBufferByte) db, (ComponentSampleModel) sm, gray);
+		} else {
+			sampleColorModel(raster, cm, gray);
+		}
+	}
+
+	private boolean is8BitRGB(SampleModel sm) {
+		if (sm.getNumBands() < 3) {
+			return false;
+		}
+
+		for (int band = 0; band < 3; band++) {
+			if (sm.getSampleSize(band) != 8) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private boolean is8BitGray(ColorModel cm, SampleModel sm) {
+		return cm.getColorSpace().getType() == ColorSpace.TYPE_GRAY && sm.getNumBands() == 1 && sm.getSampleSize(0) == 8;
+	}
+
+	private void samplePacked(WritableRaster raster, DataBufferInt db, SinglePixelPackedSampleModel sm, byte[] gray) {
+		int[] data = db.getData();
+		int[] masks = sm.getBitMasks();
+		int[] shifts = sm.getBitOffsets();
+		int scanline = sm.getScanlineStride();
+		int offset = db.getOffset();
+		int tx = raster.getSampleModelTranslateX();
+		int ty = raster.getSampleModelTranslateY();
+
+		for (int x = 0; x < size; x++) {
+			int column = offset + (sampleX[x] - tx);
+
+			for (int y = 0; y < size; y++) {
+				int pixel = data[column + (sampleY[y] - ty) * scanline];
+				int r = (pixel & masks[0]) >>> shifts[0];
+				int g = (pixel & masks[1]) >>> shifts[1];
+				int b = (pixel & masks[2]) >>> shifts[2];
+				gray[x * size + y] = (byte) toGray(r, g, b);
+			}
+		}
+	}
+
+	private void sampleInterleaved(WritableRaster raster, DataBufferByte db, ComponentSampleModel sm, byte[] gray) {
+		byte[] data = db.getData();
+		int[] bandOffsets = sm.getBandOffsets();
+		int pixelStride = sm.getPixelStride();
+		int scanline = sm.getScanlineStride();
+		int offset = db.getOffset();
+		int tx = raster.getSampleModelTranslateX();
+		int ty = raster.getSampleModelTranslateY();
+
+		for (int x = 0; x < size; x++) {
+			int column = offset + (sampleX[x] - tx) * pixelStride;
+
+			for (int y = 0; y < size; y++) {
+				int pixel = column + (sampleY[y] - ty) * scanline;
+				int r = data[pixel + bandOffsets[0]] & 0xff;
+				int g = data[pixel + bandOffsets[1]] & 0xff;
+				int b = data[pixel + bandOffsets[2]] & 0xff;
+				gray[x * size + y] = (byte) toGray(r, g, b);
+			}
+		}
+	}
+
+	/**
+	 * Gray values are used as they are, drawing a gray image into a RGB image does not convert the
+	 * color space either.
+	 */
+	private void sampleGray(WritableRaster raster, DataBufferByte db, ComponentSampleModel sm, byte[] gray) {
+		byte[] data = db.getData();
+		int bandOffset = sm.getBandOffsets()[0];
+		int pixelStride = sm.getPixelStride();
+		int scanline = sm.getScanlineStride();
+		int offset = db.getOffset() + bandOffset;
+		int tx = raster.getSampleModelTranslateX();
+		int ty = raster.getSampleModelTranslateY();
+
+		for (int x = 0; x < size; x++) {
+			int column = offset + (sampleX[x] - tx) * pixelStride;
+
+			for (int y = 0; y < size; y++) {
+				gray[x * size + y] = data[column + (sampleY[y] - ty) * scanline];
+			}
+		}
+	}
+
+	private void sampleColorModel(WritableRaster raster, ColorModel cm, byte[] gray) {
+		if (!isReusable(raster)) {
+			dataElements = null;
+		}
+
+		for (int x = 0; x < size; x++) {
+			for (int y = 0; y < size; y++) {
+				dataElements = raster.getDataElements(sampleX[x], sampleY[y], dataElements);
+				int rgb = cm.getRGB(dataElements);
+				gray[x * size + y] = (byte) toGray((rgb >> 16) & 0xff, (rgb >> 8) & 0xff, rgb & 0xff);
+			}
+		}
+	}
+
+	private boolean isReusable(WritableRaster raster) {
+		if (dataElements == null) {
+			return false;
+		}
+
+		int elements = raster.getNumDataElements();
+
+		switch (raster.getTransferType()) {
+		case DataBuffer.TYPE_BYTE:
+			return dataElements instanceof byte[] && ((byte[]) dataElements).length == elements;
+		case DataBuffer.TYPE_USHORT:
+		case DataBuffer.TYPE_SHORT:
+			return dataElements instanceof short[] && ((short[]) dataElements).length == elements;
+		case DataBuffer.TYPE_INT:
+			return dataElements instanceof int[] && ((int[]) dataElements).length == elements;
+		case DataBuffer.TYPE_FLOAT:
+			return dataElements instanceof float[] && ((float[]) dataElements).length == elements;
+		case DataBuffer.TYPE_DOUBLE:
+			return dataElements instanceof double[] && ((double[]) dataElements).length == elements;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Convert a sRGB color to a sRGB gray value.
+	 */
+	static int toGray(int r, int g, int b) {
+		double luminance = RED_WEIGHT * linear[r] + GREEN_WEIGHT * linear[g] + BLUE_WEIGHT * linear[b];
+
+		int low = 0;
+		int high = grayThresholds.length;
+
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+
+			if (luminance < grayThresholds[mid]) {
+				high = mid;
+			} else {
+				low = mid + 1;
+			}
+		}
+
+		return low;
+	}
+
+	private static double[] createLinearTable() {
+		double[] table = new double[256];
+
+		for (int i = 0; i < table.length; i++) {
+			table[i] = toLinear(i / 255.0);
+		}
+
+		return table;
+	}
+
+	/**
+	 * Linear luminance at which the encoded gray value rounds up to the next level.
+	 */
+	private static double[] createGrayThresholds() {
+		double[] thresholds = new double[255];
+
+		for (int i = 0; i < thresholds.length; i++) {
+			thresholds[i] = toLinear((i + 0.5) / 255.0);
+		}
+
+		return thresholds;
+	}
+
+	private static double toLinear(double value) {
+		if (value <= 0.04045) {
+			return value / 12.92;
+		} else {
+			return Math.pow((value + 0.055) / 1.055, 2.4);
+		}
+	}
+}
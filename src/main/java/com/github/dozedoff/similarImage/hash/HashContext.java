@@ -0,0 +1,147 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.hash;
+
+import java.awt.Graphics2D;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorConvertOp;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/**
+ * Reusable hashing state for a single worker. Scratch buffers are allocated once and reused for
+ * every image. Images are resized and color converted the same way as in {@link ImagePHash}, so the
+ * hashes are identical and can be compared with the hashes already in the database.<br>
+ * Images that were already reduced with a {@link GrayscaleSampler} can be hashed as well. Those
+ * hashes can differ from {@link ImagePHash} by a few bits, so that path is only used when reducing in
+ * the loader has been enabled.
+ * 
+ * Not thread safe, use one context per thread.
+ */
+public class HashContext {
+	private final int size;
+	private final int smallerSize;
+
+	private final PartialDCT dct;
+	private final BufferedImage resized;
+	private final int[] resizedPixels;
+	private final ColorConvertOp colorConvert = new ColorConvertOp(ColorSpace.getInstance(ColorSpace.CS_GRAY), null);
+	private final double[][] values;
+	private final double[][] dctValues;
+
+	public HashContext(int size, int smallerSize) {
+		if (smallerSize > 9) {
+			throw new IllegalArgumentException("The selected smallerSize value is to big for the long datatype");
+		}
+
+		this.size = size;
+		this.smallerSize = smallerSize;
+
+		dct = new PartialDCT(size, smallerSize);
+		resized = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+		resizedPixels = ((DataBufferInt) resized.getRaster().getDataBuffer()).getData();
+		values = new double[size][size];
+		dctValues = new double[smallerSize][smallerSize];
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Hash the image, the result is the same as {@link ImagePHash#getLongHash(BufferedImage)}.
+	 */
+	public long getLongHash(BufferedImage img) {
+		// start from a transparent image, like the new image ImagePHash draws into
+		Arrays.fill(resizedPixels, 0);
+		Graphics2D g = resized.createGraphics();
+		g.drawImage(img, 0, 0, size, size, null);
+		g.dispose();
+
+		colorConvert.filter(resized, resized);
+
+		for (int x = 0; x < size; x++) {
+			double[] column = values[x];
+
+			for (int y = 0; y < size; y++) {
+				column[y] = resizedPixels[y * size + x] & 0xff;
+			}
+		}
+
+		return hashValues();
+	}
+
+	/**
+	 * Hash an image that has already been reduced.
+	 * 
+	 * @param reduced
+	 *            size * size grayscale values as produced by {@link GrayscaleSampler}
+	 * @return hash as long
+	 */
+	public long getLongHash(byte[] reduced) {
+		if (reduced.length != size * size) {
+			throw new IllegalArgumentException("Expected " + size * size + " values, got " + reduced.length);
+		}
+
+		for (int x = 0; x < size; x++) {
+			double[] column = values[x];
+
+			for (int y = 0; y < size; y++) {
+				column[y] = reduced[x * size + y] & 0xff;
+			}
+		}
+
+		return hashValues();
+	}
+
+	private long hashValues() {
+		dct.transform(values, dctValues);
+		double avg = calcDctAverage();
+		return convertToLong(avg);
+	}
+
+	private double calcDctAverage() {
+		double total = 0;
+
+		for (int x = 0; x < smallerSize; x++) {
+			for (int y = 0; y < smallerSize; y++) {
+				total += dctValues[x][y];
+			}
+		}
+
+		total -= dctValues[0][0];
+
+		return total / (double) ((smallerSize * smallerSize) - 1);
+	}
+
+	private long convertToLong(double avg) {
+		long hash = 0;
+
+		for (int x = 0; x < smallerSize; x++) {
+			for (int y = 0; y < smallerSize; y++) {
+				if (x != 0 && y != 0) {
+					hash += (dctValues[x][y] > avg ? 1 : 0);
+					hash = Long.rotateLeft(hash, 1);
+				}
+			}
+		}
+
+		return hash;
+	}
+}
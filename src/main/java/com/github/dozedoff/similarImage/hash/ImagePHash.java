@@ -24,8 +24,10 @@ public class ImagePHash {
 	private int size = 32;
 	private int smallerSize = 8;
 
+	private final PartialDCT dct;
+
 	public ImagePHash() {
-		initCoefficients();
+		dct = new PartialDCT(size, smallerSize);
 		ImageIO.setUseCache(false);
 	}
 
@@ -33,7 +35,7 @@ public class ImagePHash {
 		this.size = size;
 		this.smallerSize = smallerSize;
 
-		initCoefficients();
+		dct = new PartialDCT(size, smallerSize);
 		ImageIO.setUseCache(false);
 	}
 
@@ -101,11 +103,27 @@ public class ImagePHash {
 		return values;
 	}
 
+	/**
+	 * Calculate the low frequency DCT coefficients for an image.
+	 * 
+	 * @param is
+	 *            file to hash
+	 * @return the top-left smallerSize x smallerSize block of the DCT
+	 * @throws IOException
+	 */
 	public double[][] calculateDctMap(InputStream is) throws IOException {
 		BufferedImage img = readImage(is);
 		return calculateDctMap(img);
 	}
 
+	/**
+	 * Calculate the low frequency DCT coefficients for an image.
+	 * 
+	 * @param img
+	 *            image to hash
+	 * @return the top-left smallerSize x smallerSize block of the DCT
+	 * @throws IOException
+	 */
 	public double[][] calculateDctMap(BufferedImage img) throws IOException {
 
 		/*
@@ -127,12 +145,10 @@ public class ImagePHash {
 		/*
 		 * 3. Compute the DCT. The DCT separates the image into a collection of
 		 * frequencies and scalars. While JPEG uses an 8x8 DCT, this algorithm
-		 * uses a 32x32 DCT.
+		 * uses a 32x32 DCT. Only the low frequencies used by the later steps are
+		 * calculated.
 		 */
-		// long start = System.currentTimeMillis();
-		double[][] dctVals = applyDCT(vals);
-		// System.out.println("DCT: " + (System.currentTimeMillis() - start));
-		// // Removed to prevent system.out spam
+		double[][] dctVals = dct.transform(vals);
 
 		return dctVals;
 	}
@@ -221,39 +237,4 @@ public class ImagePHash {
 	private static int getBlue(BufferedImage img, int x, int y) {
 		return (img.getRGB(x, y)) & 0xff;
 	}
-
-	// DCT function stolen from
-	// http://stackoverflow.com/questions/4240490/problems-with-dct-and-idct-algorithm-in-java
-
-	private double[] c;
-
-	private void initCoefficients() {
-		c = new double[size];
-
-		for (int i = 1; i < size; i++) {
-			c[i] = 1;
-		}
-
-		c[0] = 1 / Math.sqrt(2.0);
-	}
-
-	private double[][] applyDCT(double[][] f) {
-		int N = size;
-
-		double[][] F = new double[N][N];
-		for (int u = 0; u < N; u++) {
-			for (int v = 0; v < N; v++) {
-				double sum = 0.0;
-				for (int i = 0; i < N; i++) {
-					for (int j = 0; j < N; j++) {
-						sum += Math.cos(((2 * i + 1) / (2.0 * N)) * u * Math.PI) * Math.cos(((2 * j + 1) / (2.0 * N)) * v * Math.PI)
-								* (f[i][j]);
-					}
-				}
-				sum *= ((c[u] * c[v]) / 4.0);
-				F[u][v] = sum;
-			}
-		}
-		return F;
-	}
 }
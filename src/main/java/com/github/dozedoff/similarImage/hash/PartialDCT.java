@@ -0,0 +1,140 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.hash;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Two dimensional DCT-II using cached cosine tables. Only the top-left smallerSize x smallerSize
+ * block of coefficients is calculated, as that is all the hash uses. Each coefficient is summed in
+ * the same order and with the same products as the original four-deep loop in {@link ImagePHash},
+ * so the results are bit-identical. Cosine tables are shared between instances of the same size.
+ */
+public class PartialDCT {
+	private static final ConcurrentHashMap<Integer, double[][]> cosineTables = new ConcurrentHashMap<Integer, double[][]>();
+
+	private final int size;
+	private final int smallerSize;
+	private final double[][] cos;
+	private final double[] c;
+
+	public PartialDCT(int size, int smallerSize) {
+		if (smallerSize > size) {
+			throw new IllegalArgumentException("smallerSize must not be larger than size");
+		}
+
+		this.size = size;
+		this.smallerSize = smallerSize;
+		this.cos = getCosineTable(size);
+		this.c = initCoefficients(size);
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public int getSmallerSize() {
+		return smallerSize;
+	}
+
+	/**
+	 * Calculate the low frequency DCT coefficients.
+	 *
+	 * @param f
+	 *            size x size input values
+	 * @return smallerSize x smallerSize coefficients
+	 */
+	public double[][] transform(double[][] f) {
+		double[][] result = new double[smallerSize][smallerSize];
+		transform(f, result);
+		return result;
+	}
+
+	/**
+	 * Calculate the low frequency DCT coefficients into an existing array.
+	 *
+	 * @param f
+	 *            size x size input values
+	 * @param result
+	 *            array with at least smallerSize x smallerSize elements
+	 */
+	public void transform(double[][] f, double[][] result) {
+		for (int u = 0; u < smallerSize; u++) {
+			double[] cosU = cos[u];
+
+			for (int v = 0; v < smallerSize; v++) {
+				double[] cosV = cos[v];
+				double sum = 0.0;
+
+				for (int i = 0; i < size; i++) {
+					double cu = cosU[i];
+					double[] in = f[i];
+
+					for (int j = 0; j < size; j++) {
+						sum += cu * cosV[j] * in[j];
+					}
+				}
+
+				sum *= ((c[u] * c[v]) / 4.0);
+				result[u][v] = sum;
+			}
+		}
+	}
+
+	private static double[] initCoefficients(int size) {
+		double[] c = new double[size];
+
+		for (int i = 1; i < size; i++) {
+			c[i] = 1;
+		}
+
+		c[0] = 1 / Math.sqrt(2.0);
+		return c;
+	}
+
+	private static double[][] getCosineTable(int size) {
+		double[][] table = cosineTables.get(size);
+
+		if (table == null) {
+			table = createCosineTable(size);
+			double[][] existing = cosineTables.putIfAbsent(size, table);
+
+			if (existing != null) {
+				table = existing;
+			}
+		}
+
+		return table;
+	}
+
+	/**
+	 * table[u][i] = cos(((2i + 1) / 2N) * u * PI)
+	 */
+	private static double[][] createCosineTable(int size) {
+		int N = size;
+		double[][] table = new double[N][N];
+
+		for (int u = 0; u < N; u++) {
+			for (int i = 0; i < N; i++) {
+				table[u][i] = Math.cos(((2 * i + 1) / (2.0 * N)) * u * Math.PI);
+			}
+		}
+
+		return table;
+	}
+}
@@ -17,37 +17,35 @@
  */
 package com.github.dozedoff.similarImage.hash;
 
-import java.awt.image.BufferedImage;
-import java.io.IOException;
 import java.nio.file.Path;
-import java.sql.SQLException;
 import java.util.LinkedList;
 
-import javax.imageio.IIOException;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.github.dozedoff.commonj.util.Pair;
 import com.github.dozedoff.similarImage.db.DBWriter;
 import com.github.dozedoff.similarImage.db.ImageRecord;
 import com.github.dozedoff.similarImage.io.ImageProducer;
+import com.github.dozedoff.similarImage.io.ImageWork;
 
-public class PhashWorker extends Thread {
+/**
+ * Hashes images from the producer until it runs out of work or the worker is stopped. Intended to be
+ * run on an executor, several workers can share the same producer.
+ */
+public class PhashWorker implements Runnable {
 	private final static Logger logger = LoggerFactory.getLogger(PhashWorker.class);
-	private static int workerNumber = 0;
-	private int localWorkerNumber;
 	private final int MAX_WORK_BATCH_SIZE = 20;
 
+	public static final int HASH_SIZE = 32;
+	public static final int HASH_SMALLER_SIZE = 9;
+
 	private final ImageProducer producer;
 	private final DBWriter dbWriter;
+	private volatile boolean stopped = false;
 
 	public PhashWorker(ImageProducer producer, DBWriter dbWriter) {
 		this.producer = producer;
 		this.dbWriter = dbWriter;
-		localWorkerNumber = workerNumber;
-		workerNumber++;
-		this.setName("pHash worker " + localWorkerNumber);
 	}
 
 	@Override
@@ -55,17 +53,25 @@ public class PhashWorker extends Thread {
 		calculateHashes();
 	}
 
+	/**
+	 * The worker finishes the current batch and exits.
+	 */
 	public void stopWorker() {
-		interrupt();
+		stopped = true;
+	}
+
+	private boolean isStopped() {
+		return stopped || Thread.currentThread().isInterrupted();
 	}
 
 	private void calculateHashes() {
-		logger.info("{} started", this.getName());
-		ImagePHash phash = new ImagePHash(32, 9);
-		LinkedList<Pair<Path, BufferedImage>> work = new LinkedList<Pair<Path, BufferedImage>>();
+		String name = Thread.currentThread().getName();
+		logger.info("{} started", name);
+		HashContext hashContext = new HashContext(HASH_SIZE, HASH_SMALLER_SIZE);
+		LinkedList<ImageWork> work = new LinkedList<ImageWork>();
 		LinkedList<ImageRecord> newRecords = new LinkedList<ImageRecord>();
 
-		while (!isInterrupted()) {
+		while (!isStopped()) {
 			try {
 				if (!producer.hasWork()) {
 					break;
@@ -73,39 +79,46 @@ public class PhashWorker extends Thread {
 
 				producer.drainTo(work, MAX_WORK_BATCH_SIZE);
 			} catch (InterruptedException e1) {
-				interrupt();
+				Thread.currentThread().interrupt();
 			}
 
-			for (Pair<Path, BufferedImage> pair : work) {
-				if (isInterrupted()) {
+			for (ImageWork image : work) {
+				if (isStopped()) {
 					break;
 				}
 
-				Path path = pair.getLeft();
+				Path path = image.getPath();
 
 				try {
-					BufferedImage img = pair.getRight();
-					long hash = phash.getLongHash(img);
-
-					ImageRecord record = new ImageRecord(path.toString(), hash);
+					long hash;
+
+					if (image.isHashed()) {
+						hash = image.getpHash();
+					} else if (image.isReduced()) {
+						hash = hashContext.getLongHash(image.getReduced());
+					} else {
+						hash = hashContext.getLongHash(image.getImage());
+					}
+
+					ImageRecord record = new ImageRecord(path.toString(), hash, image.getFileSize(), image.getLastModified(),
+							image.getContentHash());
 					newRecords.add(record);
-				} catch (IIOException iioe) {
-					logger.warn("Unable to process image {} - {}", path, iioe.getMessage());
-				} catch (IOException e) {
-					logger.warn("Could not load file {} - {}", path, e.getMessage());
-				} catch (SQLException e) {
-					logger.warn("Database operation failed", e);
 				} catch (Exception e) {
 					logger.warn("Failed to hash image {} - {}", path, e.getMessage());
+					producer.markBadFile(path, e.toString());
 				}
 			}
 
 			dbWriter.add(newRecords);
 			newRecords = new LinkedList<ImageRecord>();
 
+			for (ImageWork image : work) {
+				producer.release(image);
+			}
+
 			work.clear();
 		}
 
-		logger.info("{} terminated", this.getName());
+		logger.info("{} terminated", name);
 	}
 }
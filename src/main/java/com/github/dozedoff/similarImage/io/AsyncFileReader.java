@@ -0,0 +1,236 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.io;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Reads whole files into pooled buffers with {@link AsynchronousFileChannel}, so many reads can be in
+ * flight at once. This hides the latency of slow storage, such as network shares. The number of
+ * reads in flight is limited by permits, a read holds its permit until it has completed or was
+ * closed.
+ */
+public class AsyncFileReader {
+	private final BufferPool pool;
+	private final Semaphore permits;
+	private final int maxInFlight;
+
+	/**
+	 * @param pool
+	 *            to take read buffers from
+	 * @param maxInFlight
+	 *            maximum number of reads in flight
+	 */
+	public AsyncFileReader(BufferPool pool, int maxInFlight) {
+		if (maxInFlight < 1) {
+			throw new IllegalArgumentException("At least one read must be allowed in flight");
+		}
+
+		this.pool = pool;
+		this.maxInFlight = maxInFlight;
+		this.permits = new Semaphore(maxInFlight);
+	}
+
+	public BufferPool getPool() {
+		return pool;
+	}
+
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+
+	public int getInFlight() {
+		return maxInFlight - permits.availablePermits();
+	}
+
+	/**
+	 * Start reading a file, waiting for a permit if needed. Callers that hold unfinished reads should
+	 * use {@link #tryRead(Path, long)} instead, or they may wait for a permit they hold themselves.
+	 * 
+	 * @param path
+	 *            of the file to read
+	 * @param size
+	 *            of the file in bytes
+	 * @return the read in progress
+	 * @throws IOException
+	 *             if the file cannot be opened or is too large
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for a permit
+	 */
+	public PendingRead read(Path path, long size) throws IOException, InterruptedException {
+		checkSize(path, size);
+		permits.acquire();
+		return start(path, size);
+	}
+
+	/**
+	 * Start reading a file if a permit is available.
+	 * 
+	 * @return the read in progress, or null if too many reads are in flight
+	 * @throws IOException
+	 *             if the file cannot be opened or is too large
+	 */
+	public PendingRead tryRead(Path path, long size) throws IOException {
+		checkSize(path, size);
+
+		if (!permits.tryAcquire()) {
+			return null;
+		}
+
+		return start(path, size);
+	}
+
+	private void checkSize(Path path, long size) throws IOException {
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("File " + path + " is too large to load (" + size + " bytes)");
+		}
+	}
+
+	private PendingRead start(Path path, long size) throws IOException {
+		AsynchronousFileChannel channel;
+
+		try {
+			channel = AsynchronousFileChannel.open(path, StandardOpenOption.READ);
+		} catch (IOException e) {
+			permits.release();
+			throw e;
+		} catch (RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+
+		PendingRead read = new PendingRead(path, channel, pool.acquire((int) size));
+		read.next();
+		return read;
+	}
+
+	/**
+	 * A file being read. {@link #close()} must be called once the read is no longer needed, and the
+	 * buffer returned with {@link #release()} or {@link #discard()}.
+	 */
+	public class PendingRead implements Closeable {
+		private final Path path;
+		private final AsynchronousFileChannel channel;
+		private final ByteBuffer buffer;
+		private Future<Integer> current;
+		private boolean open = true;
+		private boolean completed = false;
+
+		private PendingRead(Path path, AsynchronousFileChannel channel, ByteBuffer buffer) {
+			this.path = path;
+			this.channel = channel;
+			this.buffer = buffer;
+		}
+
+		public Path getPath() {
+			return path;
+		}
+
+		private void next() {
+			current = channel.read(buffer, buffer.position());
+		}
+
+		/**
+		 * Wait for the read to complete.
+		 * 
+		 * @return the buffer with the file contents between position and limit
+		 * @throws IOException
+		 *             if the read failed or the file shrank while reading
+		 * @throws InterruptedException
+		 *             if interrupted while waiting
+		 */
+		public ByteBuffer await() throws IOException, InterruptedException {
+			try {
+				while (true) {
+					int count = current.get();
+
+					if (count < 0) {
+						throw new EOFException("File " + path + " ended after " + buffer.position() + " of " + buffer.limit() + " bytes");
+					}
+
+					if (!buffer.hasRemaining()) {
+						break;
+					}
+
+					next();
+				}
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+
+				if (cause instanceof IOException) {
+					throw (IOException) cause;
+				}
+
+				throw new IOException("Failed to read " + path, cause);
+			} finally {
+				close();
+			}
+
+			buffer.flip();
+			completed = true;
+			return buffer;
+		}
+
+		/**
+		 * Cancel the read if it is still running, and give up the permit.
+		 */
+		@Override
+		public synchronized void close() throws IOException {
+			if (!open) {
+				return;
+			}
+
+			open = false;
+			current.cancel(false);
+
+			try {
+				channel.close();
+			} finally {
+				permits.release();
+			}
+		}
+
+		/**
+		 * Return the buffer to the pool. The buffer must no longer be in use. If the read did not
+		 * complete, the channel may still write to the buffer, so it is discarded instead.
+		 */
+		public void release() {
+			if (completed) {
+				pool.release(buffer);
+			} else {
+				pool.discard(buffer);
+			}
+		}
+
+		/**
+		 * Give up the buffer without returning it to the pool, as it may still be in use.
+		 */
+		public void discard() {
+			pool.discard(buffer);
+		}
+	}
+}
@@ -0,0 +1,167 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.io;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+
+/**
+ * Pool of direct buffers for reading files. Buffer sizes are rounded up to a power of two, so a
+ * buffer can be reused for any file of a similar size.<br>
+ * The direct memory used by the pool, in use or idle, is limited. If a new buffer would exceed the
+ * limit, idle buffers of other sizes are dropped, and if that is not enough a heap buffer is
+ * returned instead. Requests larger than the biggest pooled size always get a heap buffer.
+ */
+public class BufferPool {
+	private static final int MIN_SHIFT = 16;
+
+	private final int maxBufferSize;
+	private final long maxDirectBytes;
+	private final LinkedList<ByteBuffer>[] free;
+	private long directBytes;
+	private long idleBytes;
+	private long allocated;
+	private long reused;
+	private long heapFallbacks;
+
+	/**
+	 * @param maxBufferSize
+	 *            largest buffer that is pooled, in bytes
+	 * @param maxDirectBytes
+	 *            maximum direct memory held by the pool, in bytes
+	 */
+	@SuppressWarnings("unchecked")
+	public BufferPool(int maxBufferSize, long maxDirectBytes) {
+		this.maxBufferSize = maxBufferSize;
+		this.maxDirectBytes = maxDirectBytes;
+		this.free = new LinkedList[sizeClass(maxBufferSize) + 1];
+
+		for (int i = 0; i < free.length; i++) {
+			free[i] = new LinkedList<ByteBuffer>();
+		}
+	}
+
+	/**
+	 * Get a buffer with at least the requested capacity. The buffer is cleared and its limit is set to
+	 * the requested size.
+	 * 
+	 * @param size
+	 *            needed capacity in bytes
+	 * @return a buffer with position 0 and limit size
+	 */
+	public synchronized ByteBuffer acquire(int size) {
+		ByteBuffer buffer = null;
+
+		if (size <= maxBufferSize) {
+			buffer = acquireDirect(sizeClass(size));
+		}
+
+		if (buffer == null) {
+			buffer = ByteBuffer.allocate(size);
+			heapFallbacks++;
+		}
+
+		buffer.clear();
+		buffer.limit(size);
+		return buffer;
+	}
+
+	private ByteBuffer acquireDirect(int sizeClass) {
+		ByteBuffer buffer = free[sizeClass].poll();
+
+		if (buffer != null) {
+			idleBytes -= buffer.capacity();
+			reused++;
+			return buffer;
+		}
+
+		int capacity = 1 << (sizeClass + MIN_SHIFT);
+
+		if (directBytes + capacity > maxDirectBytes) {
+			dropIdle(directBytes + capacity - maxDirectBytes);
+		}
+
+		if (directBytes + capacity > maxDirectBytes) {
+			return null;
+		}
+
+		directBytes += capacity;
+		allocated++;
+		return ByteBuffer.allocateDirect(capacity);
+	}
+
+	/**
+	 * Drop idle buffers, largest first, until at least the given number of bytes has been freed or no
+	 * idle buffers are left.
+	 */
+	private void dropIdle(long bytes) {
+		for (int i = free.length - 1; i >= 0 && bytes > 0; i--) {
+			while (!free[i].isEmpty() && bytes > 0) {
+				int capacity = free[i].poll().capacity();
+				idleBytes -= capacity;
+				directBytes -= capacity;
+				bytes -= capacity;
+			}
+		}
+	}
+
+	/**
+	 * Return a buffer to the pool. The buffer must not be used after this call. Heap buffers are
+	 * ignored.
+	 */
+	public synchronized void release(ByteBuffer buffer) {
+		if (!buffer.isDirect()) {
+			return;
+		}
+
+		idleBytes += buffer.capacity();
+		free[sizeClass(buffer.capacity())].add(buffer);
+	}
+
+	/**
+	 * Give up a buffer that may still be in use, e.g. by a decode that did not stop. It is left to the
+	 * garbage collector and no longer counts against the limit.
+	 */
+	public synchronized void discard(ByteBuffer buffer) {
+		if (buffer.isDirect()) {
+			directBytes -= buffer.capacity();
+		}
+	}
+
+	/**
+	 * @return direct memory held by the pool, in use or idle
+	 */
+	public synchronized long getDirectBytes() {
+		return directBytes;
+	}
+
+	public synchronized long getIdleBytes() {
+		return idleBytes;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "Buffer pool: " + allocated + " buffers allocated, " + reused + " reused, " + heapFallbacks + " heap fallbacks, "
+				+ directBytes / 1024 + " KB direct";
+	}
+
+	static int sizeClass(int size) {
+		int shift = 32 - Integer.numberOfLeadingZeros(Math.max(size, 1) - 1);
+		return Math.max(0, shift - MIN_SHIFT);
+	}
+}
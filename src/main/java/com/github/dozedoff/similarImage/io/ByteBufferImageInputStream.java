@@ -0,0 +1,81 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.imageio.stream.ImageInputStreamImpl;
+
+/**
+ * Image input stream that reads directly from a buffer, heap or direct, without copying it. The
+ * stream reads the bytes between the position and the limit of the buffer at the time it was created,
+ * and does not change the buffer.
+ */
+public class ByteBufferImageInputStream extends ImageInputStreamImpl {
+	private final ByteBuffer buffer;
+
+	public ByteBufferImageInputStream(ByteBuffer data) {
+		this.buffer = data.slice();
+	}
+
+	@Override
+	public int read() throws IOException {
+		checkClosed();
+		bitOffset = 0;
+
+		if (streamPos >= buffer.limit()) {
+			return -1;
+		}
+
+		return buffer.get((int) streamPos++) & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		checkClosed();
+
+		if (off < 0 || len < 0 || off + len > b.length || off + len < 0) {
+			throw new IndexOutOfBoundsException("Invalid offset or length");
+		}
+
+		bitOffset = 0;
+
+		if (len == 0) {
+			return 0;
+		}
+
+		long remaining = buffer.limit() - streamPos;
+
+		if (remaining <= 0) {
+			return -1;
+		}
+
+		int count = (int) Math.min(len, remaining);
+		buffer.position((int) streamPos);
+		buffer.get(b, off, count);
+		streamPos += count;
+
+		return count;
+	}
+
+	@Override
+	public long length() {
+		return buffer.limit();
+	}
+}
@@ -0,0 +1,108 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.io;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Fast, non-cryptographic 64 bit digest of file contents, used to find byte-identical files. The
+ * length of the data is part of the digest. The digest is never 0, so 0 can be used for an unknown
+ * digest.
+ */
+public class ContentDigest {
+	private static final long SEED = 0x9E3779B97F4A7C15L;
+	private static final long C1 = 0x87C37B91114253D5L;
+	private static final long C2 = 0x4CF5AD432745937FL;
+
+	private ContentDigest() {
+	}
+
+	public static long hash(byte[] data) {
+		return hash(data, 0, data.length);
+	}
+
+	/**
+	 * Hash a range of the array, 8 bytes at a time.
+	 *
+	 * @param data
+	 *            to hash
+	 * @param offset
+	 *            of the first byte
+	 * @param length
+	 *            number of bytes to hash
+	 * @return the digest, never 0
+	 */
+	public static long hash(byte[] data, int offset, int length) {
+		return hash(ByteBuffer.wrap(data, offset, length));
+	}
+
+	/**
+	 * Hash the bytes between the position and the limit of the buffer, 8 bytes at a time. The
+	 * position, limit and byte order of the buffer are not changed.
+	 *
+	 * @param data
+	 *            to hash, heap or direct
+	 * @return the digest, never 0
+	 */
+	public static long hash(ByteBuffer data) {
+		ByteBuffer buffer = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		int offset = buffer.position();
+		int length = buffer.remaining();
+		long h = SEED ^ (length * C2);
+		int end = offset + (length & ~7);
+
+		for (int i = offset; i < end; i += 8) {
+			h ^= mixK(buffer.getLong(i));
+			h = Long.rotateLeft(h, 27) * 5 + 0x52DCE729;
+		}
+
+		int remaining = length & 7;
+
+		if (remaining > 0) {
+			long k = 0;
+
+			for (int i = 0; i < remaining; i++) {
+				k |= (buffer.get(end + i) & 0xFFL) << (8 * i);
+			}
+
+			h ^= mixK(k);
+		}
+
+		h ^= length;
+		h = fmix(h);
+
+		return h == 0 ? 1 : h;
+	}
+
+	private static long mixK(long k) {
+		k *= C1;
+		k = Long.rotateLeft(k, 31);
+		k *= C2;
+		return k;
+	}
+
+	private static long fmix(long h) {
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
@@ -0,0 +1,143 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.io;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.dozedoff.commonj.file.FilenameFilterVisitor;
+import com.github.dozedoff.commonj.filefilter.SimpleImageFilter;
+import com.github.dozedoff.similarImage.hash.HashContext;
+
+/**
+ * Compares hashes of subsampled decodes against full decodes, to check how much the
+ * {@link DecodeMode#SUBSAMPLED} mode changes the results.<br>
+ * Usage: DecodeDriftReport &lt;directory&gt;...
+ */
+public class DecodeDriftReport {
+	private static final Logger logger = LoggerFactory.getLogger(DecodeDriftReport.class);
+	private static final int HASH_BITS = 64;
+
+	private final ImageDecoder fullDecoder = new ImageDecoder(DecodeMode.FULL);
+	private final ImageDecoder subsampledDecoder = new ImageDecoder(DecodeMode.SUBSAMPLED);
+	private final HashContext hashContext = new HashContext(32, 9);
+
+	private final int[] distances = new int[HASH_BITS + 1];
+	private int compared = 0;
+	private int failed = 0;
+	private long fullDecodeTime = 0;
+	private long subsampledDecodeTime = 0;
+
+	public static void main(String[] args) {
+		DecodeDriftReport report = new DecodeDriftReport();
+
+		for (String directory : args) {
+			LinkedList<Path> images = new LinkedList<Path>();
+
+			try {
+				Files.walkFileTree(Paths.get(directory), new FilenameFilterVisitor(images, new SimpleImageFilter()));
+			} catch (IOException e) {
+				logger.error("Failed to walk file tree {}", directory, e);
+				continue;
+			}
+
+			for (Path image : images) {
+				report.add(image);
+			}
+		}
+
+		logger.info("{}", report.getReport());
+	}
+
+	public void add(Path path) {
+		try {
+			byte[] data = Files.readAllBytes(path);
+
+			long start = System.nanoTime();
+			BufferedImage full = fullDecoder.decode(data);
+			long fullDone = System.nanoTime();
+			BufferedImage subsampled = subsampledDecoder.decode(data);
+			long subsampledDone = System.nanoTime();
+
+			fullDecodeTime += fullDone - start;
+			subsampledDecodeTime += subsampledDone - fullDone;
+
+			long fullHash = hashContext.getLongHash(full);
+			long subsampledHash = hashContext.getLongHash(subsampled);
+			int distance = Long.bitCount(fullHash ^ subsampledHash);
+
+			distances[distance]++;
+			compared++;
+
+			if (distance > 0) {
+				logger.debug("{} differs by {} bits", path, distance);
+			}
+		} catch (Exception e) {
+			logger.warn("Failed to compare {} - {}", path, e.getMessage());
+			failed++;
+		}
+	}
+
+	public int getCompared() {
+		return compared;
+	}
+
+	/**
+	 * @param distance
+	 *            hamming distance between full and subsampled hash
+	 * @return number of images with the given distance
+	 */
+	public int getCount(int distance) {
+		return distances[distance];
+	}
+
+	public String getReport() {
+		StringBuilder sb = new StringBuilder();
+		long totalDistance = 0;
+
+		for (int i = 0; i < distances.length; i++) {
+			totalDistance += (long) i * distances[i];
+		}
+
+		sb.append("Compared ").append(compared).append(" images, ").append(failed).append(" failed\n");
+
+		if (compared == 0) {
+			return sb.toString();
+		}
+
+		sb.append("Identical hashes: ").append(distances[0]).append('\n');
+		sb.append("Mean distance: ").append((double) totalDistance / compared).append('\n');
+		sb.append("Full decode: ").append(fullDecodeTime / 1000000).append(" ms, subsampled decode: ")
+				.append(subsampledDecodeTime / 1000000).append(" ms\n");
+
+		for (int i = 1; i < distances.length; i++) {
+			if (distances[i] > 0) {
+				sb.append("Distance ").append(i).append(": ").append(distances[i]).append('\n');
+			}
+		}
+
+		return sb.toString();
+	}
+}
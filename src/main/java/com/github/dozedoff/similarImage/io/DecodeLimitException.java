@@ -0,0 +1,32 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.io;
+
+import javax.imageio.IIOException;
+
+/**
+ * Thrown if an image is not decoded because it exceeds a limit, such as the maximum number of pixels
+ * or the decode time.
+ */
+public class DecodeLimitException extends IIOException {
+	private static final long serialVersionUID = 1L;
+
+	public DecodeLimitException(String message) {
+		super(message);
+	}
+}
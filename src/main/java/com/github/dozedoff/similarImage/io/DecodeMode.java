@@ -0,0 +1,33 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.io;
+
+/**
+ * How images are decoded before hashing.
+ */
+public enum DecodeMode {
+	/**
+	 * Decode the whole image at full resolution.
+	 */
+	FULL,
+	/**
+	 * Skip pixels while decoding, so the decoded image is only a few times larger than the hash
+	 * input.
+	 */
+	SUBSAMPLED
+}
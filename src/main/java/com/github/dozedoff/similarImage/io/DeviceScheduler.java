@@ -0,0 +1,249 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.io;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Groups paths by the device they are stored on, so each device is read with its own concurrency
+ * limit. A slow device then only ties up its own reads, while loaders keep reading from faster
+ * devices.<br>
+ * Devices are identified by their {@link FileStore}, looked up once per directory. Paths added
+ * together are sorted before they are queued, so files in a directory are read in name order.
+ */
+public class DeviceScheduler {
+	private static final Logger logger = LoggerFactory.getLogger(DeviceScheduler.class);
+
+	private static final String UNKNOWN_DEVICE = "unknown device";
+
+	private final BufferPool pool;
+	private final int readsPerDevice;
+	private final Map<Path, Device> directoryDevices = new HashMap<Path, Device>();
+	private final Map<Object, Device> devices = new LinkedHashMap<Object, Device>();
+	private final List<Device> deviceOrder = new ArrayList<Device>();
+	private int nextDevice = 0;
+	private int pending = 0;
+
+	/**
+	 * @param pool
+	 *            shared by the readers of all devices
+	 * @param readsPerDevice
+	 *            maximum number of reads in flight per device
+	 */
+	public DeviceScheduler(BufferPool pool, int readsPerDevice) {
+		this.pool = pool;
+		this.readsPerDevice = readsPerDevice;
+	}
+
+	public BufferPool getPool() {
+		return pool;
+	}
+
+	public int getReadsPerDevice() {
+		return readsPerDevice;
+	}
+
+	/**
+	 * A device with its queue of paths and its own reader.
+	 */
+	public static class Device {
+		private final String name;
+		private final AsyncFileReader reader;
+		private final LinkedList<Path> queue = new LinkedList<Path>();
+		private long scheduled;
+
+		private Device(String name, AsyncFileReader reader) {
+			this.name = name;
+			this.reader = reader;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public AsyncFileReader getReader() {
+			return reader;
+		}
+
+		private boolean isSaturated() {
+			return reader.getInFlight() >= reader.getMaxInFlight();
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+
+	/**
+	 * Queue paths on their devices. The paths for each device are sorted, and queued after the paths
+	 * that are already waiting.
+	 */
+	public void addAll(Collection<Path> paths) {
+		Map<Device, List<Path>> grouped = new LinkedHashMap<Device, List<Path>>();
+
+		for (Path path : paths) {
+			Device device = deviceFor(path);
+			List<Path> group = grouped.get(device);
+
+			if (group == null) {
+				group = new ArrayList<Path>();
+				grouped.put(device, group);
+			}
+
+			group.add(path);
+		}
+
+		synchronized (this) {
+			for (Map.Entry<Device, List<Path>> entry : grouped.entrySet()) {
+				List<Path> group = entry.getValue();
+				Collections.sort(group);
+				entry.getKey().queue.addAll(group);
+				pending += group.size();
+			}
+		}
+	}
+
+	/**
+	 * Take a batch of paths from a single device. Devices are served in turn, skipping devices that
+	 * already have all their reads in flight. If all devices with queued paths are saturated, the
+	 * next one in turn is used anyway.
+	 * 
+	 * @param batch
+	 *            list to add the paths to
+	 * @param maxPaths
+	 *            maximum number of paths to take
+	 * @return the device the paths are stored on, or null if no paths are queued
+	 */
+	public synchronized Device nextBatch(List<Path> batch, int maxPaths) {
+		Device selected = null;
+		int deviceCount = deviceOrder.size();
+
+		for (int i = 0; i < deviceCount; i++) {
+			Device device = deviceOrder.get((nextDevice + i) % deviceCount);
+
+			if (device.queue.isEmpty()) {
+				continue;
+			}
+
+			if (selected == null) {
+				selected = device;
+			}
+
+			if (!device.isSaturated()) {
+				selected = device;
+				break;
+			}
+		}
+
+		if (selected == null) {
+			return null;
+		}
+
+		nextDevice = (deviceOrder.indexOf(selected) + 1) % deviceCount;
+
+		for (int i = 0; i < maxPaths && !selected.queue.isEmpty(); i++) {
+			batch.add(selected.queue.poll());
+		}
+
+		pending -= batch.size();
+		selected.scheduled += batch.size();
+		return selected;
+	}
+
+	/**
+	 * @return number of paths waiting to be loaded
+	 */
+	public synchronized int getPendingCount() {
+		return pending;
+	}
+
+	public synchronized void clear() {
+		for (Device device : deviceOrder) {
+			device.queue.clear();
+		}
+
+		pending = 0;
+	}
+
+	private Device deviceFor(Path path) {
+		Path directory = path.toAbsolutePath().getParent();
+
+		synchronized (directoryDevices) {
+			Device device = directoryDevices.get(directory);
+
+			if (device == null) {
+				device = lookupDevice(directory);
+				directoryDevices.put(directory, device);
+			}
+
+			return device;
+		}
+	}
+
+	private Device lookupDevice(Path directory) {
+		Object key = UNKNOWN_DEVICE;
+		String name = UNKNOWN_DEVICE;
+
+		try {
+			FileStore store = Files.getFileStore(directory);
+			key = store;
+			name = store.toString();
+		} catch (IOException e) {
+			logger.warn("Failed to find device for {} - {}", directory, e.getMessage());
+		}
+
+		synchronized (this) {
+			Device device = devices.get(key);
+
+			if (device == null) {
+				device = new Device(name, new AsyncFileReader(pool, readsPerDevice));
+				devices.put(key, device);
+				deviceOrder.add(device);
+				logger.info("Reading from device {} with up to {} reads in flight", name, readsPerDevice);
+			}
+
+			return device;
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+		StringBuilder sb = new StringBuilder("Devices:");
+
+		for (Device device : deviceOrder) {
+			sb.append(' ').append(device.name).append(" (").append(device.scheduled).append(" files)");
+		}
+
+		return sb.toString();
+	}
+}
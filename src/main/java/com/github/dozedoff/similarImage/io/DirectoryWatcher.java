@@ -0,0 +1,385 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.io;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.dozedoff.commonj.filefilter.SimpleImageFilter;
+import com.github.dozedoff.similarImage.db.ImageRecord;
+import com.github.dozedoff.similarImage.db.Persistence;
+
+/**
+ * Watches directory trees for changes and keeps the database up to date. Created and modified images
+ * are passed to the {@link ImageProducer}, records of deleted images are removed.<br>
+ * Events are collected until the tree has been quiet for the debounce time, or the batch is full, and
+ * are then handled together. A file that changes several times during a burst is only processed once.
+ */
+public class DirectoryWatcher extends Thread {
+	private static final Logger logger = LoggerFactory.getLogger(DirectoryWatcher.class);
+
+	private final int DEBOUNCE_TIME = 2000;
+	private final int MAX_BATCH_SIZE = 1000;
+
+	private final ImageProducer producer;
+	private final Persistence persistence;
+	private final WatchService watchService;
+	private final Path root;
+	private final FilenameFilter filter = new SimpleImageFilter();
+	private final Map<WatchKey, Path> watchedDirectories = new HashMap<WatchKey, Path>();
+
+	private final Set<Path> changedPaths = new LinkedHashSet<Path>();
+	private final Set<Path> deletedPaths = new LinkedHashSet<Path>();
+	private final Set<Path> createdDirectories = new LinkedHashSet<Path>();
+	private final Set<Path> rescanDirectories = new LinkedHashSet<Path>();
+
+	/**
+	 * @param root
+	 *            the tree to watch, registered when the watcher is started
+	 */
+	public DirectoryWatcher(ImageProducer producer, Persistence persistence, Path root) throws IOException {
+		super("Directory watcher");
+		this.producer = producer;
+		this.persistence = persistence;
+		this.root = root;
+		this.watchService = FileSystems.getDefault().newWatchService();
+	}
+
+	/**
+	 * Register the directory and all sub-directories.
+	 *
+	 * @param root
+	 *            directory to watch
+	 * @throws IOException
+	 *             if the tree could not be walked
+	 */
+	public void watch(Path root) throws IOException {
+		registerTree(root, null);
+		logger.info("Watching {} directories under {}", getWatchCount(), root);
+	}
+
+	public int getWatchCount() {
+		synchronized (watchedDirectories) {
+			return watchedDirectories.size();
+		}
+	}
+
+	public void stopWatching() {
+		interrupt();
+	}
+
+	/**
+	 * Open the producer feed on the calling thread, so workers started right after this call wait for
+	 * work instead of finding the producer empty. The feed is closed when the watcher stops.
+	 */
+	@Override
+	public synchronized void start() {
+		producer.openFeed();
+
+		try {
+			super.start();
+		} catch (IllegalThreadStateException e) {
+			producer.closeFeed();
+			throw e;
+		}
+	}
+
+	@Override
+	public void run() {
+		loadPathIndex();
+
+		try {
+			watch(root);
+			watchLoop();
+		} catch (IOException e) {
+			logger.warn("Failed to watch {} - {}", root, e.getMessage());
+		} finally {
+			producer.closeFeed();
+			closeWatchService();
+		}
+
+		logger.info("{} stopped", getName());
+	}
+
+	private void loadPathIndex() {
+		if (persistence.isPathIndexLoaded()) {
+			return;
+		}
+
+		try {
+			persistence.loadPathIndex();
+		} catch (SQLException e) {
+			logger.warn("Failed to load known paths, falling back to database lookups - {}", e.getMessage());
+		}
+	}
+
+	private void watchLoop() {
+		while (!isInterrupted()) {
+			WatchKey key;
+
+			try {
+				key = watchService.poll(DEBOUNCE_TIME, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				interrupt();
+				break;
+			}
+
+			if (key == null) {
+				flush();
+				continue;
+			}
+
+			collectEvents(key);
+
+			if (getPendingCount() >= MAX_BATCH_SIZE) {
+				flush();
+			}
+		}
+	}
+
+	private void collectEvents(WatchKey key) {
+		Path directory;
+
+		synchronized (watchedDirectories) {
+			directory = watchedDirectories.get(key);
+		}
+
+		if (directory == null) {
+			key.cancel();
+			return;
+		}
+
+		for (WatchEvent<?> event : key.pollEvents()) {
+			WatchEvent.Kind<?> kind = event.kind();
+
+			if (kind == OVERFLOW) {
+				logger.warn("Events for {} were lost, scanning it again", directory);
+				rescanDirectories.add(directory);
+				continue;
+			}
+
+			Path child = directory.resolve((Path) event.context());
+
+			if (kind == ENTRY_DELETE) {
+				changedPaths.remove(child);
+				deletedPaths.add(child);
+			} else if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+				if (kind == ENTRY_CREATE) {
+					deletedPaths.remove(child);
+					createdDirectories.add(child);
+				}
+			} else if (isImage(child)) {
+				deletedPaths.remove(child);
+				changedPaths.add(child);
+			}
+		}
+
+		if (!key.reset()) {
+			synchronized (watchedDirectories) {
+				watchedDirectories.remove(key);
+			}
+		}
+	}
+
+	private int getPendingCount() {
+		return changedPaths.size() + deletedPaths.size() + createdDirectories.size() + rescanDirectories.size();
+	}
+
+	private void flush() {
+		if (getPendingCount() == 0) {
+			return;
+		}
+
+		List<Path> images = new LinkedList<Path>(changedPaths);
+
+		for (Path directory : createdDirectories) {
+			images.addAll(registerTreeQuietly(directory));
+		}
+
+		for (Path directory : rescanDirectories) {
+			images.addAll(registerTreeQuietly(directory));
+		}
+
+		deleteRecords(deletedPaths);
+
+		if (!images.isEmpty()) {
+			logger.info("Queuing {} new or changed images", images.size());
+			producer.addChanged(images);
+		}
+
+		changedPaths.clear();
+		deletedPaths.clear();
+		createdDirectories.clear();
+		rescanDirectories.clear();
+	}
+
+	/**
+	 * Delete the records for deleted files. If a watched directory was deleted, the records of all
+	 * images below it are deleted as well.
+	 */
+	private void deleteRecords(Set<Path> deleted) {
+		if (deleted.isEmpty()) {
+			return;
+		}
+
+		List<Path> toDelete = new ArrayList<Path>(deleted.size());
+
+		try {
+			for (Path path : deleted) {
+				if (unregisterTree(path)) {
+					toDelete.addAll(findRecordsBelow(path));
+				} else if (isImage(path)) {
+					toDelete.add(path);
+				}
+			}
+
+			logger.info("Deleting {} records for deleted images", toDelete.size());
+			persistence.deleteRecords(toDelete);
+		} catch (Exception e) {
+			logger.warn("Failed to delete records - {}", e.getMessage());
+		}
+	}
+
+	private List<Path> findRecordsBelow(Path directory) throws Exception {
+		List<Path> below = new LinkedList<Path>();
+
+		for (ImageRecord record : persistence.getRecordsBelow(directory)) {
+			below.add(Paths.get(record.getPath()));
+		}
+
+		return below;
+	}
+
+	/**
+	 * Cancel the watches for the directory and its sub-directories.
+	 *
+	 * @return true if the path was a watched directory
+	 */
+	private boolean unregisterTree(Path directory) {
+		String prefix = directory.toString() + File.separator;
+		boolean wasWatched = false;
+
+		synchronized (watchedDirectories) {
+			for (WatchKey key : new ArrayList<WatchKey>(watchedDirectories.keySet())) {
+				Path watched = watchedDirectories.get(key);
+
+				if (watched.equals(directory) || watched.toString().startsWith(prefix)) {
+					key.cancel();
+					watchedDirectories.remove(key);
+					wasWatched = true;
+				}
+			}
+		}
+
+		return wasWatched;
+	}
+
+	private List<Path> registerTreeQuietly(Path directory) {
+		List<Path> images = new LinkedList<Path>();
+
+		try {
+			registerTree(directory, images);
+		} catch (IOException e) {
+			logger.warn("Failed to watch {} - {}", directory, e.getMessage());
+		}
+
+		return images;
+	}
+
+	/**
+	 * Register all directories in the tree. If a list is given, images found in the tree are added to
+	 * it.
+	 */
+	private void registerTree(Path root, final List<Path> images) throws IOException {
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				WatchKey key = dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+
+				synchronized (watchedDirectories) {
+					watchedDirectories.put(key, dir);
+				}
+
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				if (images != null && attrs.isRegularFile() && isImage(file)) {
+					images.add(file);
+				}
+
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+				logger.warn("Failed to visit {} - {}", file, exc.getMessage());
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	private boolean isImage(Path file) {
+		Path parent = file.getParent();
+		Path name = file.getFileName();
+
+		if (name == null) {
+			return false;
+		}
+
+		return filter.accept(parent == null ? null : parent.toFile(), name.toString());
+	}
+
+	private void closeWatchService() {
+		try {
+			watchService.close();
+		} catch (IOException e) {
+			logger.warn("Failed to close watch service - {}", e.getMessage());
+		}
+	}
+}
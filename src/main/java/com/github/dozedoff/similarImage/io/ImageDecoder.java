@@ -0,0 +1,389 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.io;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Decodes images, either at full resolution or subsampled to a size close to the one needed for
+ * hashing. The subsampling factor is chosen from the dimensions in the image header, so the shorter
+ * side of the decoded image is at least targetSize * oversampling pixels.<br>
+ * Images can be limited to a maximum number of pixels, checked against the header before decoding,
+ * and to a maximum decode time. Timed decodes run on a separate executor, so a decode that does not
+ * stop when aborted only ties up a thread of that executor.
+ */
+public class ImageDecoder {
+	public static final int DEFAULT_TARGET_SIZE = 32;
+	public static final int DEFAULT_OVERSAMPLING = 4;
+
+	private final DecodeMode mode;
+	private final int targetSize;
+	private final int oversampling;
+	private long maxPixels = 0;
+	private long timeout = 0;
+	private ExecutorService executor;
+
+	public ImageDecoder(DecodeMode mode) {
+		this(mode, DEFAULT_TARGET_SIZE, DEFAULT_OVERSAMPLING);
+	}
+
+	public ImageDecoder(DecodeMode mode, int targetSize, int oversampling) {
+		if (targetSize < 1 || oversampling < 1) {
+			throw new IllegalArgumentException("Target size and oversampling must be positive");
+		}
+
+		this.mode = mode;
+		this.targetSize = targetSize;
+		this.oversampling = oversampling;
+	}
+
+	public DecodeMode getMode() {
+		return mode;
+	}
+
+	/**
+	 * @param maxPixels
+	 *            images with more pixels are rejected without decoding them, 0 for no limit
+	 */
+	public void setMaxPixels(long maxPixels) {
+		this.maxPixels = maxPixels;
+	}
+
+	public long getMaxPixels() {
+		return maxPixels;
+	}
+
+	/**
+	 * @param timeout
+	 *            maximum decode time in milliseconds, 0 for no limit
+	 * @param executor
+	 *            to run timed decodes on, should be able to create new threads if decodes hang
+	 */
+	public void setTimeout(long timeout, ExecutorService executor) {
+		if (timeout > 0 && executor == null) {
+			throw new IllegalArgumentException("An executor is needed for timed decodes");
+		}
+
+		this.timeout = timeout;
+		this.executor = executor;
+	}
+
+	public long getTimeout() {
+		return timeout;
+	}
+
+	public BufferedImage decode(byte[] data) throws IOException {
+		return decode(new ByteArrayInputStream(data));
+	}
+
+	/**
+	 * Decode the first image in the stream.
+	 * 
+	 * @param is
+	 *            stream to read
+	 * @return the decoded image
+	 * @throws IIOException
+	 *             if no reader is found or the image is corrupt
+	 * @throws IOException
+	 *             if the stream cannot be read
+	 */
+	public BufferedImage decode(InputStream is) throws IOException {
+		DecodeHandle handle = open(is);
+
+		try {
+			return handle.read();
+		} finally {
+			handle.close();
+		}
+	}
+
+	public DecodeHandle open(byte[] data) throws IOException {
+		return open(new ByteArrayInputStream(data));
+	}
+
+	/**
+	 * Read the image header from the bytes between position and limit of the buffer. The buffer is
+	 * read in place, so it must not be changed or reused until the handle is disposed, see
+	 * {@link DecodeHandle#isDisposed()}.
+	 */
+	public DecodeHandle open(ByteBuffer data) throws IOException {
+		return open(new ByteBufferImageInputStream(data));
+	}
+
+	/**
+	 * Read the image header, so the size of the decoded image is known before decoding it. The handle
+	 * must be closed after use.
+	 * 
+	 * @param is
+	 *            stream to read
+	 * @return a handle for decoding the image
+	 * @throws IIOException
+	 *             if no reader is found or the header is corrupt
+	 * @throws DecodeLimitException
+	 *             if the image has more pixels than allowed
+	 * @throws IOException
+	 *             if the stream cannot be read
+	 */
+	public DecodeHandle open(InputStream is) throws IOException {
+		ImageInputStream iis = ImageIO.createImageInputStream(is);
+
+		if (iis == null) {
+			throw new IIOException("Unable to create image input stream");
+		}
+
+		return open(iis);
+	}
+
+	private DecodeHandle open(ImageInputStream iis) throws IOException {
+		Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+
+		if (!readers.hasNext()) {
+			iis.close();
+			throw new IIOException("No reader found for image");
+		}
+
+		ImageReader reader = readers.next();
+		DecodeHandle handle = new DecodeHandle(reader, iis);
+
+		try {
+			reader.setInput(iis, true, true);
+			handle.readHeader();
+			checkPixels(handle.getWidth(), handle.getHeight());
+		} catch (IOException e) {
+			handle.close();
+			throw e;
+		} catch (RuntimeException e) {
+			handle.close();
+			throw e;
+		}
+
+		return handle;
+	}
+
+	private void checkPixels(int width, int height) throws DecodeLimitException {
+		long pixels = (long) width * height;
+
+		if (maxPixels > 0 && pixels > maxPixels) {
+			throw new DecodeLimitException("Image has " + pixels + " pixels (" + width + "x" + height + "), limit is " + maxPixels);
+		}
+	}
+
+	/**
+	 * Calculate the largest subsampling factor that keeps the shorter side of the image at or above
+	 * targetSize * oversampling pixels.
+	 * 
+	 * @param width
+	 *            of the source image
+	 * @param height
+	 *            of the source image
+	 * @return the subsampling factor, 1 for no subsampling
+	 */
+	public int getSubsampling(int width, int height) {
+		if (mode == DecodeMode.FULL) {
+			return 1;
+		}
+
+		int shorterSide = Math.min(width, height);
+		int factor = shorterSide / (targetSize * oversampling);
+
+		return Math.max(1, factor);
+	}
+
+	/**
+	 * An image with a parsed header, waiting to be decoded.
+	 */
+	public class DecodeHandle implements Closeable {
+		private final ImageReader reader;
+		private final ImageInputStream iis;
+		private int width;
+		private int height;
+		private int subsampling;
+		private Future<BufferedImage> decode;
+		private boolean decodeRunning;
+		private boolean closed;
+		private boolean disposed;
+
+		private DecodeHandle(ImageReader reader, ImageInputStream iis) {
+			this.reader = reader;
+			this.iis = iis;
+		}
+
+		private void readHeader() throws IOException {
+			width = reader.getWidth(0);
+			height = reader.getHeight(0);
+			subsampling = ImageDecoder.this.getSubsampling(width, height);
+		}
+
+		/**
+		 * @return width of the source image
+		 */
+		public int getWidth() {
+			return width;
+		}
+
+		/**
+		 * @return height of the source image
+		 */
+		public int getHeight() {
+			return height;
+		}
+
+		public int getSubsampling() {
+			return subsampling;
+		}
+
+		/**
+		 * @return estimated heap needed for the decoded image
+		 */
+		public long getEstimatedBytes() {
+			int decodedWidth = (width + subsampling - 1) / subsampling;
+			int decodedHeight = (height + subsampling - 1) / subsampling;
+
+			return MemoryGovernor.estimateImageBytes(decodedWidth, decodedHeight);
+		}
+
+		/**
+		 * Decode the image. If a timeout is set and the decode takes too long, the reader is aborted
+		 * and an exception is thrown.
+		 * 
+		 * @return the decoded image
+		 * @throws DecodeLimitException
+		 *             if the decode took too long
+		 * @throws IOException
+		 *             if the image could not be decoded
+		 */
+		public BufferedImage read() throws IOException {
+			final ImageReadParam param = reader.getDefaultReadParam();
+
+			if (subsampling > 1) {
+				param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+			}
+
+			if (timeout <= 0) {
+				return reader.read(0, param);
+			}
+
+			return readTimed(param);
+		}
+
+		private BufferedImage readTimed(final ImageReadParam param) throws IOException {
+			decode = executor.submit(new Callable<BufferedImage>() {
+				@Override
+				public BufferedImage call() throws Exception {
+					if (!decodeStarted()) {
+						throw new IIOException("Handle was closed before the decode started");
+					}
+
+					try {
+						return reader.read(0, param);
+					} finally {
+						decodeFinished();
+					}
+				}
+			});
+
+			try {
+				return decode.get(timeout, TimeUnit.MILLISECONDS);
+			} catch (TimeoutException e) {
+				abort();
+				throw new DecodeLimitException("Decode took longer than " + timeout + " ms");
+			} catch (InterruptedException e) {
+				abort();
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while decoding");
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+
+				if (cause instanceof IOException) {
+					throw (IOException) cause;
+				} else if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				} else if (cause instanceof Error) {
+					throw (Error) cause;
+				}
+
+				throw new IIOException("Decode failed", cause);
+			}
+		}
+
+		private void abort() {
+			reader.abort();
+			decode.cancel(true);
+		}
+
+		private synchronized boolean decodeStarted() {
+			decodeRunning = !closed;
+			return decodeRunning;
+		}
+
+		private synchronized void decodeFinished() throws IOException {
+			decodeRunning = false;
+
+			if (closed) {
+				dispose();
+			}
+		}
+
+		/**
+		 * Release the reader. If an aborted decode is still running, the reader is released once it
+		 * finishes.
+		 */
+		@Override
+		public synchronized void close() throws IOException {
+			closed = true;
+
+			if (decodeRunning) {
+				return;
+			}
+
+			dispose();
+		}
+
+		/**
+		 * @return true if the handle was closed and the reader no longer reads the input
+		 */
+		public synchronized boolean isDisposed() {
+			return disposed;
+		}
+
+		private void dispose() throws IOException {
+			disposed = true;
+			reader.dispose();
+			iis.close();
+		}
+	}
+}
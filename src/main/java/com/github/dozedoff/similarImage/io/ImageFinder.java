@@ -0,0 +1,206 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.io;
+
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.dozedoff.commonj.filefilter.SimpleImageFilter;
+
+/**
+ * Searches directory trees for images, walking sub-directories in parallel. Images are handed to the
+ * {@link ImageProducer} in batches while the search is still running. Symbolic links are not
+ * followed.
+ */
+public class ImageFinder {
+	private static final Logger logger = LoggerFactory.getLogger(ImageFinder.class);
+	private static final int DEFAULT_BATCH_SIZE = 100;
+
+	private final ImageProducer producer;
+	private final ForkJoinPool pool;
+	private final FilenameFilter filter = new SimpleImageFilter();
+	private final int batchSize;
+	private final AtomicInteger found = new AtomicInteger();
+	private volatile boolean cancelled;
+
+	public ImageFinder(ImageProducer producer, int parallelism) {
+		this(producer, parallelism, DEFAULT_BATCH_SIZE);
+	}
+
+	public ImageFinder(ImageProducer producer, int parallelism, int batchSize) {
+		this.producer = producer;
+		this.pool = new ForkJoinPool(parallelism);
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Search the directory and add all images found to the producer. Blocks until the search is
+	 * complete.
+	 * 
+	 * @param root
+	 *            directory to search
+	 * @return number of images found
+	 */
+	public int find(Path root) {
+		found.set(0);
+		cancelled = false;
+
+		if (Files.isRegularFile(root)) {
+			List<Path> single = new LinkedList<Path>();
+
+			if (isImage(root)) {
+				single.add(root);
+				submit(single);
+			}
+		} else {
+			pool.invoke(new DirectoryTask(root));
+		}
+
+		logger.info("Found {} images in {}", found.get(), root);
+		return found.get();
+	}
+
+	/**
+	 * @return number of images found so far by the current search
+	 */
+	public int getFound() {
+		return found.get();
+	}
+
+	/**
+	 * Stop the current search. Directories that have not been searched yet are skipped.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	public void shutdown() {
+		pool.shutdownNow();
+	}
+
+	private boolean isImage(Path file) {
+		Path parent = file.getParent();
+		Path name = file.getFileName();
+
+		if (name == null) {
+			return false;
+		}
+
+		return filter.accept(parent == null ? null : parent.toFile(), name.toString());
+	}
+
+	private void submit(List<Path> batch) {
+		if (batch.isEmpty() || cancelled) {
+			return;
+		}
+
+		found.addAndGet(batch.size());
+		producer.addToLoad(batch);
+	}
+
+	private class DirectoryTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final Path directory;
+
+		public DirectoryTask(Path directory) {
+			this.directory = directory;
+		}
+
+		@Override
+		protected void compute() {
+			if (cancelled) {
+				return;
+			}
+
+			List<DirectoryTask> subTasks = new LinkedList<DirectoryTask>();
+			List<Path> batch = new ArrayList<Path>(batchSize);
+			DirectoryStream<Path> stream = null;
+
+			try {
+				stream = Files.newDirectoryStream(directory);
+
+				for (Path entry : stream) {
+					if (cancelled) {
+						break;
+					}
+
+					BasicFileAttributes attributes;
+
+					try {
+						attributes = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+					} catch (IOException e) {
+						logger.warn("Failed to read attributes of {} - {}", entry, e.getMessage());
+						continue;
+					}
+
+					if (attributes.isDirectory()) {
+						DirectoryTask task = new DirectoryTask(entry);
+						task.fork();
+						subTasks.add(task);
+					} else if (attributes.isRegularFile() && isImage(entry)) {
+						batch.add(entry);
+
+						if (batch.size() >= batchSize) {
+							submit(batch);
+							batch = new ArrayList<Path>(batchSize);
+						}
+					}
+				}
+			} catch (IOException e) {
+				logger.warn("Failed to read directory {} - {}", directory, e.getMessage());
+			} catch (DirectoryIteratorException e) {
+				logger.warn("Failed to read directory {} - {}", directory, e.getCause().getMessage());
+			} finally {
+				closeStream(stream);
+			}
+
+			submit(batch);
+
+			for (DirectoryTask task : subTasks) {
+				task.join();
+			}
+		}
+
+		private void closeStream(DirectoryStream<Path> stream) {
+			if (stream == null) {
+				return;
+			}
+
+			try {
+				stream.close();
+			} catch (IOException e) {
+				logger.warn("Failed to close directory stream for {} - {}", directory, e.getMessage());
+			}
+		}
+	}
+}
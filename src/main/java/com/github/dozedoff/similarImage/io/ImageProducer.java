@@ -18,144 +18,716 @@
 package com.github.dozedoff.similarImage.io;
 
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.imageio.IIOException;
-import javax.imageio.ImageIO;
-import javax.swing.JProgressBar;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.github.dozedoff.commonj.io.DataProducer;
-import com.github.dozedoff.commonj.util.Pair;
 import com.github.dozedoff.similarImage.db.BadFileRecord;
+import com.github.dozedoff.similarImage.db.ImageRecord;
+import com.github.dozedoff.similarImage.db.IndexCheckpointer;
 import com.github.dozedoff.similarImage.db.Persistence;
+import com.github.dozedoff.similarImage.hash.GrayscaleSampler;
+import com.github.dozedoff.similarImage.hash.PhashWorker;
+import com.github.dozedoff.similarImage.io.AsyncFileReader.PendingRead;
+import com.github.dozedoff.similarImage.io.DeviceScheduler.Device;
+import com.github.dozedoff.similarImage.io.ImageDecoder.DecodeHandle;
 
-public class ImageProducer extends DataProducer<Path, Pair<Path, BufferedImage>> {
+public class ImageProducer extends DataProducer<Path, ImageWork> {
 	private static final Logger logger = LoggerFactory.getLogger(ImageProducer.class);
-	private final JProgressBar bufferLevel, totalProgress;
 	private final Persistence persistence;
 	private final AtomicInteger total = new AtomicInteger();
 	private final AtomicInteger processed = new AtomicInteger();
+	private final AtomicInteger openFeeds = new AtomicInteger();
+	private final AtomicInteger unfinished = new AtomicInteger();
+	private final AtomicLong drained = new AtomicLong();
+	private final AtomicLong reusedHashes = new AtomicLong();
+	private final AtomicInteger loaderTarget = new AtomicInteger();
+	private final AtomicInteger runningLoaders = new AtomicInteger();
+	private ExecutorService loaderExecutor;
+	private long maxPixels = 0;
+	private long decodeTimeout = 0;
+	private ExecutorService decodeExecutor;
+	private final Set<Path> changed = Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
 	private final int maxOutputQueueSize;
+	private ImageDecoder decoder = new ImageDecoder(DecodeMode.FULL);
+	private volatile boolean reduceInLoader = false;
+	private volatile boolean incremental = false;
+	private volatile IndexCheckpointer checkpointer;
+
+	private final ThreadLocal<GrayscaleSampler> samplers = new ThreadLocal<GrayscaleSampler>() {
+		@Override
+		protected GrayscaleSampler initialValue() {
+			return new GrayscaleSampler(PhashWorker.HASH_SIZE);
+		}
+	};
 
 	private final int MAX_WAIT_TIME = 10000;
+	private final int EMPTY_WAIT_TIME = 100;
 	private final int WORK_BATCH_SIZE = 20;
+	private final double DEFAULT_HEAP_FRACTION = 0.4;
+
+	private final int DEFAULT_READS_IN_FLIGHT = 64;
+	private final int MAX_POOLED_BUFFER = 16 * 1024 * 1024;
+	private final long MAX_DIRECT_BYTES = 128 * 1024 * 1024;
+
+	private MemoryGovernor memoryGovernor = MemoryGovernor.fromHeapFraction(DEFAULT_HEAP_FRACTION);
+	private volatile DeviceScheduler scheduler = new DeviceScheduler(new BufferPool(MAX_POOLED_BUFFER, MAX_DIRECT_BYTES),
+			DEFAULT_READS_IN_FLIGHT);
 
 	public ImageProducer(int maxOutputQueueSize, Persistence persistence) {
 		super(maxOutputQueueSize);
 		this.maxOutputQueueSize = maxOutputQueueSize;
 		this.persistence = persistence;
+	}
+
+	public void setDecodeMode(DecodeMode mode) {
+		logger.info("Setting decode mode to {}", mode);
+		ImageDecoder newDecoder = new ImageDecoder(mode);
+		newDecoder.setMaxPixels(maxPixels);
+		newDecoder.setTimeout(decodeTimeout, decodeExecutor);
+		decoder = newDecoder;
+	}
+
+	/**
+	 * Limit the size and decode time of images. Images that exceed a limit are recorded as bad files.
+	 * 
+	 * @param maxPixels
+	 *            maximum number of pixels of an image, 0 for no limit
+	 * @param timeout
+	 *            maximum decode time in milliseconds, 0 for no limit
+	 * @param executor
+	 *            to run timed decodes on
+	 */
+	public void setDecodeLimits(long maxPixels, long timeout, ExecutorService executor) {
+		logger.info("Limiting images to {} pixels and {} ms decode time", maxPixels, timeout);
+		this.maxPixels = maxPixels;
+		this.decodeTimeout = timeout;
+		this.decodeExecutor = executor;
+		decoder.setMaxPixels(maxPixels);
+		decoder.setTimeout(timeout, executor);
+	}
+
+	public DecodeMode getDecodeMode() {
+		return decoder.getMode();
+	}
+
+	/**
+	 * If set, loader threads reduce images to the hash input size and only the grayscale values are
+	 * queued, instead of the decoded images. Hashes of reduced images can differ from
+	 * {@link com.github.dozedoff.similarImage.hash.ImagePHash} by a few bits, so exact matches against
+	 * hashes written without this option can be missed.
+	 * 
+	 * @param reduceInLoader
+	 *            true to queue reduced images
+	 */
+	public void setReduceInLoader(boolean reduceInLoader) {
+		logger.info("Reduce images in loader: {}", reduceInLoader);
+		this.reduceInLoader = reduceInLoader;
+	}
+
+	public boolean isReduceInLoader() {
+		return reduceInLoader;
+	}
+
+	/**
+	 * If set, images that already have a record are hashed again when their size or modification
+	 * time has changed.
+	 * 
+	 * @param incremental
+	 *            true to re-hash changed images
+	 */
+	public void setIncremental(boolean incremental) {
+		logger.info("Re-hash changed images: {}", incremental);
+		this.incremental = incremental;
+	}
+
+	public boolean isIncremental() {
+		return incremental;
+	}
+
+	/**
+	 * Paths added to the producer are reported as found, skipped and failed paths as completed.
+	 * 
+	 * @param checkpointer
+	 *            to notify, or null to stop reporting
+	 */
+	public void setCheckpointer(IndexCheckpointer checkpointer) {
+		this.checkpointer = checkpointer;
+	}
 
-		totalProgress = new JProgressBar(processed.get(), total.get());
-		totalProgress.setStringPainted(true);
-		bufferLevel = new JProgressBar(0, maxOutputQueueSize);
-		bufferLevel.setStringPainted(true);
+	public void setMemoryGovernor(MemoryGovernor memoryGovernor) {
+		logger.info("Setting decoded image memory budget to {} bytes", memoryGovernor.getBudget());
+		this.memoryGovernor = memoryGovernor;
 	}
 
-	public JProgressBar getBufferLevel() {
-		return bufferLevel;
+	public MemoryGovernor getMemoryGovernor() {
+		return memoryGovernor;
+	}
+
+	/**
+	 * Set the scheduler that assigns paths to devices and reads them. Paths queued on the old
+	 * scheduler are moved to the new one.
+	 * 
+	 * @param scheduler
+	 *            to load files with
+	 */
+	public synchronized void setDeviceScheduler(DeviceScheduler scheduler) {
+		logger.info("Allowing {} file reads in flight per device", scheduler.getReadsPerDevice());
+		DeviceScheduler old = this.scheduler;
+		this.scheduler = scheduler;
+		List<Path> queued = new ArrayList<Path>();
+
+		while (old.nextBatch(queued, Integer.MAX_VALUE) != null) {
+			scheduler.addAll(queued);
+			queued.clear();
+		}
+	}
+
+	public DeviceScheduler getDeviceScheduler() {
+		return scheduler;
+	}
+
+	/**
+	 * Release the memory charged for an image, once the worker is done with it.
+	 * 
+	 * @param work
+	 *            the processed image
+	 */
+	public void release(ImageWork work) {
+		memoryGovernor.release(work.getMemoryCharge());
+		finished(1);
+	}
+
+	/**
+	 * Wait until all added paths have been skipped, failed, or queued and released by a worker. Unlike
+	 * waiting for the workers to exit, this also returns while a feed is open.
+	 * 
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	public void awaitIdle() throws InterruptedException {
+		while (unfinished.get() > 0) {
+			Thread.sleep(EMPTY_WAIT_TIME);
+		}
 	}
 
 	@Override
 	public void addToLoad(List<Path> paths) {
+		IndexCheckpointer cp = checkpointer;
+
+		if (cp != null) {
+			cp.discovered(paths);
+		}
+
 		total.addAndGet(paths.size());
+		unfinished.addAndGet(paths.size());
 		super.addToLoad(paths);
 	}
 
 	@Override
 	public void addToLoad(Path... paths) {
+		IndexCheckpointer cp = checkpointer;
+
+		if (cp != null) {
+			cp.discovered(Arrays.asList(paths));
+		}
+
 		total.addAndGet(paths.length);
+		unfinished.addAndGet(paths.length);
+		super.addToLoad(paths);
+	}
+
+	/**
+	 * Add paths that are still pending from an interrupted run. They are already stored as pending
+	 * work, so they are not reported to the checkpointer as discovered again.
+	 */
+	public void addPending(List<Path> paths) {
+		total.addAndGet(paths.size());
+		unfinished.addAndGet(paths.size());
 		super.addToLoad(paths);
 	}
 
+	/**
+	 * Add paths of files that are known to have changed. These are checked against the recorded file
+	 * size and modification time, even if incremental mode is off.
+	 */
+	public void addChanged(List<Path> paths) {
+		changed.addAll(paths);
+		addToLoad(paths);
+	}
+
+	/**
+	 * Signal that paths are still being added, so workers keep waiting for work even if the queues
+	 * run empty. Every call must be followed by a call to {@link #closeFeed()}.
+	 */
+	public void openFeed() {
+		openFeeds.incrementAndGet();
+	}
+
+	public void closeFeed() {
+		openFeeds.decrementAndGet();
+	}
+
+	@Override
+	public boolean hasWork() {
+		return openFeeds.get() > 0 || scheduler.getPendingCount() > 0 || super.hasWork();
+	}
+
 	@Override
 	public void clear() {
 		super.clear();
+		scheduler.clear();
+		memoryGovernor.reset();
+		changed.clear();
 		processed.set(0);
 		total.set(0);
+		unfinished.set(0);
+	}
+
+	/**
+	 * @return number of images loaded or skipped since the last {@link #clear()}
+	 */
+	public int getProcessedCount() {
+		return processed.get();
+	}
+
+	/**
+	 * @return number of images added since the last {@link #clear()}
+	 */
+	public int getTotalCount() {
+		return total.get();
+	}
+
+	/**
+	 * Run loaders on the executor instead of dedicated threads. Loaders run until the executor is shut
+	 * down, or the number of loaders is reduced.
+	 * 
+	 * @param executor
+	 *            to run the loaders on
+	 * @param numOfLoaders
+	 *            number of loaders to start
+	 */
+	public synchronized void startLoader(ExecutorService executor, int numOfLoaders) {
+		this.loaderExecutor = executor;
+		setLoaderCount(numOfLoaders);
+	}
+
+	/**
+	 * Change the number of loaders. Additional loaders are started right away, surplus loaders exit
+	 * after finishing their current batch.
+	 * 
+	 * @param numOfLoaders
+	 *            the new number of loaders
+	 */
+	public synchronized void setLoaderCount(int numOfLoaders) {
+		if (loaderExecutor == null) {
+			throw new IllegalStateException("Loaders have not been started");
+		}
+
+		loaderTarget.set(numOfLoaders);
+
+		while (runningLoaders.get() < numOfLoaders) {
+			runningLoaders.incrementAndGet();
+			loaderExecutor.execute(new Loader());
+		}
 	}
 
-	public JProgressBar getTotalProgress() {
-		return totalProgress;
+	public int getLoaderCount() {
+		return loaderTarget.get();
+	}
+
+	/**
+	 * @return number of images waiting to be loaded
+	 */
+	public int getPendingCount() {
+		return input.size() + scheduler.getPendingCount();
+	}
+
+	/**
+	 * @return number of loaded images waiting to be hashed
+	 */
+	public int getQueuedCount() {
+		return output.size();
+	}
+
+	public int getMaxQueuedCount() {
+		return maxOutputQueueSize;
+	}
+
+	/**
+	 * @return number of images that were not decoded, because an identical file was already hashed
+	 */
+	public long getReusedHashCount() {
+		return reusedHashes.get();
+	}
+
+	/**
+	 * @return total number of loaded images handed to workers
+	 */
+	public long getDrainedCount() {
+		return drained.get();
+	}
+
+	private class Loader implements Runnable {
+		@Override
+		public void run() {
+			// a surplus loader has already been removed from the count
+			boolean counted = true;
+
+			try {
+				while (!Thread.currentThread().isInterrupted()) {
+					if (isSurplus()) {
+						counted = false;
+						logger.debug("{} exiting, loader count reduced", Thread.currentThread().getName());
+						return;
+					}
+
+					try {
+						loaderDoWork();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} catch (RuntimeException e) {
+						logger.error("{} failed to load a batch", Thread.currentThread().getName(), e);
+					}
+				}
+			} finally {
+				if (counted) {
+					runningLoaders.decrementAndGet();
+				}
+			}
+		}
+
+		private boolean isSurplus() {
+			int running = runningLoaders.get();
+			return running > loaderTarget.get() && runningLoaders.compareAndSet(running, running - 1);
+		}
 	}
 
+	/**
+	 * Load a batch of images from one device. Reads for the batch are started up front, so they are in
+	 * flight while earlier images are decoded. If no more reads may be started on the device, the
+	 * oldest read is finished first.
+	 */
 	@Override
 	protected void loaderDoWork() throws InterruptedException {
-		Path n = null;
 		ArrayList<Path> work = new ArrayList<Path>(WORK_BATCH_SIZE + 1);
+		LinkedList<LoadingFile> reads = new LinkedList<LoadingFile>();
 
-		if (isBufferFilled() || input.isEmpty()) {
+		if (isBufferFilled() || getPendingCount() == 0) {
 			synchronized (output) {
 				output.notifyAll();
 			}
 		}
 
-		n = input.take();
-		work.add(n);
-		input.drainTo(work, WORK_BATCH_SIZE);
+		DeviceScheduler currentScheduler = scheduler;
+		Device device = nextBatch(currentScheduler, work);
 
-		for (Path p : work) {
-			try {
-				processFile(p);
-			} catch (IIOException e) {
-				logger.warn("Failed to process image(IIO) - {}", e.getMessage());
-				try {
-					persistence.addBadFile(new BadFileRecord(p));
-				} catch (SQLException e1) {
-					logger.warn("Failed to add bad file record for {} - {}", p, e.getMessage());
-				}
-			} catch (IOException e) {
-				logger.warn("Failed to load file - {}", e.getMessage());
-			} catch (SQLException e) {
-				logger.warn("Failed to query database - {}", e.getMessage());
-			} catch (Exception e) {
-				logger.warn("Failed to process image(other) - {}", e.getMessage());
+		try {
+			for (Path p : work) {
 				try {
-					persistence.addBadFile(new BadFileRecord(p));
-				} catch (SQLException e1) {
-					logger.warn("Failed to add bad file record for {} - {}", p, e.getMessage());
+					startRead(p, reads, device.getReader());
+				} catch (Exception e) {
+					handleFailure(p, e);
 				}
 			}
+
+			while (!reads.isEmpty()) {
+				finishRead(reads.poll());
+			}
+		} finally {
+			for (LoadingFile file : reads) {
+				closeQuietly(file.read);
+				file.read.release();
+			}
+
+			// queued images were counted again, they are finished when the worker releases them
+			finished(work.size());
+		}
+	}
+
+	/**
+	 * Move new paths to the scheduler and take a batch from it, waiting for new paths if none are
+	 * queued.
+	 */
+	private Device nextBatch(DeviceScheduler currentScheduler, List<Path> work) throws InterruptedException {
+		List<Path> added = new ArrayList<Path>();
+
+		while (true) {
+			input.drainTo(added);
+
+			if (!added.isEmpty()) {
+				currentScheduler.addAll(added);
+				added.clear();
+			}
+
+			Device device = currentScheduler.nextBatch(work, WORK_BATCH_SIZE + 1);
+
+			if (device != null) {
+				return device;
+			}
+
+			added.add(input.take());
+		}
+	}
+
+	private void handleFailure(Path p, Exception e) throws InterruptedException {
+		if (e instanceof InterruptedException) {
+			throw (InterruptedException) e;
+		} else if (e instanceof DecodeLimitException) {
+			logger.warn("Skipping image {} - {}", p, e.getMessage());
+			markBadFile(p, e.getMessage());
+		} else if (e instanceof IIOException) {
+			logger.warn("Failed to process image(IIO) - {}", e.getMessage());
+			markBadFile(p, e.getMessage());
+		} else if (e instanceof NoSuchFileException) {
+			logger.warn("File no longer exists - {}", e.getMessage());
+			markCompleted(p);
+		} else if (e instanceof IOException) {
+			// may be transient, leave it pending so a resumed run tries again
+			logger.warn("Failed to load file - {}", e.getMessage());
+		} else if (e instanceof SQLException) {
+			logger.warn("Failed to query database - {}", e.getMessage());
+		} else {
+			logger.warn("Failed to process image(other) - {}", e.getMessage());
+			markBadFile(p, e.toString());
+		}
+	}
+
+	/**
+	 * Record an image that was loaded but could not be hashed as a bad file, so it is not retried.
+	 * 
+	 * @param path
+	 *            of the image
+	 * @param reason
+	 *            why the image could not be hashed
+	 */
+	public void markBadFile(Path path, String reason) {
+		try {
+			persistence.addBadFile(new BadFileRecord(path, reason));
+			markCompleted(path);
+		} catch (SQLException e) {
+			logger.warn("Failed to add bad file record for {} - {}", path, e.getMessage());
+		}
+	}
+
+	private void markCompleted(Path path) {
+		IndexCheckpointer cp = checkpointer;
+
+		if (cp != null) {
+			cp.completed(path);
 		}
 	}
 
-	private void processFile(Path next) throws SQLException, IOException, InterruptedException {
-		if (persistence.isBadFile(next) || persistence.isPathRecorded(next)) {
-			processed.addAndGet(1);
-			totalProgress.setValue(processed.get());
+	/**
+	 * Check if the file needs to be processed, and start reading it. Reads that are already in flight
+	 * are finished until a new read can be started.
+	 */
+	private void startRead(Path next, LinkedList<LoadingFile> reads, AsyncFileReader reader) throws SQLException, IOException,
+			InterruptedException {
+		if (persistence.isBadFile(next)) {
+			skipFile(next);
 			return;
 		}
 
-		byte[] data = Files.readAllBytes(next);
-		InputStream is = new ByteArrayInputStream(data);
-		BufferedImage img = ImageIO.read(is);
+		BasicFileAttributes attributes = null;
 
-		Pair<Path, BufferedImage> pair = new Pair<Path, BufferedImage>(next, img);
-		output.put(pair);
+		if (incremental || changed.remove(next)) {
+			attributes = Files.readAttributes(next, BasicFileAttributes.class);
 
-		processed.addAndGet(1);
-		totalProgress.setValue(processed.get());
+			if (persistence.isUnchanged(next, attributes.size(), attributes.lastModifiedTime().toMillis())) {
+				skipFile(next);
+				return;
+			}
+		} else if (persistence.isPathRecorded(next)) {
+			skipFile(next);
+			return;
+		}
+
+		if (attributes == null) {
+			attributes = Files.readAttributes(next, BasicFileAttributes.class);
+		}
+
+		PendingRead read = reader.tryRead(next, attributes.size());
+
+		while (read == null) {
+			if (reads.isEmpty()) {
+				read = reader.read(next, attributes.size());
+			} else {
+				finishRead(reads.poll());
+				read = reader.tryRead(next, attributes.size());
+			}
+		}
+
+		reads.add(new LoadingFile(read, attributes));
 	}
 
-	@Override
-	protected void outputQueueChanged() {
-		bufferLevel.setValue(output.size());
+	private void finishRead(LoadingFile file) throws InterruptedException {
+		PendingRead read = file.read;
+
+		try {
+			processFile(file, read.await());
+		} catch (Exception e) {
+			handleFailure(read.getPath(), e);
+		} finally {
+			closeQuietly(read);
+
+			if (file.bufferInUse) {
+				read.discard();
+			} else {
+				read.release();
+			}
+		}
+	}
+
+	private void processFile(LoadingFile file, ByteBuffer data) throws SQLException, IOException, InterruptedException {
+		Path next = file.read.getPath();
+		BasicFileAttributes attributes = file.attributes;
+		int size = data.remaining();
+		long contentHash = ContentDigest.hash(data);
+		ImageRecord identical = persistence.getRecordByContent(size, contentHash);
+
+		if (identical != null) {
+			logger.debug("{} is identical to {}, reusing hash", next, identical.getPath());
+			queue(new ImageWork(next, identical.getpHash(), size, attributes.lastModifiedTime().toMillis(), contentHash));
+			reusedHashes.incrementAndGet();
+		} else {
+			decodeAndQueue(file, data, contentHash);
+		}
+
+		processed.incrementAndGet();
+	}
+
+	/**
+	 * A file being read, with the attributes read before the read was started.
+	 */
+	private static class LoadingFile {
+		private final PendingRead read;
+		private final BasicFileAttributes attributes;
+		private boolean bufferInUse = false;
+
+		public LoadingFile(PendingRead read, BasicFileAttributes attributes) {
+			this.read = read;
+			this.attributes = attributes;
+		}
+	}
+
+	/**
+	 * Hand the image to the workers. It stays unfinished until the worker releases it.
+	 */
+	private void queue(ImageWork work) throws InterruptedException {
+		unfinished.incrementAndGet();
+
+		try {
+			output.put(work);
+		} catch (InterruptedException e) {
+			finished(1);
+			throw e;
+		}
+	}
+
+	/**
+	 * Count paths as finished. Work that was in flight during a {@link #clear()} is no longer counted,
+	 * so the count stops at zero.
+	 */
+	private void finished(int count) {
+		int current;
+
+		do {
+			current = unfinished.get();
+		} while (!unfinished.compareAndSet(current, Math.max(0, current - count)));
+	}
+
+	private void closeQuietly(PendingRead read) {
+		try {
+			read.close();
+		} catch (IOException e) {
+			logger.debug("Failed to close {} - {}", read.getPath(), e.getMessage());
+		}
+	}
+
+	private void skipFile(Path path) {
+		markCompleted(path);
+		processed.incrementAndGet();
+	}
+
+	/**
+	 * Decode the image once its estimated size fits into the memory budget. Reduced images release
+	 * the charge right away, full images keep it until the worker calls {@link #release(ImageWork)}.<br>
+	 * If an aborted decode may still be reading the data, the file is marked so its buffer is not
+	 * reused.
+	 */
+	private void decodeAndQueue(LoadingFile file, ByteBuffer data, long contentHash) throws IOException, InterruptedException {
+		Path path = file.read.getPath();
+		BasicFileAttributes attributes = file.attributes;
+		DecodeHandle handle = decoder.open(data);
+		long fileSize = attributes.size();
+		long lastModified = attributes.lastModifiedTime().toMillis();
+		long charge = handle.getEstimatedBytes();
+		boolean queued = false;
+
+		try {
+			memoryGovernor.acquire(charge);
+		} catch (InterruptedException e) {
+			handle.close();
+			throw e;
+		}
+
+		try {
+			BufferedImage img = handle.read();
+
+			if (reduceInLoader) {
+				byte[] reduced = new byte[PhashWorker.HASH_SIZE * PhashWorker.HASH_SIZE];
+				samplers.get().sample(img, reduced);
+				queue(new ImageWork(path, reduced, fileSize, lastModified, contentHash));
+			} else {
+				queue(new ImageWork(path, img, charge, fileSize, lastModified, contentHash));
+				queued = true;
+			}
+		} finally {
+			if (!queued) {
+				memoryGovernor.release(charge);
+			}
+
+			handle.close();
+			file.bufferInUse = !handle.isDisposed();
+		}
 	}
 
 	@Override
-	public void drainTo(Collection<Pair<Path, BufferedImage>> drainTo, int maxElements) throws InterruptedException {
-		if (isBufferLow() && (!input.isEmpty())) {
+	public void drainTo(Collection<ImageWork> drainTo, int maxElements) throws InterruptedException {
+		int before = drainTo.size();
+
+		try {
+			drainWork(drainTo, maxElements);
+		} finally {
+			drained.addAndGet(drainTo.size() - before);
+		}
+	}
+
+	private void drainWork(Collection<ImageWork> drainTo, int maxElements) throws InterruptedException {
+		if (isBufferLow() && getPendingCount() > 0) {
 			synchronized (output) {
 				logger.debug("Low buffer, suspending drain");
 
@@ -169,6 +741,18 @@ public class ImageProducer extends DataProducer<Path, Pair<Path, BufferedImage>>
 				logger.debug("Buffer re-filled, resuming drain");
 			}
 		}
+
+		if (output.isEmpty() && openFeeds.get() > 0) {
+			ImageWork first = output.poll(EMPTY_WAIT_TIME, TimeUnit.MILLISECONDS);
+
+			if (first == null) {
+				return;
+			}
+
+			drainTo.add(first);
+			maxElements--;
+		}
+
 		super.drainTo(drainTo, maxElements);
 	}
 
@@ -0,0 +1,159 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.io;
+
+import java.awt.image.BufferedImage;
+import java.nio.file.Path;
+
+/**
+ * A loaded image waiting to be hashed. Holds either the decoded image, the grayscale values already
+ * reduced to the hash input size, or the hash itself if it is known from an identical file.
+ */
+public class ImageWork {
+	private final Path path;
+	private final BufferedImage image;
+	private final byte[] reduced;
+	private final long memoryCharge;
+	private final long fileSize;
+	private final long lastModified;
+	private final long contentHash;
+	private final long pHash;
+	private final boolean hashed;
+
+	public ImageWork(Path path, BufferedImage image) {
+		this(path, image, 0, 0, 0, 0);
+	}
+
+	/**
+	 * @param path
+	 *            of the image
+	 * @param image
+	 *            decoded image
+	 * @param memoryCharge
+	 *            bytes charged to the {@link MemoryGovernor} for this image
+	 * @param fileSize
+	 *            size of the image file in bytes
+	 * @param lastModified
+	 *            modification time of the image file
+	 * @param contentHash
+	 *            {@link ContentDigest} of the image file, 0 if unknown
+	 */
+	public ImageWork(Path path, BufferedImage image, long memoryCharge, long fileSize, long lastModified, long contentHash) {
+		this.path = path;
+		this.image = image;
+		this.reduced = null;
+		this.memoryCharge = memoryCharge;
+		this.fileSize = fileSize;
+		this.lastModified = lastModified;
+		this.contentHash = contentHash;
+		this.pHash = 0;
+		this.hashed = false;
+	}
+
+	/**
+	 * @param path
+	 *            of the image
+	 * @param reduced
+	 *            grayscale values as produced by
+	 *            {@link com.github.dozedoff.similarImage.hash.GrayscaleSampler}
+	 * @param fileSize
+	 *            size of the image file in bytes
+	 * @param lastModified
+	 *            modification time of the image file
+	 * @param contentHash
+	 *            {@link ContentDigest} of the image file, 0 if unknown
+	 */
+	public ImageWork(Path path, byte[] reduced, long fileSize, long lastModified, long contentHash) {
+		this.path = path;
+		this.image = null;
+		this.reduced = reduced;
+		this.memoryCharge = 0;
+		this.fileSize = fileSize;
+		this.lastModified = lastModified;
+		this.contentHash = contentHash;
+		this.pHash = 0;
+		this.hashed = false;
+	}
+
+	/**
+	 * @param path
+	 *            of the image
+	 * @param pHash
+	 *            known hash of the image
+	 * @param fileSize
+	 *            size of the image file in bytes
+	 * @param lastModified
+	 *            modification time of the image file
+	 * @param contentHash
+	 *            {@link ContentDigest} of the image file
+	 */
+	public ImageWork(Path path, long pHash, long fileSize, long lastModified, long contentHash) {
+		this.path = path;
+		this.image = null;
+		this.reduced = null;
+		this.memoryCharge = 0;
+		this.fileSize = fileSize;
+		this.lastModified = lastModified;
+		this.contentHash = contentHash;
+		this.pHash = pHash;
+		this.hashed = true;
+	}
+
+	public Path getPath() {
+		return path;
+	}
+
+	public BufferedImage getImage() {
+		return image;
+	}
+
+	public byte[] getReduced() {
+		return reduced;
+	}
+
+	public long getMemoryCharge() {
+		return memoryCharge;
+	}
+
+	public long getFileSize() {
+		return fileSize;
+	}
+
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	public long getContentHash() {
+		return contentHash;
+	}
+
+	public boolean isReduced() {
+		return reduced != null;
+	}
+
+	/**
+	 * @return true if the hash is already known and the image does not need to be hashed
+	 */
+	public boolean isHashed() {
+		return hashed;
+	}
+
+	public long getpHash() {
+		return pHash;
+	}
+}
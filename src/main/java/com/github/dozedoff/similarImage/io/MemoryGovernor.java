@@ -0,0 +1,143 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.io;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Limits the memory held by decoded images. Loaders acquire the estimated size of an image before
+ * decoding it and the charge is released once the image is no longer needed. A single image larger
+ * than the budget is allowed through when nothing else is in flight.
+ */
+public class MemoryGovernor {
+	private static final Logger logger = LoggerFactory.getLogger(MemoryGovernor.class);
+	private static final long MEGABYTE = 1024 * 1024;
+
+	private final long budget;
+	private long inFlight = 0;
+	private long peak = 0;
+	private long throttled = 0;
+	private long charges = 0;
+
+	/**
+	 * @param budget
+	 *            maximum number of bytes that may be in flight
+	 */
+	public MemoryGovernor(long budget) {
+		if (budget < 1) {
+			throw new IllegalArgumentException("Budget must be positive");
+		}
+
+		this.budget = budget;
+	}
+
+	/**
+	 * Create a governor with a budget relative to the maximum heap size.
+	 * 
+	 * @param fraction
+	 *            of the maximum heap to use
+	 * @return a new governor
+	 */
+	public static MemoryGovernor fromHeapFraction(double fraction) {
+		long maxHeap = Runtime.getRuntime().maxMemory();
+		return new MemoryGovernor((long) (maxHeap * fraction));
+	}
+
+	/**
+	 * Estimate the heap needed for a decoded image.
+	 * 
+	 * @param width
+	 *            of the decoded image
+	 * @param height
+	 *            of the decoded image
+	 * @return estimated size in bytes
+	 */
+	public static long estimateImageBytes(int width, int height) {
+		return (long) width * height * 4;
+	}
+
+	/**
+	 * Block until the given number of bytes fit into the budget.
+	 * 
+	 * @param bytes
+	 *            to charge
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	public synchronized void acquire(long bytes) throws InterruptedException {
+		if (inFlight > 0 && inFlight + bytes > budget) {
+			throttled++;
+			logger.debug("Throttling charge of {} bytes - {}", bytes, this);
+
+			while (inFlight > 0 && inFlight + bytes > budget) {
+				wait();
+			}
+		}
+
+		inFlight += bytes;
+		charges++;
+
+		if (inFlight > peak) {
+			peak = inFlight;
+		}
+	}
+
+	public synchronized void release(long bytes) {
+		inFlight -= bytes;
+
+		if (inFlight < 0) {
+			inFlight = 0;
+		}
+
+		notifyAll();
+	}
+
+	/**
+	 * Drop all charges, used when queued work is discarded.
+	 */
+	public synchronized void reset() {
+		inFlight = 0;
+		notifyAll();
+	}
+
+	public long getBudget() {
+		return budget;
+	}
+
+	public synchronized long getInFlight() {
+		return inFlight;
+	}
+
+	public synchronized long getPeak() {
+		return peak;
+	}
+
+	/**
+	 * @return number of charges that had to wait for memory
+	 */
+	public synchronized long getThrottled() {
+		return throttled;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "Memory in flight: " + inFlight / MEGABYTE + " MB of " + budget / MEGABYTE + " MB, peak " + peak / MEGABYTE
+				+ " MB, " + throttled + " of " + charges + " decodes throttled";
+	}
+}
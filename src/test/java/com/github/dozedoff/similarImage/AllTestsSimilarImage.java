@@ -22,6 +22,6 @@ import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
 @RunWith(Suite.class)
-@SuiteClasses({ DuplicateTests.class })
+@SuiteClasses({ AppTests.class, DbTests.class, DuplicateTests.class, HashTests.class, IoTests.class })
 public class AllTestsSimilarImage {
 }
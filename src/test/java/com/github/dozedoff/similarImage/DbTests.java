@@ -0,0 +1,40 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+import org.junit.runners.Suite.SuiteClasses;
+
+import com.github.dozedoff.similarImage.db.DBWriterTest;
+import com.github.dozedoff.similarImage.db.DirectoryIndexTest;
+import com.github.dozedoff.similarImage.db.HashLogTest;
+import com.github.dozedoff.similarImage.db.ImageRecordTest;
+import com.github.dozedoff.similarImage.db.IndexCheckpointerTest;
+import com.github.dozedoff.similarImage.db.LongLongHashMapTest;
+import com.github.dozedoff.similarImage.db.RecordHashesTest;
+import com.github.dozedoff.similarImage.db.PersistenceBatchTest;
+import com.github.dozedoff.similarImage.db.PersistenceTest;
+import com.github.dozedoff.similarImage.db.ReadConnectionPoolTest;
+import com.github.dozedoff.similarImage.db.SchemaMigratorTest;
+import com.github.dozedoff.similarImage.db.WriteJournalTest;
+
+@RunWith(Suite.class)
+@SuiteClasses({ DBWriterTest.class, DirectoryIndexTest.class, HashLogTest.class, ImageRecordTest.class, IndexCheckpointerTest.class, LongLongHashMapTest.class, RecordHashesTest.class, PersistenceBatchTest.class, PersistenceTest.class, ReadConnectionPoolTest.class, SchemaMigratorTest.class, WriteJournalTest.class })
+public class DbTests {
+}
@@ -22,9 +22,12 @@ import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
 import com.github.dozedoff.similarImage.duplicate.CompareTest;
+import com.github.dozedoff.similarImage.duplicate.GroupExporterTest;
+import com.github.dozedoff.similarImage.duplicate.HashSnapshotTest;
+import com.github.dozedoff.similarImage.duplicate.HashTreeTest;
 import com.github.dozedoff.similarImage.duplicate.SortSimilarTest;
 
 @RunWith(Suite.class)
-@SuiteClasses({ CompareTest.class, SortSimilarTest.class })
+@SuiteClasses({ CompareTest.class, GroupExporterTest.class, HashSnapshotTest.class, HashTreeTest.class, SortSimilarTest.class })
 public class DuplicateTests {
 }
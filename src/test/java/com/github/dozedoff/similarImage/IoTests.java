@@ -0,0 +1,35 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+import org.junit.runners.Suite.SuiteClasses;
+
+import com.github.dozedoff.similarImage.io.BufferPoolTest;
+import com.github.dozedoff.similarImage.io.ByteBufferImageInputStreamTest;
+import com.github.dozedoff.similarImage.io.ContentDigestTest;
+import com.github.dozedoff.similarImage.io.DeviceSchedulerTest;
+import com.github.dozedoff.similarImage.io.DirectoryWatcherTest;
+import com.github.dozedoff.similarImage.io.ImageFinderTest;
+import com.github.dozedoff.similarImage.io.MemoryGovernorTest;
+
+@RunWith(Suite.class)
+@SuiteClasses({ BufferPoolTest.class, ByteBufferImageInputStreamTest.class, ContentDigestTest.class, DeviceSchedulerTest.class, DirectoryWatcherTest.class, ImageFinderTest.class, MemoryGovernorTest.class })
+public class IoTests {
+}
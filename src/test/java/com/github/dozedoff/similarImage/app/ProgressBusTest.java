@@ -0,0 +1,106 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.app;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ProgressBusTest {
+	private static final long PERIOD = 100;
+
+	private ProgressBus bus;
+	private RecordingListener fast;
+	private RecordingListener slow;
+
+	@Before
+	public void setUp() throws Exception {
+		bus = new ProgressBus(null, PERIOD);
+		fast = new RecordingListener();
+		slow = new RecordingListener();
+		bus.subscribe(fast);
+		bus.subscribe(slow, 10 * PERIOD);
+	}
+
+	@Test
+	public void testIntervalPerSubscriber() throws Exception {
+		for (int i = 1; i <= 20; i++) {
+			bus.publish(snapshot(i * PERIOD, i));
+		}
+
+		assertThat(fast.received.size(), is(20));
+		assertThat(slow.received.size(), is(2));
+	}
+
+	@Test
+	public void testUnchangedNotSent() throws Exception {
+		bus.publish(snapshot(PERIOD, 5));
+		bus.publish(snapshot(2 * PERIOD, 5));
+
+		assertThat(fast.received.size(), is(1));
+	}
+
+	@Test
+	public void testLatest() throws Exception {
+		ProgressSnapshot snapshot = snapshot(PERIOD, 5);
+		bus.publish(snapshot);
+
+		assertThat(bus.getLatest(), is(snapshot));
+	}
+
+	@Test
+	public void testUnsubscribe() throws Exception {
+		bus.unsubscribe(fast);
+		bus.publish(snapshot(PERIOD, 5));
+
+		assertThat(fast.received.size(), is(0));
+	}
+
+	@Test
+	public void testFailingListenerDoesNotStopOthers() throws Exception {
+		bus = new ProgressBus(null, PERIOD);
+		bus.subscribe(new ProgressListener() {
+			@Override
+			public void progressChanged(ProgressSnapshot snapshot) {
+				throw new IllegalStateException("test");
+			}
+		});
+		bus.subscribe(fast);
+		bus.publish(snapshot(PERIOD, 5));
+
+		assertThat(fast.received.size(), is(1));
+	}
+
+	private ProgressSnapshot snapshot(long time, int processed) {
+		return new ProgressSnapshot(time, processed, 100, 0, 10, processed, 0, 0);
+	}
+
+	private static class RecordingListener implements ProgressListener {
+		private final List<ProgressSnapshot> received = new LinkedList<ProgressSnapshot>();
+
+		@Override
+		public void progressChanged(ProgressSnapshot snapshot) {
+			received.add(snapshot);
+		}
+	}
+}
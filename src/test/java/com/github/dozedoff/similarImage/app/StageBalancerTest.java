@@ -0,0 +1,119 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.app;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class StageBalancerTest {
+	private static final int CAPACITY = 100;
+
+	private TestStage loaders;
+	private TestStage hashers;
+	private StageBalancer balancer;
+
+	@Before
+	public void setUp() throws Exception {
+		loaders = new TestStage(4);
+		hashers = new TestStage(4);
+		balancer = new StageBalancer(null, loaders, hashers);
+	}
+
+	@Test
+	public void testFullQueueMovesToHashing() throws Exception {
+		assertThat(balancer.balance(90, CAPACITY, 500, 100.0), is(-1));
+		assertThat(loaders.threads, is(3));
+		assertThat(hashers.threads, is(5));
+	}
+
+	@Test
+	public void testEmptyQueueMovesToLoading() throws Exception {
+		assertThat(balancer.balance(5, CAPACITY, 500, 100.0), is(1));
+		assertThat(loaders.threads, is(5));
+		assertThat(hashers.threads, is(3));
+	}
+
+	@Test
+	public void testEmptyQueueNothingToLoad() throws Exception {
+		assertThat(balancer.balance(5, CAPACITY, 0, 100.0), is(0));
+		assertThat(loaders.threads, is(4));
+	}
+
+	@Test
+	public void testBalancedQueue() throws Exception {
+		assertThat(balancer.balance(50, CAPACITY, 500, 100.0), is(0));
+	}
+
+	@Test
+	public void testKeepsOneThreadPerStage() throws Exception {
+		loaders.threads = 1;
+		assertThat(balancer.balance(90, CAPACITY, 500, 100.0), is(0));
+		assertThat(loaders.threads, is(1));
+	}
+
+	@Test
+	public void testUndoOnRateDrop() throws Exception {
+		balancer.balance(90, CAPACITY, 500, 100.0);
+
+		assertThat(balancer.balance(90, CAPACITY, 500, 50.0), is(1));
+		assertThat(loaders.threads, is(4));
+		assertThat(hashers.threads, is(4));
+	}
+
+	@Test
+	public void testHoldAfterUndo() throws Exception {
+		balancer.balance(90, CAPACITY, 500, 100.0);
+		balancer.balance(90, CAPACITY, 500, 50.0);
+
+		for (int i = 0; i < StageBalancer.HOLD_INTERVALS; i++) {
+			assertThat(balancer.balance(90, CAPACITY, 500, 50.0), is(0));
+		}
+
+		assertThat(balancer.balance(90, CAPACITY, 500, 50.0), is(-1));
+	}
+
+	@Test
+	public void testKeepsMoveOnRateIncrease() throws Exception {
+		balancer.balance(90, CAPACITY, 500, 100.0);
+
+		assertThat(balancer.balance(90, CAPACITY, 500, 120.0), is(-1));
+		assertThat(loaders.threads, is(2));
+		assertThat(hashers.threads, is(6));
+	}
+
+	private static class TestStage implements StageBalancer.Stage {
+		int threads;
+
+		public TestStage(int threads) {
+			this.threads = threads;
+		}
+
+		@Override
+		public int getThreadCount() {
+			return threads;
+		}
+
+		@Override
+		public void setThreadCount(int threads) {
+			this.threads = threads;
+		}
+	}
+}
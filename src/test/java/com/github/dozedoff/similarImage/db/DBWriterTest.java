@@ -0,0 +1,100 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.db;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DBWriterTest {
+	/**
+	 * Shorter than the group commit time, so the daemon is still collecting.
+	 */
+	private static final long COLLECTING_DELAY = 200;
+	private static final long GROUP_COMMIT_DELAY = 1500;
+
+	private Path journalFile;
+	private Persistence persistence;
+	private DBWriter writer;
+
+	@Before
+	public void setUp() throws Exception {
+		journalFile = Files.createTempFile("similarImage", ".journal");
+		Files.delete(journalFile);
+		persistence = mock(Persistence.class);
+		writer = new DBWriter(persistence, new WriteJournal(journalFile));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Files.deleteIfExists(journalFile);
+	}
+
+	@Test
+	public void testGroupIsWritten() throws Exception {
+		List<ImageRecord> records = Arrays.asList(new ImageRecord("foo", 1L));
+		writer.add(records);
+		Thread.sleep(GROUP_COMMIT_DELAY);
+
+		verify(persistence).batchAddRecord(records);
+		assertThat(writer.getQueuedRecords(), is(0));
+	}
+
+	@Test
+	public void testFlushWritesCollectedGroup() throws Exception {
+		List<ImageRecord> records = Arrays.asList(new ImageRecord("foo", 1L), new ImageRecord("bar", 2L));
+		writer.add(records);
+		Thread.sleep(COLLECTING_DELAY);
+		writer.flush();
+
+		verify(persistence).batchAddRecord(records);
+		assertThat(writer.getQueuedRecords(), is(0));
+
+		Thread.sleep(GROUP_COMMIT_DELAY);
+
+		verify(persistence, times(1)).batchAddRecord(records);
+	}
+
+	@Test
+	public void testFlushWritesQueued() throws Exception {
+		List<ImageRecord> records = Arrays.asList(new ImageRecord("foo", 1L));
+		writer.add(records);
+		writer.flush();
+
+		verify(persistence).batchAddRecord(records);
+	}
+
+	@Test
+	public void testFlushEmpty() throws Exception {
+		writer.flush();
+
+		verify(persistence, never()).batchAddRecord(Arrays.asList(new ImageRecord("foo", 1L)));
+	}
+}
@@ -0,0 +1,81 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.db;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class DirectoryIndexTest {
+	private static final String SEP = File.separator;
+
+	private DirectoryIndex index;
+
+	@Before
+	public void setUp() throws Exception {
+		index = new DirectoryIndex();
+		index.add(1, SEP + "images" + SEP);
+		index.add(2, SEP + "images" + SEP + "cats" + SEP);
+		index.add(3, SEP + "images2" + SEP);
+		index.add(4, SEP + "other" + SEP);
+	}
+
+	@Test
+	public void testGetPath() throws Exception {
+		assertThat(index.getPath(2), is(SEP + "images" + SEP + "cats" + SEP));
+		assertThat(index.getPath(5), is(nullValue()));
+	}
+
+	@Test
+	public void testGetId() throws Exception {
+		assertThat(index.getId(SEP + "other" + SEP), is(4));
+		assertThat(index.getId(SEP + "other"), is(nullValue()));
+	}
+
+	@Test
+	public void testGetIdsBelow() throws Exception {
+		assertThat(index.getIdsBelow(SEP + "images" + SEP), is(Arrays.asList(1, 2)));
+	}
+
+	@Test
+	public void testGetIdsBelowLeaf() throws Exception {
+		assertThat(index.getIdsBelow(SEP + "images" + SEP + "cats" + SEP), is(Arrays.asList(2)));
+	}
+
+	@Test
+	public void testGetIdsBelowRoot() throws Exception {
+		assertThat(index.getIdsBelow(SEP), is(Arrays.asList(1, 2, 3, 4)));
+	}
+
+	@Test
+	public void testGetIdsBelowUnknown() throws Exception {
+		assertThat(index.getIdsBelow(SEP + "missing" + SEP), is(Collections.<Integer> emptyList()));
+	}
+
+	@Test
+	public void testSize() throws Exception {
+		assertThat(index.size(), is(4));
+	}
+}
@@ -0,0 +1,166 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.db;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HashLogTest {
+	private Path logFile;
+	private HashLog log;
+
+	private Map<Integer, Long> changed;
+	private Set<Integer> removed;
+
+	@Before
+	public void setUp() throws Exception {
+		logFile = Files.createTempFile("similarImage", ".log");
+		Files.delete(logFile);
+		log = new HashLog(logFile);
+
+		changed = new HashMap<Integer, Long>();
+		removed = new HashSet<Integer>();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		log.close();
+		Files.deleteIfExists(logFile);
+	}
+
+	private ImageRecord record(int id, long pHash) {
+		return new ImageRecord(id, 1, "dir/", "file" + id, pHash, 0, 0, 0);
+	}
+
+	@Test
+	public void testEmpty() throws Exception {
+		log.read(changed, removed);
+
+		assertThat(log.size(), is(0L));
+		assertThat(changed.isEmpty(), is(true));
+		assertThat(removed.isEmpty(), is(true));
+	}
+
+	@Test
+	public void testLatestHashWins() throws Exception {
+		log.added(Arrays.asList(record(1, 10L), record(2, 20L)));
+		log.added(Arrays.asList(record(1, 11L)));
+		log.read(changed, removed);
+
+		assertThat(log.size(), is(3L));
+		assertThat(changed.get(1), is(11L));
+		assertThat(changed.get(2), is(20L));
+	}
+
+	@Test
+	public void testRemovedAfterAdded() throws Exception {
+		log.added(Arrays.asList(record(1, 10L), record(2, 20L)));
+		log.removed(Arrays.asList(1));
+		log.read(changed, removed);
+
+		assertThat(changed.containsKey(1), is(false));
+		assertThat(removed.contains(1), is(true));
+		assertThat(changed.get(2), is(20L));
+	}
+
+	@Test
+	public void testAddedAfterRemoved() throws Exception {
+		log.removed(Arrays.asList(1));
+		log.added(Arrays.asList(record(1, 10L)));
+		log.read(changed, removed);
+
+		assertThat(changed.get(1), is(10L));
+		assertThat(removed.isEmpty(), is(true));
+	}
+
+	@Test
+	public void testRecordWithoutIdSkipped() throws Exception {
+		log.added(Arrays.asList(record(0, 10L)));
+
+		assertThat(log.size(), is(0L));
+	}
+
+	@Test
+	public void testPartialEntryIgnored() throws Exception {
+		log.added(Arrays.asList(record(1, 10L), record(2, 20L)));
+		log.close();
+
+		RandomAccessFile raf = new RandomAccessFile(logFile.toFile(), "rw");
+		raf.setLength(raf.length() - 5);
+		raf.close();
+
+		log.read(changed, removed);
+
+		assertThat(changed.size(), is(1));
+		assertThat(changed.get(1), is(10L));
+	}
+
+	@Test
+	public void testAppendAfterPartialEntry() throws Exception {
+		log.added(Arrays.asList(record(1, 10L), record(2, 20L)));
+		log.close();
+
+		RandomAccessFile raf = new RandomAccessFile(logFile.toFile(), "rw");
+		raf.setLength(raf.length() - 5);
+		raf.close();
+
+		log.added(Arrays.asList(record(3, 30L)));
+		log.read(changed, removed);
+
+		assertThat(log.size(), is(2L));
+		assertThat(changed.size(), is(2));
+		assertThat(changed.get(1), is(10L));
+		assertThat(changed.get(3), is(30L));
+	}
+
+	@Test
+	public void testDropEntries() throws Exception {
+		log.added(Arrays.asList(record(1, 10L), record(2, 20L)));
+		long mark = log.size();
+		log.added(Arrays.asList(record(3, 30L)));
+		log.dropEntries(mark);
+		log.read(changed, removed);
+
+		assertThat(log.size(), is(1L));
+		assertThat(changed.size(), is(1));
+		assertThat(changed.get(3), is(30L));
+	}
+
+	@Test
+	public void testDropAllEntries() throws Exception {
+		log.added(Arrays.asList(record(1, 10L)));
+		log.dropEntries(log.size());
+		log.read(changed, removed);
+
+		assertThat(log.size(), is(0L));
+		assertThat(changed.isEmpty(), is(true));
+	}
+}
@@ -0,0 +1,64 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.db;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Test;
+
+public class ImageRecordTest {
+	private static final String SEP = File.separator;
+
+	@Test
+	public void testSplitPath() throws Exception {
+		ImageRecord record = new ImageRecord(SEP + "images" + SEP + "cat.jpg", 42);
+
+		assertThat(record.getDirectory(), is(SEP + "images" + SEP));
+		assertThat(record.getFileName(), is("cat.jpg"));
+		assertThat(record.getPath(), is(SEP + "images" + SEP + "cat.jpg"));
+	}
+
+	@Test
+	public void testSplitPathInRoot() throws Exception {
+		ImageRecord record = new ImageRecord(SEP + "cat.jpg", 42);
+
+		assertThat(record.getDirectory(), is(SEP));
+		assertThat(record.getPath(), is(SEP + "cat.jpg"));
+	}
+
+	@Test
+	public void testSplitPathWithoutDirectory() throws Exception {
+		ImageRecord record = new ImageRecord("cat.jpg", 42);
+
+		assertThat(record.getDirectory(), is(""));
+		assertThat(record.getFileName(), is("cat.jpg"));
+		assertThat(record.getPath(), is("cat.jpg"));
+	}
+
+	@Test
+	public void testEqualsLoadedRecord() throws Exception {
+		ImageRecord created = new ImageRecord(SEP + "images" + SEP + "cat.jpg", 42);
+		ImageRecord loaded = new ImageRecord(7, 1, SEP + "images" + SEP, "cat.jpg", 42, 0, 0, 0);
+
+		assertTrue(created.equals(loaded));
+	}
+}
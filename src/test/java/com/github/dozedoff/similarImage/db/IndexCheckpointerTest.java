@@ -0,0 +1,86 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.db;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class IndexCheckpointerTest {
+	private static final Path PATH_A = Paths.get("a.jpg");
+	private static final Path PATH_B = Paths.get("b.jpg");
+	private static final Path PATH_C = Paths.get("c.jpg");
+
+	private Persistence persistence;
+	private IndexRun run;
+	private IndexCheckpointer checkpointer;
+
+	@Before
+	public void setUp() throws Exception {
+		persistence = mock(Persistence.class);
+		run = new IndexRun("root", 0L);
+		checkpointer = new IndexCheckpointer(persistence, run);
+	}
+
+	@Test
+	public void testNothingToWrite() throws Exception {
+		checkpointer.checkpoint();
+
+		verifyZeroInteractions(persistence);
+	}
+
+	@Test
+	public void testDiscoveredAndCompleted() throws Exception {
+		checkpointer.discovered(Arrays.asList(PATH_A));
+		checkpointer.completed(PATH_B);
+		checkpointer.checkpoint();
+
+		verify(persistence).checkpoint(run, Arrays.asList(PATH_A), Arrays.asList(PATH_B));
+	}
+
+	@Test
+	public void testCompletedBeforeCheckpointIsNotWritten() throws Exception {
+		checkpointer.discovered(Arrays.asList(PATH_A, PATH_B));
+		checkpointer.completed(Arrays.asList(PATH_A, PATH_C));
+		checkpointer.checkpoint();
+
+		verify(persistence).checkpoint(run, Arrays.asList(PATH_B), Arrays.asList(PATH_C));
+	}
+
+	@Test
+	public void testCompletedAfterCheckpointIsRemoved() throws Exception {
+		List<Path> none = Collections.emptyList();
+
+		checkpointer.discovered(Arrays.asList(PATH_A));
+		checkpointer.checkpoint();
+		checkpointer.completed(PATH_A);
+		checkpointer.checkpoint();
+
+		verify(persistence).checkpoint(run, Arrays.asList(PATH_A), none);
+		verify(persistence).checkpoint(run, none, Arrays.asList(PATH_A));
+	}
+}
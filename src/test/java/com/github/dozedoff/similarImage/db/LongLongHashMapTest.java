@@ -0,0 +1,103 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.db;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class LongLongHashMapTest {
+	private LongLongHashMap map;
+
+	@Before
+	public void setUp() throws Exception {
+		map = new LongLongHashMap();
+	}
+
+	@Test
+	public void testPut() {
+		map.put(42, 1);
+		map.put(42, 2);
+
+		assertThat(map.containsKey(42), is(true));
+		assertThat(map.containsKey(43), is(false));
+		assertThat(map.get(42, -1), is(2L));
+		assertThat(map.get(43, -1), is(-1L));
+		assertThat(map.size(), is(1));
+	}
+
+	@Test
+	public void testZero() {
+		assertThat(map.containsKey(0), is(false));
+		map.put(0, 5);
+		assertThat(map.containsKey(0), is(true));
+		assertThat(map.get(0, -1), is(5L));
+		assertThat(map.remove(0), is(true));
+		assertThat(map.containsKey(0), is(false));
+		assertThat(map.size(), is(0));
+	}
+
+	@Test
+	public void testRemove() {
+		map.put(1, 10);
+		map.put(2, 20);
+
+		assertThat(map.remove(1), is(true));
+		assertThat(map.remove(1), is(false));
+		assertThat(map.containsKey(1), is(false));
+		assertThat(map.get(2, -1), is(20L));
+	}
+
+	@Test
+	public void testMatchesHashMap() {
+		Random random = new Random(1);
+		HashMap<Long, Long> reference = new HashMap<Long, Long>();
+
+		for (int i = 0; i < 100000; i++) {
+			long key = random.nextInt(20000);
+
+			if (random.nextBoolean()) {
+				map.put(key, i);
+				reference.put(key, (long) i);
+			} else {
+				assertThat(map.remove(key), is(reference.remove(key) != null));
+			}
+		}
+
+		assertThat(map.size(), is(reference.size()));
+
+		for (long i = 0; i < 20000; i++) {
+			Long expected = reference.get(i);
+			assertThat(map.get(i, -1), is(expected == null ? -1L : expected));
+		}
+	}
+
+	@Test
+	public void testFingerprintDiffers() {
+		long a = KnownPathIndex.fingerprint("/foo/bar/1.jpg");
+		long b = KnownPathIndex.fingerprint("/foo/bar/2.jpg");
+
+		assertThat(a == b, is(false));
+		assertThat(KnownPathIndex.fingerprint("/foo/bar/1.jpg"), is(a));
+	}
+}
@@ -0,0 +1,82 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.db;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PersistenceBatchTest {
+	private static final String PATH_A = "/images/a.jpg";
+	private static final String PATH_B = "/images/b.jpg";
+	private static final String PATH_C = "/images/sub/c.jpg";
+
+	private Path dbFile;
+	private Persistence persistence;
+
+	@Before
+	public void setUp() throws Exception {
+		dbFile = Files.createTempFile("similarImage", ".db");
+		persistence = new Persistence("jdbc:sqlite:" + dbFile, 0);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Files.deleteIfExists(dbFile);
+	}
+
+	@Test
+	public void testInsert() throws Exception {
+		persistence.batchAddRecord(Arrays.asList(new ImageRecord(PATH_A, 1L, 10L, 100L), new ImageRecord(PATH_C, 3L)));
+
+		assertThat(persistence.getAllRecords().size(), is(2));
+		assertThat(persistence.getRecord(Paths.get(PATH_A)).getpHash(), is(1L));
+		assertThat(persistence.getRecord(Paths.get(PATH_A)).getFileSize(), is(10L));
+		assertThat(persistence.getRecord(Paths.get(PATH_C)).getpHash(), is(3L));
+	}
+
+	@Test
+	public void testUpdateExisting() throws Exception {
+		persistence.batchAddRecord(Arrays.asList(new ImageRecord(PATH_A, 1L, 10L, 100L)));
+		persistence.batchAddRecord(Arrays.asList(new ImageRecord(PATH_A, 2L, 20L, 200L), new ImageRecord(PATH_B, 3L)));
+
+		ImageRecord updated = persistence.getRecord(Paths.get(PATH_A));
+
+		assertThat(persistence.getAllRecords().size(), is(2));
+		assertThat(updated.getpHash(), is(2L));
+		assertThat(updated.getFileSize(), is(20L));
+		assertThat(updated.getLastModified(), is(200L));
+		assertThat(persistence.getRecord(Paths.get(PATH_B)).getpHash(), is(3L));
+	}
+
+	@Test
+	public void testSamePathTwiceInBatch() throws Exception {
+		persistence.batchAddRecord(Arrays.asList(new ImageRecord(PATH_A, 1L), new ImageRecord(PATH_A, 2L)));
+
+		assertThat(persistence.getAllRecords().size(), is(1));
+		assertThat(persistence.getRecord(Paths.get(PATH_A)).getpHash(), is(2L));
+	}
+}
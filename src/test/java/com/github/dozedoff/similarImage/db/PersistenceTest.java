@@ -0,0 +1,51 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.db;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PersistenceTest {
+	@Test
+	public void testPrefixUpperBound() throws Exception {
+		assertThat(Persistence.prefixUpperBound("/images/"), is("/images0"));
+	}
+
+	@Test
+	public void testPrefixUpperBoundIsGreaterThanMatches() throws Exception {
+		String upper = Persistence.prefixUpperBound("/images/");
+
+		assertTrue("/images/zzz\uffff".compareTo(upper) < 0);
+		assertTrue("/images0".compareTo(upper) >= 0);
+	}
+
+	@Test
+	public void testPrefixUpperBoundMaxChar() throws Exception {
+		assertThat(Persistence.prefixUpperBound("a\uffff"), is("b"));
+	}
+
+	@Test
+	public void testPrefixUpperBoundNone() throws Exception {
+		assertThat(Persistence.prefixUpperBound("\uffff"), is(nullValue()));
+		assertThat(Persistence.prefixUpperBound(""), is(nullValue()));
+	}
+}
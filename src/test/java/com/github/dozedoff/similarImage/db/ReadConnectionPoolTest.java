@@ -0,0 +1,143 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.db;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReadConnectionPoolTest {
+	private Path dbFile;
+	private String url;
+	private Connection writer;
+
+	@Before
+	public void setUp() throws Exception {
+		dbFile = Files.createTempFile("similarImage", ".db");
+		url = "jdbc:sqlite:" + dbFile;
+
+		writer = DriverManager.getConnection(url);
+		Statement statement = writer.createStatement();
+		statement.executeUpdate("PRAGMA journal_mode=WAL");
+		statement.executeUpdate("CREATE TABLE foo (bar INTEGER)");
+		statement.executeUpdate("INSERT INTO foo VALUES (1)");
+		statement.close();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		writer.close();
+		Files.deleteIfExists(dbFile);
+		Files.deleteIfExists(dbFile.resolveSibling(dbFile.getFileName() + "-wal"));
+		Files.deleteIfExists(dbFile.resolveSibling(dbFile.getFileName() + "-shm"));
+	}
+
+	private int count(Connection conn) throws SQLException {
+		Statement statement = conn.createStatement();
+
+		try {
+			ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM foo");
+			rs.next();
+			return rs.getInt(1);
+		} finally {
+			statement.close();
+		}
+	}
+
+	private int countPooled(ReadConnectionPool pool) throws SQLException {
+		Connection conn = pool.acquire();
+
+		try {
+			return count(conn);
+		} finally {
+			pool.release(conn);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNoConnections() throws Exception {
+		new ReadConnectionPool("jdbc:sqlite:test.db", 0);
+	}
+
+	@Test
+	public void testMaxConnections() throws Exception {
+		ReadConnectionPool pool = new ReadConnectionPool("jdbc:sqlite:test.db", 3);
+
+		assertThat(pool.getMaxConnections(), is(3));
+	}
+
+	@Test(expected = SQLException.class)
+	public void testAcquireAfterClose() throws Exception {
+		ReadConnectionPool pool = new ReadConnectionPool("jdbc:sqlite:test.db", 1);
+		pool.close();
+		pool.acquire();
+	}
+
+	@Test
+	public void testReadDuringWriteTransaction() throws Exception {
+		ReadConnectionPool pool = new ReadConnectionPool(url, 1);
+		writer.setAutoCommit(false);
+		Statement statement = writer.createStatement();
+		statement.executeUpdate("INSERT INTO foo VALUES (2)");
+
+		assertThat(countPooled(pool), is(1));
+
+		writer.commit();
+		statement.close();
+
+		assertThat(countPooled(pool), is(2));
+		pool.close();
+	}
+
+	@Test
+	public void testConnectionIsReused() throws Exception {
+		ReadConnectionPool pool = new ReadConnectionPool(url, 2);
+		Connection conn = pool.acquire();
+		pool.release(conn);
+
+		Connection again = pool.acquire();
+		pool.release(again);
+		pool.close();
+
+		assertThat(again, is(conn));
+	}
+
+	@Test(expected = SQLException.class)
+	public void testReadOnly() throws Exception {
+		ReadConnectionPool pool = new ReadConnectionPool(url, 1);
+		Connection conn = pool.acquire();
+
+		try {
+			conn.createStatement().executeUpdate("INSERT INTO foo VALUES (3)");
+		} finally {
+			pool.release(conn);
+			pool.close();
+		}
+	}
+}
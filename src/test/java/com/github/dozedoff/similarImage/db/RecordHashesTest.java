@@ -0,0 +1,106 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.db;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class RecordHashesTest {
+	private RecordHashes hashes;
+
+	@Before
+	public void setUp() throws Exception {
+		hashes = new RecordHashes(2);
+		hashes.add(5, 30L);
+		hashes.add(2, -4L);
+		hashes.add(9, 30L);
+		hashes.add(1, 30L);
+		hashes.add(7, 12L);
+	}
+
+	@Test
+	public void testGrow() throws Exception {
+		assertThat(hashes.size(), is(5));
+		assertThat(hashes.getId(4), is(7));
+		assertThat(hashes.getHash(4), is(12L));
+	}
+
+	@Test
+	public void testSortByHash() throws Exception {
+		hashes.sortByHash();
+
+		assertThat(ids(), is(new int[] { 2, 7, 1, 5, 9 }));
+		assertThat(hashes.getHash(0), is(-4L));
+		assertThat(hashes.getHash(4), is(30L));
+	}
+
+	@Test
+	public void testSortByHashRandom() throws Exception {
+		RecordHashes random = new RecordHashes();
+		Random rnd = new Random(42);
+		long[] expected = new long[1000];
+
+		for (int i = 0; i < expected.length; i++) {
+			expected[i] = rnd.nextInt(100);
+			random.add(i, expected[i]);
+		}
+
+		random.sortByHash();
+		Arrays.sort(expected);
+
+		for (int i = 0; i < expected.length; i++) {
+			assertThat(random.getHash(i), is(expected[i]));
+		}
+	}
+
+	@Test
+	public void testDistinctStarts() throws Exception {
+		hashes.sortByHash();
+
+		assertThat(hashes.distinctStarts(), is(new int[] { 0, 1, 2, 5 }));
+	}
+
+	@Test
+	public void testDistinctStartsEmpty() throws Exception {
+		assertThat(new RecordHashes().distinctStarts(), is(new int[] { 0 }));
+	}
+
+	@Test
+	public void testRemoveAll() throws Exception {
+		hashes.removeAll(new HashSet<Integer>(Arrays.asList(2, 1)));
+
+		assertThat(ids(), is(new int[] { 5, 9, 7 }));
+	}
+
+	private int[] ids() {
+		int[] ids = new int[hashes.size()];
+
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = hashes.getId(i);
+		}
+
+		return ids;
+	}
+}
@@ -0,0 +1,212 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.db;
+
+import static org.hamcrest.CoreMatchers.hasItems;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.dao.DaoManager;
+import com.j256.ormlite.jdbc.JdbcConnectionSource;
+
+public class SchemaMigratorTest {
+	private static final String SEP = File.separator;
+
+	private Path dbFile;
+	private String url;
+
+	@Before
+	public void setUp() throws Exception {
+		dbFile = Files.createTempFile("similarImage", ".db");
+		url = "jdbc:sqlite:" + dbFile;
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Files.deleteIfExists(dbFile);
+	}
+
+	/**
+	 * Create the tables as they were before schema versions, with the full path as id.
+	 */
+	private void createBaseline(String... paths) throws SQLException {
+		List<String> statements = new ArrayList<String>();
+		statements.add("CREATE TABLE imagerecord (path VARCHAR NOT NULL, pHash BIGINT NOT NULL, PRIMARY KEY (path))");
+		statements.add("CREATE TABLE filterrecord (pHash BIGINT NOT NULL, reason VARCHAR NOT NULL, PRIMARY KEY (pHash))");
+		statements.add("CREATE TABLE badfilerecord (path VARCHAR NOT NULL, PRIMARY KEY (path))");
+
+		for (int i = 0; i < paths.length; i++) {
+			statements.add("INSERT INTO imagerecord (path, pHash) VALUES ('" + paths[i] + "', " + (i + 1) + ")");
+		}
+
+		execute(statements.toArray(new String[statements.size()]));
+	}
+
+	private void execute(String... statements) throws SQLException {
+		Connection conn = DriverManager.getConnection(url);
+
+		try {
+			Statement statement = conn.createStatement();
+
+			for (String sql : statements) {
+				statement.executeUpdate(sql);
+			}
+
+			statement.close();
+		} finally {
+			conn.close();
+		}
+	}
+
+	private List<String> query(String sql) throws SQLException {
+		List<String> values = new ArrayList<String>();
+		Connection conn = DriverManager.getConnection(url);
+
+		try {
+			Statement statement = conn.createStatement();
+			ResultSet rs = statement.executeQuery(sql);
+
+			while (rs.next()) {
+				values.add(rs.getString(1));
+			}
+
+			rs.close();
+			statement.close();
+		} finally {
+			conn.close();
+		}
+
+		return values;
+	}
+
+	private int version() throws SQLException {
+		return Integer.parseInt(query("PRAGMA user_version").get(0));
+	}
+
+	private List<String> columns(String table) throws SQLException {
+		List<String> columns = new ArrayList<String>();
+		Connection conn = DriverManager.getConnection(url);
+
+		try {
+			Statement statement = conn.createStatement();
+			ResultSet rs = statement.executeQuery("PRAGMA table_info(" + table + ")");
+
+			while (rs.next()) {
+				columns.add(rs.getString("name"));
+			}
+
+			rs.close();
+			statement.close();
+		} finally {
+			conn.close();
+		}
+
+		return columns;
+	}
+
+	private void migrate(String separator) throws Exception {
+		JdbcConnectionSource cs = new JdbcConnectionSource(url);
+
+		try {
+			Dao<ImageRecord, Integer> dao = DaoManager.createDao(cs, ImageRecord.class);
+			new SchemaMigrator(cs, dao, separator).migrate();
+		} finally {
+			cs.close();
+		}
+	}
+
+	@Test
+	public void testNewDatabase() throws Exception {
+		new Persistence(url, 0);
+
+		assertThat(version(), is(5));
+		assertThat(columns("imagerecord"), hasItems("directoryId", "fileName", "contentHash"));
+	}
+
+	@Test
+	public void testOpenBaselineDatabase() throws Exception {
+		String a = SEP + "images" + SEP + "a.jpg";
+		String b = SEP + "images" + SEP + "sub" + SEP + "b.jpg";
+		String c = SEP + "c.jpg";
+		createBaseline(a, b, c);
+
+		Persistence persistence = new Persistence(url, 0);
+
+		assertThat(version(), is(5));
+		assertThat(columns("imagerecord"), hasItems("directoryId", "fileName", "pHash", "fileSize", "lastModified", "contentHash"));
+		assertThat(columns("badfilerecord"), hasItems("reason"));
+		assertThat(query("SELECT name FROM sqlite_master WHERE type = 'index'"), hasItems("imagerecord_pHash_idx", "imagerecord_contentHash_idx"));
+
+		assertThat(persistence.getAllRecords().size(), is(3));
+		assertThat(persistence.getRecord(Paths.get(a)).getpHash(), is(1L));
+		assertThat(persistence.getRecord(Paths.get(b)).getpHash(), is(2L));
+		assertThat(persistence.getRecord(Paths.get(c)).getpHash(), is(3L));
+	}
+
+	@Test
+	public void testMigrationsAreIdempotent() throws Exception {
+		createBaseline(SEP + "images" + SEP + "a.jpg");
+		execute("ALTER TABLE imagerecord ADD COLUMN fileSize BIGINT DEFAULT 0");
+
+		migrate(SEP);
+
+		assertThat(version(), is(5));
+		assertThat(query("SELECT fileName FROM imagerecord"), hasItems("a.jpg"));
+	}
+
+	@Test
+	public void testSplitSlashPaths() throws Exception {
+		createBaseline("/images/a.jpg", "/images/sub/b.jpg", "/c.jpg");
+
+		migrate("/");
+
+		assertThat(query("SELECT path FROM directoryrecord").size(), is(3));
+		assertThat(query("SELECT path FROM directoryrecord"), hasItems("/images/", "/images/sub/", "/"));
+		assertThat(query("SELECT d.path || i.fileName FROM imagerecord i JOIN directoryrecord d ON d.id = i.directoryId"),
+				hasItems("/images/a.jpg", "/images/sub/b.jpg", "/c.jpg"));
+	}
+
+	@Test
+	public void testSplitBackslashPaths() throws Exception {
+		createBaseline("C:\\images\\a.jpg", "C:\\images\\sub\\b.jpg", "C:\\c.jpg");
+
+		migrate("\\");
+
+		assertThat(query("SELECT path FROM directoryrecord").size(), is(3));
+		assertThat(query("SELECT path FROM directoryrecord"), hasItems("C:\\images\\", "C:\\images\\sub\\", "C:\\"));
+		assertThat(query("SELECT d.path || i.fileName FROM imagerecord i JOIN directoryrecord d ON d.id = i.directoryId"),
+				hasItems("C:\\images\\a.jpg", "C:\\images\\sub\\b.jpg", "C:\\c.jpg"));
+	}
+}
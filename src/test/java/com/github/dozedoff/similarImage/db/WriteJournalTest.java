@@ -0,0 +1,147 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.db;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WriteJournalTest {
+	private Path journalFile;
+	private WriteJournal journal;
+
+	@Before
+	public void setUp() throws Exception {
+		journalFile = Files.createTempFile("similarImage", ".journal");
+		Files.delete(journalFile);
+		journal = new WriteJournal(journalFile);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Files.deleteIfExists(journalFile);
+	}
+
+	@Test
+	public void testEmpty() throws Exception {
+		assertThat(journal.isEmpty(), is(true));
+		assertThat(journal.readAll().isEmpty(), is(true));
+	}
+
+	@Test
+	public void testAppendAndRead() throws Exception {
+		journal.append(Arrays.asList(new ImageRecord("foo", 1L, 10L, 100L), new ImageRecord("bar", 2L)));
+		journal.append(Arrays.asList(new ImageRecord("baz", -3L, 30L, 300L)));
+
+		List<ImageRecord> records = journal.readAll();
+
+		assertThat(records.size(), is(3));
+		assertThat(records.get(0).getPath(), is("foo"));
+		assertThat(records.get(0).getpHash(), is(1L));
+		assertThat(records.get(0).getFileSize(), is(10L));
+		assertThat(records.get(0).getLastModified(), is(100L));
+		assertThat(records.get(2).getpHash(), is(-3L));
+		assertThat(journal.getRecordCount(), is(3));
+	}
+
+	@Test
+	public void testPartialRecordIgnored() throws Exception {
+		journal.append(Arrays.asList(new ImageRecord("foo", 1L), new ImageRecord("bar", 2L)));
+
+		RandomAccessFile raf = new RandomAccessFile(journalFile.toFile(), "rw");
+		raf.setLength(raf.length() - 5);
+		raf.close();
+
+		List<ImageRecord> records = journal.readAll();
+
+		assertThat(records.size(), is(1));
+		assertThat(records.get(0).getPath(), is("foo"));
+	}
+
+	@Test
+	public void testAppendAfterPartialRecord() throws Exception {
+		journal.append(Arrays.asList(new ImageRecord("foo", 1L), new ImageRecord("bar", 2L)));
+
+		RandomAccessFile raf = new RandomAccessFile(journalFile.toFile(), "rw");
+		raf.setLength(raf.length() - 5);
+		raf.close();
+
+		WriteJournal reopened = new WriteJournal(journalFile);
+		reopened.append(Arrays.asList(new ImageRecord("baz", 3L)));
+		List<ImageRecord> records = reopened.readAll();
+
+		assertThat(records.size(), is(2));
+		assertThat(records.get(0).getPath(), is("foo"));
+		assertThat(records.get(1).getPath(), is("baz"));
+		assertThat(records.get(1).getpHash(), is(3L));
+	}
+
+	@Test
+	public void testAppendAfterPartialPathLength() throws Exception {
+		journal.append(Arrays.asList(new ImageRecord("foo", 1L)));
+		long complete = Files.size(journalFile);
+		journal.append(Arrays.asList(new ImageRecord("bar", 2L)));
+
+		RandomAccessFile raf = new RandomAccessFile(journalFile.toFile(), "rw");
+		raf.setLength(complete + 1);
+		raf.close();
+
+		WriteJournal reopened = new WriteJournal(journalFile);
+		reopened.append(Arrays.asList(new ImageRecord("baz", 3L)));
+		List<ImageRecord> records = reopened.readAll();
+
+		assertThat(records.size(), is(2));
+		assertThat(records.get(1).getPath(), is("baz"));
+	}
+
+	@Test
+	public void testLongPath() throws Exception {
+		StringBuilder sb = new StringBuilder();
+
+		while (sb.length() < 70000) {
+			sb.append("\u00e4bc");
+		}
+
+		String path = sb.toString();
+		journal.append(Arrays.asList(new ImageRecord(path, 1L), new ImageRecord("foo", 2L)));
+
+		List<ImageRecord> records = journal.readAll();
+
+		assertThat(records.size(), is(2));
+		assertThat(records.get(0).getPath(), is(path));
+		assertThat(records.get(1).getPath(), is("foo"));
+	}
+
+	@Test
+	public void testClear() throws Exception {
+		journal.append(Arrays.asList(new ImageRecord("foo", 1L)));
+		journal.clear();
+
+		assertThat(journal.isEmpty(), is(true));
+		assertThat(journal.getRecordCount(), is(0));
+	}
+}
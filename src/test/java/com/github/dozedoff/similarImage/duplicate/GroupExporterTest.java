@@ -0,0 +1,73 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.duplicate;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.dozedoff.similarImage.db.ImageRecord;
+import com.github.dozedoff.similarImage.duplicate.GroupExporter.Format;
+
+public class GroupExporterTest {
+	private Map<Long, List<ImageRecord>> groups;
+	private StringWriter out;
+
+	@Before
+	public void setUp() throws Exception {
+		groups = new LinkedHashMap<Long, List<ImageRecord>>();
+		groups.put(42L, Arrays.asList(new ImageRecord("a.jpg", 42, 10, 100, 1), new ImageRecord("b,\"c\".jpg", 42, 20, 200, 2)));
+		out = new StringWriter();
+	}
+
+	@Test
+	public void testCsv() throws Exception {
+		new GroupExporter(Format.CSV).write(groups, out);
+
+		assertThat(out.toString(), is("group,path,phash,size,lastModified\n42,a.jpg,42,10,100\n42,\"b,\"\"c\"\".jpg\",42,20,200\n"));
+	}
+
+	@Test
+	public void testJson() throws Exception {
+		new GroupExporter(Format.JSON).write(groups, out);
+
+		assertThat(out.toString(), is("[\n  {\"group\": 42, \"images\": [\n"
+				+ "    {\"path\": \"a.jpg\", \"phash\": 42, \"size\": 10, \"lastModified\": 100},\n"
+				+ "    {\"path\": \"b,\\\"c\\\".jpg\", \"phash\": 42, \"size\": 20, \"lastModified\": 200}\n  ]}\n]\n"));
+	}
+
+	@Test
+	public void testJsonEmpty() throws Exception {
+		new GroupExporter(Format.JSON).write(new LinkedHashMap<Long, List<ImageRecord>>(), out);
+
+		assertThat(out.toString(), is("[\n]\n"));
+	}
+
+	@Test
+	public void testJsonEscaping() throws Exception {
+		assertThat(GroupExporter.jsonString("C:\\img\t1"), is("\"C:\\\\img\\t1\""));
+	}
+}
@@ -0,0 +1,174 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.duplicate;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.github.dozedoff.similarImage.db.HashLog;
+import com.github.dozedoff.similarImage.db.ImageRecord;
+import com.github.dozedoff.similarImage.db.Persistence;
+import com.github.dozedoff.similarImage.db.RecordHashes;
+
+public class HashSnapshotTest {
+	private static final Set<Integer> NONE = Collections.emptySet();
+	private static final String DATABASE = "similarImage.db;version=5";
+	private static final int DATABASE_ID = DATABASE.hashCode();
+
+	private Path snapshotFile;
+	private Path logFile;
+	private HashLog log;
+
+	@Before
+	public void setUp() throws Exception {
+		snapshotFile = Files.createTempFile("similarImage", ".hashes");
+		logFile = Files.createTempFile("similarImage", ".log");
+		Files.delete(logFile);
+		log = new HashLog(logFile);
+
+		RecordHashes hashes = new RecordHashes(4);
+		hashes.add(1, 0L);
+		hashes.add(2, 1L);
+		hashes.add(3, 1L);
+		hashes.add(4, 0xFFL);
+
+		HashSnapshot.write(snapshotFile, HashIndex.build(hashes), 4, DATABASE_ID);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		log.close();
+		Files.deleteIfExists(snapshotFile);
+		Files.deleteIfExists(logFile);
+	}
+
+	@Test
+	public void testWriteAndMap() throws Exception {
+		HashSnapshot snapshot = HashSnapshot.map(snapshotFile);
+		HashIndex index = snapshot.getIndexes().get(0);
+
+		assertThat(snapshot.getMaxId(), is(4));
+		assertThat(index.getDistinctCount(), is(3));
+		assertThat(index.getRecordCount(), is(4));
+		assertThat(index.findIds(0L, 1, NONE), is(new int[] { 1, 2, 3 }));
+		assertThat(index.findIds(0xFFL, 0, NONE), is(new int[] { 4 }));
+	}
+
+	@Test
+	public void testUnknownFormat() throws Exception {
+		Files.write(snapshotFile, new byte[64]);
+
+		assertThat(HashSnapshot.map(snapshotFile), is(nullValue()));
+	}
+
+	@Test
+	public void testOpenAppliesLog() throws Exception {
+		log.removed(Arrays.asList(2));
+
+		HashSnapshot snapshot = HashSnapshot.open(snapshotFile, log, DATABASE_ID, 4);
+
+		assertThat(snapshot, is(notNullValue()));
+		assertThat(findIds(snapshot, 1L, 0), is(new int[] { 3 }));
+	}
+
+	@Test
+	public void testOpenMissingRecords() throws Exception {
+		assertThat(HashSnapshot.open(snapshotFile, log, DATABASE_ID, 5), is(nullValue()));
+	}
+
+	@Test
+	public void testOpenOtherDatabase() throws Exception {
+		assertThat(HashSnapshot.open(snapshotFile, log, "other.db;version=5".hashCode(), 4), is(nullValue()));
+	}
+
+	@Test
+	public void testOpenMissingFile() throws Exception {
+		Files.delete(snapshotFile);
+
+		assertThat(HashSnapshot.open(snapshotFile, log, DATABASE_ID, 4), is(nullValue()));
+	}
+
+	@Test
+	public void testRebuildKeepsEntriesWrittenDuringScan() throws Exception {
+		Files.delete(snapshotFile);
+		log.removed(Arrays.asList(4));
+
+		final ImageRecord written = mock(ImageRecord.class);
+		when(written.getId()).thenReturn(3);
+		when(written.getpHash()).thenReturn(0xFFL);
+
+		final RecordHashes hashes = new RecordHashes(2);
+		hashes.add(1, 0L);
+		hashes.add(2, 1L);
+
+		Persistence persistence = mock(Persistence.class);
+		when(persistence.getDatabaseId()).thenReturn(DATABASE);
+		when(persistence.getMaxRecordId()).thenReturn(2);
+		when(persistence.getHashes()).thenAnswer(new Answer<RecordHashes>() {
+			@Override
+			public RecordHashes answer(InvocationOnMock invocation) throws Throwable {
+				// a commit while the table is scanned
+				log.added(Arrays.asList(written));
+				return hashes;
+			}
+		});
+
+		HashSnapshot snapshot = HashSnapshot.load(snapshotFile, log, persistence);
+
+		assertThat(log.size(), is(1L));
+		assertThat(findIds(snapshot, 0xFFL, 0), is(new int[] { 3 }));
+		assertThat(findIds(snapshot, 0L, 1), is(new int[] { 1, 2 }));
+	}
+
+	private int[] findIds(HashSnapshot snapshot, long hash, int maxDistance) {
+		Set<Integer> found = new HashSet<Integer>();
+
+		for (HashIndex index : snapshot.getIndexes()) {
+			for (int id : index.findIds(hash, maxDistance, NONE)) {
+				found.add(id);
+			}
+		}
+
+		int[] ids = new int[found.size()];
+		int i = 0;
+
+		for (int id : found) {
+			ids[i++] = id;
+		}
+
+		Arrays.sort(ids);
+		return ids;
+	}
+}
@@ -0,0 +1,89 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.duplicate;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class HashTreeTest {
+	@Test
+	public void testSearchWithin() throws Exception {
+		long[] hashes = { 0L, 1L, 3L, 7L, 0xFFL };
+		HashTree tree = new HashTree(hashes, hashes.length);
+
+		assertThat(sorted(tree.searchWithin(1L, 1)), is(new int[] { 0, 1, 2 }));
+	}
+
+	@Test
+	public void testSearchExact() throws Exception {
+		long[] hashes = { 0L, 1L, 3L, 7L, 0xFFL };
+		HashTree tree = new HashTree(hashes, hashes.length);
+
+		assertThat(tree.searchWithin(7L, 0), is(new int[] { 3 }));
+		assertThat(tree.searchWithin(15L, 0), is(new int[0]));
+	}
+
+	@Test
+	public void testEmpty() throws Exception {
+		HashTree tree = new HashTree(new long[0], 0);
+
+		assertThat(tree.searchWithin(1L, 64), is(new int[0]));
+	}
+
+	@Test
+	public void testMatchesLinearSearch() throws Exception {
+		Random rnd = new Random(42);
+		long[] hashes = new long[2000];
+
+		for (int i = 0; i < hashes.length; i++) {
+			hashes[i] = rnd.nextLong();
+		}
+
+		HashTree tree = new HashTree(hashes, hashes.length);
+
+		for (int q = 0; q < 20; q++) {
+			long query = hashes[q] ^ (1L << q);
+			int[] expected = linearSearch(hashes, query, 28);
+
+			assertThat(sorted(tree.searchWithin(query, 28)), is(expected));
+		}
+	}
+
+	private int[] linearSearch(long[] hashes, long query, int maxDistance) {
+		int[] found = new int[hashes.length];
+		int count = 0;
+
+		for (int i = 0; i < hashes.length; i++) {
+			if (Long.bitCount(hashes[i] ^ query) <= maxDistance) {
+				found[count++] = i;
+			}
+		}
+
+		return Arrays.copyOf(found, count);
+	}
+
+	private int[] sorted(int[] indices) {
+		Arrays.sort(indices);
+		return indices;
+	}
+}
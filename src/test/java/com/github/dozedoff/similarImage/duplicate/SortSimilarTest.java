@@ -20,10 +20,12 @@ package com.github.dozedoff.similarImage.duplicate;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 import static org.junit.matchers.JUnitMatchers.hasItems;
+import static org.mockito.AdditionalMatchers.aryEq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import java.sql.SQLException;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Set;
@@ -33,6 +35,7 @@ import org.junit.Test;
 
 import com.github.dozedoff.similarImage.db.ImageRecord;
 import com.github.dozedoff.similarImage.db.Persistence;
+import com.github.dozedoff.similarImage.db.RecordHashes;
 import com.j256.ormlite.dao.CloseableIterator;
 import com.j256.ormlite.dao.CloseableWrappedIterable;
 
@@ -77,6 +80,60 @@ public class SortSimilarTest {
 		assertThat(records2, hasItems(testRecords2));
 	}
 
+	@Test
+	public void testSortIdenticalFiles() {
+		LinkedList<ImageRecord> identical = new LinkedList<ImageRecord>();
+		identical.add(new ImageRecord("/foo/bar/1", 3, 100, 0, 42));
+		identical.add(new ImageRecord("/foo/bar/2", 4, 100, 0, 42));
+		identical.add(new ImageRecord("/foo/bar/3", 3, 100, 0, 43));
+		identical.add(new ImageRecord("/foo/bar/4", 3, 100, 0, 0));
+		identical.add(new ImageRecord("/foo/bar/5", 3, 100, 0, 0));
+		when(dummy.iterator()).thenReturn(identical.iterator());
+
+		sort.sortIdenticalFiles(dummy);
+
+		assertThat(sort.getGroup(42), hasItems(identical.get(0), identical.get(1)));
+		assertThat(sort.getNumberOfDuplicateGroups(), is(1));
+		assertThat(sort.getNumberOfGroups(), is(2));
+	}
+
+	private RecordHashes createTestHashes() {
+		RecordHashes hashes = new RecordHashes();
+
+		hashes.add(1, 3);
+		hashes.add(2, 2);
+		hashes.add(3, 5);
+		hashes.add(4, 3);
+		hashes.add(5, 64);
+
+		return hashes;
+	}
+
+	@Test
+	public void testSortHammingDistance() {
+		sort.sortHammingDistance(1, createTestHashes());
+
+		assertThat(sort.getDuplicateGroups(), is(Arrays.asList(2L)));
+		assertThat(sort.getNumberOfDuplicateGroups(), is(1));
+	}
+
+	@Test
+	public void testSortHammingDistanceExact() {
+		sort.sortHammingDistance(0, createTestHashes());
+
+		assertThat(sort.getDuplicateGroups(), is(Arrays.asList(3L)));
+	}
+
+	@Test
+	public void testGetGroupLoadsRecords() throws Exception {
+		ImageRecord record = new ImageRecord("/foo/bar/1", 3);
+		when(mockPersistence.getRecords(aryEq(new int[] { 1, 2, 4 }))).thenReturn(Arrays.asList(record));
+
+		sort.sortHammingDistance(1, createTestHashes());
+
+		assertThat(sort.getGroup(2), hasItems(record));
+	}
+
 	@Test
 	public void testGetNumberOfDuplicateGroups() {
 		sort.sortExactMatch(dummy);
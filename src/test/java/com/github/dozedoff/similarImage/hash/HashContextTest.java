@@ -0,0 +1,104 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.hash;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class HashContextTest {
+	private HashContext context;
+	private ImagePHash phash;
+
+	@Before
+	public void setUp() throws Exception {
+		context = new HashContext(32, 9);
+		phash = new ImagePHash(32, 9);
+	}
+
+	private BufferedImage createImage(int type) {
+		BufferedImage img = new BufferedImage(640, 480, type);
+		Graphics2D g = img.createGraphics();
+		g.setPaint(new GradientPaint(0, 0, Color.RED, 640, 480, Color.BLUE));
+		g.fillRect(0, 0, 640, 480);
+		g.setColor(Color.YELLOW);
+		g.fillOval(100, 50, 300, 200);
+		g.dispose();
+		return img;
+	}
+
+	@Test
+	public void testEqualToImagePHash() throws Exception {
+		int types[] = { BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_3BYTE_BGR,
+				BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_USHORT_565_RGB };
+
+		for (int type : types) {
+			BufferedImage img = createImage(type);
+
+			assertThat(context.getLongHash(img), is(phash.getLongHash(img)));
+		}
+	}
+
+	@Test
+	public void testTranslucentEqualToImagePHash() throws Exception {
+		BufferedImage opaque = createImage(BufferedImage.TYPE_INT_RGB);
+		BufferedImage translucent = new BufferedImage(64, 64, BufferedImage.TYPE_INT_ARGB);
+
+		for (int x = 0; x < 64; x++) {
+			for (int y = 0; y < 64; y++) {
+				translucent.setRGB(x, y, ((x * 4) << 24) | (y * 4));
+			}
+		}
+
+		context.getLongHash(opaque);
+
+		assertThat(context.getLongHash(translucent), is(phash.getLongHash(translucent)));
+	}
+
+	@Test
+	public void testContextIsReusable() throws Exception {
+		BufferedImage img = createImage(BufferedImage.TYPE_3BYTE_BGR);
+		long first = context.getLongHash(img);
+		context.getLongHash(createImage(BufferedImage.TYPE_INT_ARGB));
+
+		assertThat(context.getLongHash(img), is(first));
+	}
+
+	@Test
+	public void testReducedHashCloseToImagePHash() throws Exception {
+		BufferedImage img = createImage(BufferedImage.TYPE_INT_RGB);
+		byte[] gray = new byte[32 * 32];
+		new GrayscaleSampler(32).sample(img, gray);
+		int distance = Long.bitCount(phash.getLongHash(img) ^ context.getLongHash(gray));
+
+		assertTrue(distance <= 2);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testWrongReducedSize() throws Exception {
+		context.getLongHash(new byte[10]);
+	}
+}
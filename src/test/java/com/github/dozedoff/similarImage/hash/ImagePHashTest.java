@@ -0,0 +1,198 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.hash;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorConvertOp;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ImagePHashTest {
+	private static final long SEED = 42L;
+	private static final int NUMBER_OF_IMAGES = 100;
+
+	private ImagePHash phash;
+	private List<BufferedImage> images;
+
+	@Before
+	public void setUp() throws Exception {
+		phash = new ImagePHash(32, 9);
+		images = createImageSet();
+	}
+
+	/**
+	 * Noise, gradients, shapes, flat and two-tone images in various sizes and image types. The AC
+	 * coefficients of flat images are only rounding noise, so they catch any change in summation
+	 * order.
+	 */
+	private List<BufferedImage> createImageSet() {
+		Random random = new Random(SEED);
+		List<BufferedImage> set = new LinkedList<BufferedImage>();
+		int types[] = { BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_INT_ARGB };
+
+		for (int i = 0; i < NUMBER_OF_IMAGES; i++) {
+			int width = 1 + random.nextInt(300);
+			int height = 1 + random.nextInt(300);
+			BufferedImage img = new BufferedImage(width, height, types[i % types.length]);
+			Graphics2D g = img.createGraphics();
+
+			switch (i % 5) {
+			case 0:
+				for (int x = 0; x < width; x++) {
+					for (int y = 0; y < height; y++) {
+						img.setRGB(x, y, 0xff000000 | random.nextInt(0xffffff));
+					}
+				}
+				break;
+			case 1:
+				g.setPaint(new GradientPaint(0, 0, new Color(random.nextInt()), width, height, new Color(random.nextInt())));
+				g.fillRect(0, 0, width, height);
+				break;
+			case 2:
+				g.setColor(new Color(random.nextInt()));
+				g.fillRect(0, 0, width, height);
+				break;
+			case 3:
+				g.setColor(new Color(random.nextInt()));
+				g.fillRect(0, 0, width, height);
+				g.setColor(new Color(random.nextInt()));
+				g.fillRect(0, 0, random.nextInt(width) + 1, height);
+				break;
+			default:
+				g.setColor(new Color(random.nextInt()));
+				g.fillRect(0, 0, width, height);
+
+				for (int j = 0; j < 20; j++) {
+					g.setColor(new Color(random.nextInt()));
+					g.fillOval(random.nextInt(width), random.nextInt(height), random.nextInt(width) + 1, random.nextInt(height) + 1);
+				}
+			}
+
+			g.dispose();
+			set.add(img);
+		}
+
+		return set;
+	}
+
+	@Test
+	public void testLongHashMatchesReference() throws Exception {
+		for (BufferedImage img : images) {
+			long expected = referenceHash(img, 32, 9);
+			assertThat(phash.getLongHash(img), is(expected));
+		}
+	}
+
+	@Test
+	public void testLongHashDefaultSizeMatchesReference() throws Exception {
+		ImagePHash defaultHash = new ImagePHash();
+
+		for (BufferedImage img : images) {
+			long expected = referenceHash(img, 32, 8);
+			assertThat(defaultHash.getLongHash(img), is(expected));
+		}
+	}
+
+	@Test
+	public void testDctMapDimension() throws Exception {
+		double[][] dct = phash.calculateDctMap(images.get(0));
+
+		assertThat(dct.length, is(9));
+		assertThat(dct[0].length, is(9));
+	}
+
+	/**
+	 * The original hash implementation, with the full naive DCT.
+	 */
+	private long referenceHash(BufferedImage image, int size, int smallerSize) {
+		BufferedImage img = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = img.createGraphics();
+		g.drawImage(image, 0, 0, size, size, null);
+		g.dispose();
+
+		new ColorConvertOp(ColorSpace.getInstance(ColorSpace.CS_GRAY), null).filter(img, img);
+
+		double vals[][] = new double[size][size];
+
+		for (int x = 0; x < size; x++) {
+			for (int y = 0; y < size; y++) {
+				vals[x][y] = img.getRGB(x, y) & 0xff;
+			}
+		}
+
+		double c[] = new double[size];
+
+		for (int i = 1; i < size; i++) {
+			c[i] = 1;
+		}
+
+		c[0] = 1 / Math.sqrt(2.0);
+
+		int N = size;
+		double[][] F = new double[N][N];
+
+		for (int u = 0; u < N; u++) {
+			for (int v = 0; v < N; v++) {
+				double sum = 0.0;
+				for (int i = 0; i < N; i++) {
+					for (int j = 0; j < N; j++) {
+						sum += Math.cos(((2 * i + 1) / (2.0 * N)) * u * Math.PI) * Math.cos(((2 * j + 1) / (2.0 * N)) * v * Math.PI)
+								* (vals[i][j]);
+					}
+				}
+				sum *= ((c[u] * c[v]) / 4.0);
+				F[u][v] = sum;
+			}
+		}
+
+		double total = 0;
+
+		for (int x = 0; x < smallerSize; x++) {
+			for (int y = 0; y < smallerSize; y++) {
+				total += F[x][y];
+			}
+		}
+
+		total -= F[0][0];
+		double avg = total / (double) ((smallerSize * smallerSize) - 1);
+
+		long hash = 0;
+
+		for (int x = 0; x < smallerSize; x++) {
+			for (int y = 0; y < smallerSize; y++) {
+				if (x != 0 && y != 0) {
+					hash += (F[x][y] > avg ? 1 : 0);
+					hash = Long.rotateLeft(hash, 1);
+				}
+			}
+		}
+
+		return hash;
+	}
+}
@@ -0,0 +1,86 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.io;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class BufferPoolTest {
+	private static final int KB = 1024;
+
+	private BufferPool pool;
+
+	@Before
+	public void setUp() throws Exception {
+		pool = new BufferPool(256 * KB, 512 * KB);
+	}
+
+	@Test
+	public void testRoundedToPowerOfTwo() throws Exception {
+		ByteBuffer buffer = pool.acquire(100 * KB);
+
+		assertThat(buffer.capacity(), is(128 * KB));
+		assertThat(buffer.limit(), is(100 * KB));
+		assertThat(buffer.isDirect(), is(true));
+	}
+
+	@Test
+	public void testReuse() throws Exception {
+		ByteBuffer buffer = pool.acquire(100 * KB);
+		pool.release(buffer);
+
+		assertThat(pool.acquire(120 * KB), is(sameInstance(buffer)));
+	}
+
+	@Test
+	public void testOversizedIsHeap() throws Exception {
+		assertThat(pool.acquire(300 * KB).isDirect(), is(false));
+	}
+
+	@Test
+	public void testLimitFallsBackToHeap() throws Exception {
+		pool.acquire(256 * KB);
+		pool.acquire(256 * KB);
+
+		assertThat(pool.acquire(10).isDirect(), is(false));
+	}
+
+	@Test
+	public void testIdleBuffersDropped() throws Exception {
+		pool.release(pool.acquire(256 * KB));
+		pool.release(pool.acquire(256 * KB));
+		pool.acquire(256 * KB);
+		pool.acquire(256 * KB);
+		pool.release(pool.acquire(100 * KB));
+
+		assertThat(pool.getDirectBytes(), is(512L * KB));
+	}
+
+	@Test
+	public void testDiscard() throws Exception {
+		pool.discard(pool.acquire(256 * KB));
+
+		assertThat(pool.getDirectBytes(), is(0L));
+	}
+}
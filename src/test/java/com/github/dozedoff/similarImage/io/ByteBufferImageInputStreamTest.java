@@ -0,0 +1,86 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.io;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ByteBufferImageInputStreamTest {
+	private ByteBuffer buffer;
+	private ByteBufferImageInputStream iis;
+
+	@Before
+	public void setUp() throws Exception {
+		buffer = ByteBuffer.allocateDirect(16);
+
+		for (int i = 0; i < 16; i++) {
+			buffer.put((byte) i);
+		}
+
+		buffer.position(4);
+		iis = new ByteBufferImageInputStream(buffer);
+	}
+
+	@Test
+	public void testReadStartsAtPosition() throws Exception {
+		assertThat(iis.read(), is(4));
+	}
+
+	@Test
+	public void testLength() throws Exception {
+		assertThat(iis.length(), is(12L));
+	}
+
+	@Test
+	public void testSeekAndRead() throws Exception {
+		byte[] data = new byte[4];
+		iis.seek(8);
+
+		assertThat(iis.read(data, 0, 4), is(4));
+		assertThat(data[0], is((byte) 12));
+		assertThat(iis.read(data, 0, 4), is(-1));
+	}
+
+	@Test
+	public void testBufferUnchanged() throws Exception {
+		iis.readFully(new byte[12]);
+		assertThat(buffer.position(), is(4));
+	}
+
+	@Test
+	public void testDecode() throws Exception {
+		ByteArrayOutputStream png = new ByteArrayOutputStream();
+		ImageIO.write(new BufferedImage(40, 30, BufferedImage.TYPE_INT_RGB), "png", png);
+		ByteBuffer data = ByteBuffer.allocateDirect(png.size());
+		data.put(png.toByteArray());
+		data.flip();
+
+		BufferedImage image = ImageIO.read(new ByteBufferImageInputStream(data));
+
+		assertThat(image.getWidth(), is(40));
+	}
+}
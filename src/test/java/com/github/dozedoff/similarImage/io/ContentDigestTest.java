@@ -0,0 +1,81 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.io;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertThat;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ContentDigestTest {
+	@Test
+	public void testSameContent() {
+		byte[] data = randomData(1000);
+		assertThat(ContentDigest.hash(data), is(ContentDigest.hash(data.clone())));
+	}
+
+	@Test
+	public void testChangedByte() {
+		byte[] data = randomData(1000);
+		long hash = ContentDigest.hash(data);
+
+		data[999]++;
+		assertThat(ContentDigest.hash(data), is(not(hash)));
+	}
+
+	@Test
+	public void testLengthIsPartOfDigest() {
+		byte[] data = new byte[16];
+		assertThat(ContentDigest.hash(data), is(not(ContentDigest.hash(Arrays.copyOf(data, 17)))));
+	}
+
+	@Test
+	public void testRange() {
+		byte[] data = randomData(1000);
+		byte[] range = Arrays.copyOfRange(data, 13, 13 + 501);
+
+		assertThat(ContentDigest.hash(data, 13, 501), is(ContentDigest.hash(range)));
+	}
+
+	@Test
+	public void testDirectBuffer() {
+		byte[] data = randomData(1000);
+		ByteBuffer buffer = ByteBuffer.allocateDirect(1000);
+		buffer.put(data);
+		buffer.position(13).limit(13 + 501);
+
+		assertThat(ContentDigest.hash(buffer), is(ContentDigest.hash(data, 13, 501)));
+		assertThat(buffer.position(), is(13));
+	}
+
+	@Test
+	public void testEmpty() {
+		assertThat(ContentDigest.hash(new byte[0]), is(not(0L)));
+	}
+
+	private byte[] randomData(int size) {
+		byte[] data = new byte[size];
+		new Random(42).nextBytes(data);
+		return data;
+	}
+}
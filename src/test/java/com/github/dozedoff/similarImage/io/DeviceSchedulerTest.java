@@ -0,0 +1,87 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.io;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class DeviceSchedulerTest {
+	private DeviceScheduler scheduler;
+	private List<Path> batch;
+
+	private final Path a = Paths.get("test", "a.jpg");
+	private final Path b = Paths.get("test", "b.jpg");
+	private final Path c = Paths.get("test", "c.jpg");
+
+	@Before
+	public void setUp() throws Exception {
+		scheduler = new DeviceScheduler(new BufferPool(1024, 1024), 2);
+		batch = new ArrayList<Path>();
+	}
+
+	@Test
+	public void testEmpty() throws Exception {
+		assertThat(scheduler.nextBatch(batch, 10), is(nullValue()));
+	}
+
+	@Test
+	public void testSortedWithinDirectory() throws Exception {
+		scheduler.addAll(Arrays.asList(c, a, b));
+
+		assertThat(scheduler.nextBatch(batch, 10), is(notNullValue()));
+		assertThat(batch, is(Arrays.asList(a, b, c)));
+	}
+
+	@Test
+	public void testBatchSize() throws Exception {
+		scheduler.addAll(Arrays.asList(c, a, b));
+		scheduler.nextBatch(batch, 2);
+
+		assertThat(batch.size(), is(2));
+		assertThat(scheduler.getPendingCount(), is(1));
+	}
+
+	@Test
+	public void testSameDirectoryOneBatch() throws Exception {
+		scheduler.addAll(Arrays.asList(a));
+		scheduler.addAll(Arrays.asList(b));
+		scheduler.nextBatch(batch, 10);
+
+		assertThat(batch, is(Arrays.asList(a, b)));
+	}
+
+	@Test
+	public void testClear() throws Exception {
+		scheduler.addAll(Arrays.asList(c, a, b));
+		scheduler.clear();
+
+		assertThat(scheduler.getPendingCount(), is(0));
+		assertThat(scheduler.nextBatch(batch, 10), is(nullValue()));
+	}
+}
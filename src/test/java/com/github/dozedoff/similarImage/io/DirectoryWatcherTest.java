@@ -0,0 +1,122 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.io;
+
+import static org.hamcrest.CoreMatchers.hasItem;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.github.dozedoff.similarImage.db.Persistence;
+
+public class DirectoryWatcherTest {
+	/**
+	 * Longer than the debounce time of the watcher.
+	 */
+	private static final int EVENT_TIMEOUT = 10000;
+
+	private Path root;
+	private Path image;
+	private ImageProducer producer;
+	private Persistence persistence;
+	private DirectoryWatcher watcher;
+
+	@Before
+	public void setUp() throws Exception {
+		root = Files.createTempDirectory("similarImage");
+		image = root.resolve("foo.jpg");
+		producer = mock(ImageProducer.class);
+		persistence = mock(Persistence.class);
+		watcher = new DirectoryWatcher(producer, persistence, root);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		watcher.stopWatching();
+		watcher.join();
+		Files.deleteIfExists(image);
+		Files.delete(root);
+	}
+
+	private void startAndAwaitWatch() throws InterruptedException {
+		watcher.start();
+
+		long deadline = System.currentTimeMillis() + EVENT_TIMEOUT;
+
+		while (watcher.getWatchCount() == 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+
+		assertThat(watcher.getWatchCount(), is(1));
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private ArgumentCaptor<List<Path>> pathCaptor() {
+		return (ArgumentCaptor) ArgumentCaptor.forClass(List.class);
+	}
+
+	@Test
+	public void testFeedOpenedOnStart() throws Exception {
+		watcher.start();
+
+		verify(producer).openFeed();
+	}
+
+	@Test
+	public void testFeedClosedOnStop() throws Exception {
+		watcher.start();
+		watcher.stopWatching();
+		watcher.join();
+
+		verify(producer).closeFeed();
+	}
+
+	@Test
+	public void testCreatedImageIsQueued() throws Exception {
+		startAndAwaitWatch();
+		Files.createFile(image);
+
+		ArgumentCaptor<List<Path>> captor = pathCaptor();
+		verify(producer, timeout(EVENT_TIMEOUT)).addChanged(captor.capture());
+
+		assertThat(captor.getValue(), hasItem(image));
+	}
+
+	@Test
+	public void testDeletedImageRecordIsRemoved() throws Exception {
+		Files.createFile(image);
+		startAndAwaitWatch();
+		Files.delete(image);
+
+		ArgumentCaptor<List<Path>> captor = pathCaptor();
+		verify(persistence, timeout(EVENT_TIMEOUT)).deleteRecords(captor.capture());
+
+		assertThat(captor.getValue(), hasItem(image));
+	}
+}
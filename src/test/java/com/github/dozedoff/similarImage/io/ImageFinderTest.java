@@ -0,0 +1,121 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.io;
+
+import static org.hamcrest.CoreMatchers.hasItems;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+public class ImageFinderTest {
+	private Path root;
+	private Path imageA;
+	private Path imageB;
+	private Path imageC;
+	private ImageProducer producer;
+	private ImageFinder finder;
+
+	@Before
+	public void setUp() throws Exception {
+		root = Files.createTempDirectory("similarImage");
+		Path sub = Files.createDirectory(root.resolve("sub"));
+
+		imageA = Files.createFile(root.resolve("a.jpg"));
+		imageB = Files.createFile(root.resolve("b.png"));
+		imageC = Files.createFile(sub.resolve("c.jpg"));
+		Files.createFile(root.resolve("notes.txt"));
+
+		producer = mock(ImageProducer.class);
+		finder = new ImageFinder(producer, 2, 1);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		finder.shutdown();
+
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private List<Path> submitted(int batches) {
+		ArgumentCaptor<List<Path>> captor = (ArgumentCaptor) ArgumentCaptor.forClass(List.class);
+		verify(producer, times(batches)).addToLoad(captor.capture());
+
+		List<Path> paths = new LinkedList<Path>();
+
+		for (List<Path> batch : captor.getAllValues()) {
+			paths.addAll(batch);
+		}
+
+		return paths;
+	}
+
+	@Test
+	public void testFoundCount() throws Exception {
+		assertThat(finder.find(root), is(3));
+	}
+
+	@Test
+	public void testImagesSubmitted() throws Exception {
+		finder.find(root);
+
+		List<Path> paths = submitted(3);
+
+		assertThat(paths.size(), is(3));
+		assertThat(paths, hasItems(imageA, imageB, imageC));
+	}
+
+	@Test
+	public void testSingleFile() throws Exception {
+		assertThat(finder.find(imageA), is(1));
+		assertThat(submitted(1), hasItems(imageA));
+	}
+
+	@Test
+	public void testMissingDirectory() throws Exception {
+		assertThat(finder.find(root.resolve("missing")), is(0));
+	}
+}
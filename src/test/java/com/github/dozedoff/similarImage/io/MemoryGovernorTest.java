@@ -0,0 +1,93 @@
+/*  Copyright (C) 2013  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    mmut is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.io;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class MemoryGovernorTest {
+	private MemoryGovernor governor;
+
+	@Before
+	public void setUp() throws Exception {
+		governor = new MemoryGovernor(100);
+	}
+
+	@Test
+	public void testAcquireRelease() throws Exception {
+		governor.acquire(60);
+		governor.acquire(40);
+		assertThat(governor.getInFlight(), is(100L));
+
+		governor.release(60);
+		assertThat(governor.getInFlight(), is(40L));
+	}
+
+	@Test
+	public void testOversizedWhenEmpty() throws Exception {
+		governor.acquire(500);
+		assertThat(governor.getInFlight(), is(500L));
+		assertThat(governor.getPeak(), is(500L));
+	}
+
+	@Test(timeout = 5000)
+	public void testThrottledUntilReleased() throws Exception {
+		governor.acquire(80);
+
+		Thread t = new Thread() {
+			@Override
+			public void run() {
+				try {
+					governor.acquire(50);
+				} catch (InterruptedException e) {
+					interrupt();
+				}
+			}
+		};
+
+		t.start();
+
+		while (governor.getThrottled() == 0) {
+			Thread.sleep(10);
+		}
+
+		assertThat(governor.getInFlight(), is(80L));
+
+		governor.release(80);
+		t.join();
+
+		assertThat(governor.getInFlight(), is(50L));
+	}
+
+	@Test
+	public void testReset() throws Exception {
+		governor.acquire(80);
+		governor.reset();
+		governor.release(80);
+
+		assertThat(governor.getInFlight(), is(0L));
+	}
+
+	@Test
+	public void testEstimate() throws Exception {
+		assertThat(MemoryGovernor.estimateImageBytes(6000, 4000), is(96000000L));
+	}
+}